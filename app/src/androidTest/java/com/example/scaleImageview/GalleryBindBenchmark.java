@@ -0,0 +1,106 @@
+package com.example.scaleImageview;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 统计画廊中每个条目在主线程上的开销：每次都inflate新控件再绑定图片，对比复用同一个控件调用rebind
+ * 只统计主线程的耗时，不等待子线程解码
+ * 运行：./gradlew :app:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.example.scaleImageview.GalleryBindBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class GalleryBindBenchmark {
+    private static final String TAG = "GalleryBindBenchmark";
+    private static final int ITEM_COUNT = 300;
+    private static final int WARMUP_COUNT = 30;
+    private static final int SOURCE_COUNT = 20;
+    private static final int ITEM_WIDTH = 360;
+    private static final int ITEM_HEIGHT = 480;
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+    private final Context mContext = mInstrumentation.getTargetContext();
+
+    @Test
+    public void inflateAndBind() throws Exception {
+        final List<ImageSource> sources = createSources();
+        final FrameLayout parent = new FrameLayout(mContext);
+        final LayoutInflater inflater = LayoutInflater.from(mContext);
+        final long[] nanos = new long[2];
+        mInstrumentation.runOnMainSync(() -> {
+            //预热类加载以及共享的缓存
+            for (int i = 0; i < WARMUP_COUNT; i++) {
+                bindNew(inflater, parent, sources.get(i % SOURCE_COUNT)).reset();
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                bindNew(inflater, parent, sources.get(i % SOURCE_COUNT)).reset();
+            }
+            nanos[0] = SystemClock.elapsedRealtimeNanos() - start;
+
+            ScaleImageView pooled = bindNew(inflater, parent, sources.get(0));
+            for (int i = 0; i < WARMUP_COUNT; i++) {
+                pooled.rebind(sources.get(i % SOURCE_COUNT));
+            }
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                pooled.rebind(sources.get(i % SOURCE_COUNT));
+            }
+            nanos[1] = SystemClock.elapsedRealtimeNanos() - start;
+            pooled.reset();
+        });
+        report(String.format("inflate+bind %.1fus/item, rebind %.1fus/item",
+                nanos[0] / 1e3 / ITEM_COUNT, nanos[1] / 1e3 / ITEM_COUNT));
+    }
+
+    private static ScaleImageView bindNew(LayoutInflater inflater, FrameLayout parent, ImageSource source) {
+        View root = inflater.inflate(R.layout.activity_main, parent, false);
+        ScaleImageView view = root.findViewById(R.id.iv_scale);
+        root.measure(View.MeasureSpec.makeMeasureSpec(ITEM_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(ITEM_HEIGHT, View.MeasureSpec.EXACTLY));
+        root.layout(0, 0, ITEM_WIDTH, ITEM_HEIGHT);
+        view.setImageSource(source);
+        return view;
+    }
+
+    private List<ImageSource> createSources() throws IOException {
+        List<ImageSource> sources = new ArrayList<>();
+        Bitmap bitmap = Bitmap.createBitmap(800, 600, Bitmap.Config.ARGB_8888);
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            File file = new File(mContext.getCacheDir(), "gallery_" + i + ".jpg");
+            bitmap.eraseColor(0xff000000 | (i * 0x0c0c0c));
+            try (OutputStream out = new FileOutputStream(file)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            }
+            sources.add(ImageSource.file(file.getPath()));
+        }
+        bitmap.recycle();
+        return sources;
+    }
+
+    private void report(String line) {
+        Log.i(TAG, line);
+        Bundle status = new Bundle();
+        status.putString(Instrumentation.REPORT_KEY_STREAMRESULT, line + "\n");
+        mInstrumentation.sendStatus(0, status);
+    }
+}
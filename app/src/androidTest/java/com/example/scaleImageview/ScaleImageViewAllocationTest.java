@@ -0,0 +1,134 @@
+package com.example.scaleImageview;
+
+import android.app.Instrumentation;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 统计手势热路径上每个事件分配的字节数，超过预算时测试失败
+ * 需要在设备上运行：Robolectric中MotionEvent、VelocityTracker等的shadow实现每个事件都会分配对象，无法反映真实的开销
+ * 运行：./gradlew :app:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.example.scaleImageview.ScaleImageViewAllocationTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScaleImageViewAllocationTest {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int EVENT_COUNT = 2000;
+    //每个事件允许的平均分配字节数，一个RectF就会超出该预算
+    private static final long MAX_BYTES_PER_EVENT = 16;
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+    private ScaleImageView mView;
+    private long mDownTime;
+
+    @Before
+    public void setUp() {
+        mInstrumentation.runOnMainSync(() -> {
+            mView = new ScaleImageView(mInstrumentation.getTargetContext());
+            mView.setScaleEnable(true);
+            mView.setDoubleTapEnable(true);
+            Bitmap bitmap = Bitmap.createBitmap(2000, 3000, Bitmap.Config.ARGB_8888);
+            mView.setImageDrawable(new BitmapDrawable(mView.getResources(), bitmap));
+            mView.measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+            mView.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        });
+        mDownTime = SystemClock.uptimeMillis();
+    }
+
+    @Test
+    public void pan_doesNotAllocatePerEvent() {
+        mInstrumentation.runOnMainSync(this::zoomToMax);
+        mInstrumentation.runOnMainSync(() -> mView.onTouch(mView, obtain(MotionEvent.ACTION_DOWN, 540, 960)));
+        MotionEvent[] moves = new MotionEvent[EVENT_COUNT];
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            //手指来回移动，保证图片不会一直贴在边界上
+            float offset = (i % 40 < 20 ? i % 20 : 20 - i % 20) * 10;
+            moves[i] = obtain(MotionEvent.ACTION_MOVE, 540 + offset, 960 + offset);
+        }
+        assertAllocationBudget("pan", moves);
+    }
+
+    @Test
+    public void pinch_doesNotAllocatePerEvent() {
+        mInstrumentation.runOnMainSync(() -> {
+            mView.onTouch(mView, obtain(MotionEvent.ACTION_DOWN, 540, 960));
+            mView.onTouch(mView, obtainPinch(MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 100));
+        });
+        MotionEvent[] moves = new MotionEvent[EVENT_COUNT];
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            //两指距离来回变化，交替放大和缩小
+            float spread = 100 + (i % 40 < 20 ? i % 20 : 20 - i % 20) * 20;
+            moves[i] = obtainPinch(MotionEvent.ACTION_MOVE, spread);
+        }
+        assertAllocationBudget("pinch", moves);
+    }
+
+    private void zoomToMax() {
+        mView.onTouch(mView, obtain(MotionEvent.ACTION_DOWN, 540, 960));
+        mView.onTouch(mView, obtainPinch(MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 100));
+        for (int spread = 100; spread <= 900; spread += 20) {
+            mView.onTouch(mView, obtainPinch(MotionEvent.ACTION_MOVE, spread));
+        }
+        mView.onTouch(mView, obtainPinch(MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 900));
+        mView.onTouch(mView, obtain(MotionEvent.ACTION_UP, 540, 960));
+    }
+
+    private void assertAllocationBudget(String name, final MotionEvent[] events) {
+        final long[] result = new long[1];
+        //分配计数是按线程统计的，事件都在主线程分发
+        mInstrumentation.runOnMainSync(() -> {
+            //预热，让JIT和各个检测器的内部状态稳定下来
+            for (MotionEvent event : events) {
+                mView.onTouch(mView, event);
+            }
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            for (MotionEvent event : events) {
+                mView.onTouch(mView, event);
+            }
+            Debug.stopAllocCounting();
+            result[0] = Debug.getThreadAllocSize();
+        });
+        long allocated = result[0];
+        long perEvent = allocated / events.length;
+        assertTrue(name + " allocated " + allocated + " bytes for " + events.length
+                + " events (" + perEvent + " bytes/event), budget is " + MAX_BYTES_PER_EVENT,
+                perEvent <= MAX_BYTES_PER_EVENT);
+    }
+
+    private MotionEvent obtain(int action, float x, float y) {
+        return MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(), action, x, y, 0);
+    }
+
+    private MotionEvent obtainPinch(int action, float spread) {
+        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[2];
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[2];
+        for (int i = 0; i < 2; i++) {
+            properties[i] = new MotionEvent.PointerProperties();
+            properties[i].id = i;
+            properties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[i] = new MotionEvent.PointerCoords();
+            coords[i].x = VIEW_WIDTH / 2f;
+            coords[i].y = VIEW_HEIGHT / 2f + (i == 0 ? -spread : spread);
+            coords[i].pressure = 1;
+            coords[i].size = 1;
+        }
+        return MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(), action, 2, properties, coords,
+                0, 0, 1, 1, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.scaleImageview;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 对比输入流、文件描述符、内存映射三种来源加载大文件时的堆内存峰值以及底图显示耗时
+ * 运行：./gradlew :app:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.example.scaleImageview.SourceLoadBenchmark
+ * 可以通过 -e benchmarkFiles /sdcard/a.jpg,/sdcard/b.jpg 指定真实文件，否则生成50/100/200MB的测试文件
+ */
+@RunWith(AndroidJUnit4.class)
+public class SourceLoadBenchmark {
+    private static final String TAG = "SourceLoadBenchmark";
+    private static final int[] GENERATED_SIZES_MB = {50, 100, 200};
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final long TIMEOUT_SECONDS = 60;
+    //堆内存的采样间隔
+    private static final long SAMPLE_INTERVAL_MILLIS = 2;
+
+    private enum Mode {
+        STREAM, FILE_DESCRIPTOR, MAPPED_FILE
+    }
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+    private final Context mContext = mInstrumentation.getTargetContext();
+
+    @Test
+    public void compareSources() throws Exception {
+        List<File> files = getBenchmarkFiles();
+        for (File file : files) {
+            for (Mode mode : Mode.values()) {
+                //输入流会把整个文件读入Java堆，放不下时跳过
+                if (mode == Mode.STREAM && file.length() * 2 > Runtime.getRuntime().maxMemory()) {
+                    report(file, mode, "skipped: " + (file.length() >> 20) + "MB does not fit the heap");
+                    continue;
+                }
+                Result result = measure(file, mode);
+                report(file, mode, result.toString());
+                assertTrue(file + " " + mode + " did not load", result.loaded);
+            }
+        }
+    }
+
+    private Result measure(File file, Mode mode) throws Exception {
+        final CountDownLatch baseLayerReady = new CountDownLatch(1);
+        final ScaleImageView[] view = new ScaleImageView[1];
+        mInstrumentation.runOnMainSync(() -> {
+            view[0] = new ScaleImageView(mContext);
+            view[0].measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+            view[0].layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+            //底图显示后会回调持有的bitmap字节数
+            view[0].setMetricsListener(new ScaleImageMetrics() {
+                @Override
+                public void onBitmapMemory(long bytes) {
+                    super.onBitmapMemory(bytes);
+                    baseLayerReady.countDown();
+                }
+            });
+        });
+
+        PrefetchCache.getDefault().clear();
+        TileCache.getDefault().clear();
+        Runtime.getRuntime().gc();
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+
+        ParcelFileDescriptor fileDescriptor = null;
+        long start = SystemClock.elapsedRealtimeNanos();
+        final ImageSource source;
+        switch (mode) {
+            case STREAM:
+                source = ImageSource.stream(new FileInputStream(file));
+                break;
+            case FILE_DESCRIPTOR:
+                fileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+                source = ImageSource.fileDescriptor(fileDescriptor);
+                break;
+            default:
+                source = ImageSource.mappedFile(file.getPath());
+                break;
+        }
+        mInstrumentation.runOnMainSync(() -> view[0].setImageSource(source));
+        boolean loaded = baseLayerReady.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        sampler.finish();
+
+        mInstrumentation.runOnMainSync(() -> view[0].reset());
+        if (fileDescriptor != null) {
+            fileDescriptor.close();
+        }
+        return new Result(loaded, elapsed, sampler.mPeakJavaBytes - sampler.mStartJavaBytes,
+                sampler.mPeakNativeBytes - sampler.mStartNativeBytes);
+    }
+
+    private List<File> getBenchmarkFiles() throws IOException {
+        List<File> files = new ArrayList<>();
+        String paths = InstrumentationRegistry.getArguments().getString("benchmarkFiles");
+        if (paths != null) {
+            for (String path : paths.split(",")) {
+                files.add(new File(path.trim()));
+            }
+            return files;
+        }
+        for (int sizeMb : GENERATED_SIZES_MB) {
+            files.add(generateFile(sizeMb));
+        }
+        return files;
+    }
+
+    /**
+     * 生成一张4000x3000的随机噪点JPEG，并在结束标记之后补齐到指定大小
+     * 解码器会忽略结束标记之后的数据，但输入流的方式仍然需要读取并保存整个文件
+     *
+     * @param sizeMb
+     * @return
+     * @throws IOException
+     */
+    private File generateFile(int sizeMb) throws IOException {
+        File file = new File(mContext.getCacheDir(), "benchmark_" + sizeMb + "mb.jpg");
+        long size = sizeMb * 1024L * 1024L;
+        if (file.length() == size) {
+            return file;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(4000, 3000, Bitmap.Config.ARGB_8888);
+        Random random = new Random(42);
+        int[] row = new int[bitmap.getWidth()];
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            for (int x = 0; x < row.length; x++) {
+                row[x] = 0xff000000 | random.nextInt(0x1000000);
+            }
+            bitmap.setPixels(row, 0, row.length, 0, y, row.length, 1);
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 95, out);
+        }
+        bitmap.recycle();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            byte[] padding = new byte[1024 * 1024];
+            long remaining = size - file.length();
+            while (remaining > 0) {
+                int count = (int) Math.min(padding.length, remaining);
+                out.write(padding, 0, count);
+                remaining -= count;
+            }
+        }
+        return file;
+    }
+
+    private void report(File file, Mode mode, String message) {
+        String line = String.format("%-24s %-16s %s", file.getName(), mode, message);
+        Log.i(TAG, line);
+        Bundle status = new Bundle();
+        status.putString(Instrumentation.REPORT_KEY_STREAMRESULT, line + "\n");
+        mInstrumentation.sendStatus(0, status);
+    }
+
+    private static final class Result {
+        final boolean loaded;
+        final long elapsedNanos;
+        final long javaHeapBytes;
+        final long nativeHeapBytes;
+
+        Result(boolean loaded, long elapsedNanos, long javaHeapBytes, long nativeHeapBytes) {
+            this.loaded = loaded;
+            this.elapsedNanos = elapsedNanos;
+            this.javaHeapBytes = javaHeapBytes;
+            this.nativeHeapBytes = nativeHeapBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("firstFrame=%.1fms peakJavaHeap=+%.1fMB peakNativeHeap=+%.1fMB",
+                    elapsedNanos / 1e6, javaHeapBytes / 1048576.0, nativeHeapBytes / 1048576.0);
+        }
+    }
+
+    /**
+     * 在加载期间周期性采样Java堆和native堆的使用量，记录峰值
+     */
+    private static final class HeapSampler extends Thread {
+        final long mStartJavaBytes = usedJavaBytes();
+        final long mStartNativeBytes = Debug.getNativeHeapAllocatedSize();
+        volatile long mPeakJavaBytes = mStartJavaBytes;
+        volatile long mPeakNativeBytes = mStartNativeBytes;
+        private volatile boolean mRunning = true;
+
+        @Override
+        public void run() {
+            while (mRunning) {
+                mPeakJavaBytes = Math.max(mPeakJavaBytes, usedJavaBytes());
+                mPeakNativeBytes = Math.max(mPeakNativeBytes, Debug.getNativeHeapAllocatedSize());
+                SystemClock.sleep(SAMPLE_INTERVAL_MILLIS);
+            }
+        }
+
+        void finish() throws InterruptedException {
+            mRunning = false;
+            join();
+        }
+
+        private static long usedJavaBytes() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.example.scaleImageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.ImageDecoder;
+import android.graphics.Movie;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.AnimatedImageDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 动图的播放，帧的解码都在子线程，主线程只切换已经解码好的帧并重绘
+ * Android 9及以上使用AnimatedImageDrawable，支持GIF和动态WebP，由系统在自己的线程中按帧间隔解码；
+ * 更低的版本使用Movie在子线程提前解码到几张复用的bitmap组成的环中，播放过程中不再分配内存
+ */
+final class AnimatedImage {
+    private static final String TAG = "AnimatedImage";
+    //环中bitmap的数量：一张正在显示，一张刚换下（渲染线程可能还在读取），其余是提前解码好的帧
+    private static final int RING_SIZE = 4;
+    //Movie无法读取每一帧的间隔，按固定间隔取帧，GIF的帧间隔一般不小于20ms
+    private static final int FRAME_MILLIS = 20;
+    private static Handler sDecodeHandler;
+
+    interface Callback {
+        /**
+         * 动图已经可以显示，drawable的固有尺寸为图片尺寸
+         */
+        void onAnimationReady(Drawable drawable);
+
+        /**
+         * 图片只有一帧，调用方按静态图片显示
+         */
+        void onNotAnimated();
+
+        void onLoadFailed(Exception e);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Handler mDecodeHandler = getDecodeHandler();
+    private final Context mContext;
+    private final ImageSource mSource;
+    private final Callback mCallback;
+    //内存预算，为null时不检查
+    private final MemoryBudget mMemoryBudget;
+    private volatile boolean mReleased;
+    private boolean isRunning;
+
+    //Android 9及以上
+    private AnimatedImageDrawable mAnimatedDrawable;
+
+    //Movie只在解码线程访问
+    private Movie mMovie;
+    private Canvas mFrameCanvas;
+    private int mNextFrameTime;
+    private FrameDrawable mFrameDrawable;
+    //环中的bitmap，mDisplayed之后的mReadyCount张是已经解码好等待显示的帧，由this保护
+    private Bitmap[] mFrames;
+    private int mDisplayed;
+    private int mReadyCount;
+    private boolean hasFrame;
+
+    //在解码线程提前解码，直到环被填满
+    private final Runnable mDecodeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            decodeAhead();
+        }
+    };
+
+    //在主线程按帧间隔切换到下一帧
+    private final Runnable mShowRunnable = new Runnable() {
+        @Override
+        public void run() {
+            showNextFrame();
+        }
+    };
+
+    AnimatedImage(Context context, ImageSource source, MemoryBudget memoryBudget, Callback callback) {
+        mContext = context.getApplicationContext();
+        mSource = source;
+        mMemoryBudget = memoryBudget;
+        mCallback = callback;
+    }
+
+    private static synchronized Handler getDecodeHandler() {
+        if (sDecodeHandler == null) {
+            HandlerThread thread = new HandlerThread("ScaleImageView-animation", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sDecodeHandler = new Handler(thread.getLooper());
+        }
+        return sDecodeHandler;
+    }
+
+    ImageSource getSource() {
+        return mSource;
+    }
+
+    /**
+     * 在子线程读取并解析图片，完成后在主线程回调
+     */
+    void load() {
+        mDecodeHandler.post(() -> {
+            if (mReleased) {
+                return;
+            }
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                    loadAnimatedDrawable();
+                } else {
+                    loadMovie();
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "load " + mSource + " failed", e);
+                mMainHandler.post(() -> {
+                    if (!mReleased) {
+                        mCallback.onLoadFailed(e);
+                    }
+                });
+            }
+        });
+    }
+
+    private void loadAnimatedDrawable() throws IOException {
+        byte[] data;
+        try (InputStream in = mSource.openStream(mContext)) {
+            data = readFully(in);
+        }
+        Drawable drawable = ImageDecoder.decodeDrawable(ImageDecoder.createSource(ByteBuffer.wrap(data)));
+        final AnimatedImageDrawable animated = drawable instanceof AnimatedImageDrawable ? (AnimatedImageDrawable) drawable : null;
+        mMainHandler.post(() -> {
+            if (mReleased) {
+                return;
+            }
+            if (animated == null) {
+                mCallback.onNotAnimated();
+                return;
+            }
+            mAnimatedDrawable = animated;
+            mCallback.onAnimationReady(animated);
+        });
+    }
+
+    private void loadMovie() throws IOException {
+        Movie movie;
+        //Movie需要支持mark/reset的输入流
+        try (InputStream in = new BufferedInputStream(mSource.openStream(mContext))) {
+            movie = Movie.decodeStream(in);
+        }
+        if (movie == null || movie.duration() <= 0 || movie.width() <= 0 || movie.height() <= 0) {
+            mMainHandler.post(() -> {
+                if (!mReleased) {
+                    mCallback.onNotAnimated();
+                }
+            });
+            return;
+        }
+        int width = movie.width();
+        int height = movie.height();
+        long bytes = (long) width * height * 4 * RING_SIZE;
+        if (mMemoryBudget != null && !mMemoryBudget.canAllocate(bytes)) {
+            throw new IOException("not enough memory for " + RING_SIZE + " frames of " + width + "x" + height);
+        }
+        Bitmap[] frames = new Bitmap[RING_SIZE];
+        for (int i = 0; i < RING_SIZE; i++) {
+            frames[i] = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        mMovie = movie;
+        mFrameCanvas = new Canvas();
+        synchronized (this) {
+            mFrames = frames;
+        }
+        final FrameDrawable drawable = new FrameDrawable(width, height);
+        mMainHandler.post(() -> {
+            if (mReleased) {
+                return;
+            }
+            mFrameDrawable = drawable;
+            mCallback.onAnimationReady(drawable);
+        });
+        decodeAhead();
+    }
+
+    /**
+     * 解码后续的帧直到环被填满，在解码线程调用
+     */
+    private void decodeAhead() {
+        if (mReleased || mMovie == null) {
+            return;
+        }
+        while (true) {
+            Bitmap frame;
+            synchronized (this) {
+                //不覆盖正在显示和刚换下的帧
+                if (mReadyCount >= RING_SIZE - 2) {
+                    return;
+                }
+                frame = mFrames[(mDisplayed + mReadyCount + 1) % RING_SIZE];
+            }
+            mMovie.setTime(mNextFrameTime);
+            mNextFrameTime = (mNextFrameTime + FRAME_MILLIS) % mMovie.duration();
+            frame.eraseColor(0);
+            mFrameCanvas.setBitmap(frame);
+            mMovie.draw(mFrameCanvas, 0, 0);
+            mFrameCanvas.setBitmap(null);
+            synchronized (this) {
+                mReadyCount++;
+            }
+            if (mReleased) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 切换到下一帧，下一帧还没有解码好时保持当前帧，在主线程调用
+     */
+    private void showNextFrame() {
+        if (!isRunning || mReleased) {
+            return;
+        }
+        boolean advanced = false;
+        synchronized (this) {
+            if (mReadyCount > 0) {
+                mDisplayed = (mDisplayed + 1) % RING_SIZE;
+                mReadyCount--;
+                hasFrame = true;
+                advanced = true;
+            }
+        }
+        if (advanced) {
+            mFrameDrawable.invalidateSelf();
+            //空出了一个位置
+            mDecodeHandler.post(mDecodeRunnable);
+        }
+        mMainHandler.postDelayed(mShowRunnable, FRAME_MILLIS);
+    }
+
+    /**
+     * 开始或继续播放，需要在主线程调用
+     */
+    void start() {
+        if (isRunning || mReleased) {
+            return;
+        }
+        if (mAnimatedDrawable != null) {
+            isRunning = true;
+            mAnimatedDrawable.start();
+        } else if (mFrameDrawable != null) {
+            isRunning = true;
+            mDecodeHandler.post(mDecodeRunnable);
+            showNextFrame();
+        }
+    }
+
+    /**
+     * 暂停播放，保持当前帧，需要在主线程调用
+     */
+    void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        if (mAnimatedDrawable != null) {
+            mAnimatedDrawable.stop();
+        }
+        mMainHandler.removeCallbacks(mShowRunnable);
+    }
+
+    boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * 环中所有帧的字节数
+     *
+     * @return
+     */
+    long getFrameBytes() {
+        Bitmap[] frames;
+        synchronized (this) {
+            frames = mFrames;
+        }
+        long bytes = 0;
+        if (frames != null) {
+            for (Bitmap frame : frames) {
+                bytes += frame.getAllocationByteCount();
+            }
+        }
+        return bytes;
+    }
+
+    void release() {
+        stop();
+        mReleased = true;
+        mDecodeHandler.removeCallbacks(mDecodeRunnable);
+        //放到解码线程的队列末尾，保证不再有帧在解码
+        mDecodeHandler.post(() -> {
+            //渲染线程可能还在绘制最后一帧，不主动recycle，交给GC回收
+            synchronized (this) {
+                mFrames = null;
+            }
+            mMovie = null;
+            mFrameCanvas = null;
+        });
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 绘制环中当前显示的帧
+     */
+    private final class FrameDrawable extends Drawable {
+        private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        private final int mWidth;
+        private final int mHeight;
+
+        FrameDrawable(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            Bitmap frame = null;
+            synchronized (AnimatedImage.this) {
+                if (hasFrame && mFrames != null) {
+                    frame = mFrames[mDisplayed];
+                }
+            }
+            if (frame != null && !frame.isRecycled()) {
+                canvas.drawBitmap(frame, null, getBounds(), mPaint);
+            }
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            mPaint.setAlpha(alpha);
+            invalidateSelf();
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter colorFilter) {
+            mPaint.setColorFilter(colorFilter);
+            invalidateSelf();
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return mHeight;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 可复用的bitmap池，按字节数限制大小
+ * 解码图块时通过BitmapFactory.Options.inBitmap复用其中的bitmap，避免频繁申请内存
+ */
+public class BitmapPool {
+    private final List<Bitmap> mBitmaps = new ArrayList<>();
+    private final long mMaxBytes;
+    private long mSizeBytes;
+
+    private int mReuseCount;
+    private int mPutCount;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 取出一个宽高和格式都一致的bitmap
+     * BitmapRegionDecoder在部分系统版本上不支持尺寸不一致的inBitmap，所以要求精确匹配
+     *
+     * @param width
+     * @param height
+     * @param config
+     * @return 没有可复用的bitmap时返回null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = mBitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                mBitmaps.remove(i);
+                mSizeBytes -= bitmap.getAllocationByteCount();
+                mReuseCount++;
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 放回一个不再使用的bitmap，超出容量时最早放入的bitmap会被回收
+     *
+     * @param bitmap
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getAllocationByteCount() > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        mPutCount++;
+        mBitmaps.add(bitmap);
+        mSizeBytes += bitmap.getAllocationByteCount();
+        while (mSizeBytes > mMaxBytes) {
+            Bitmap eldest = mBitmaps.remove(0);
+            mSizeBytes -= eldest.getAllocationByteCount();
+            eldest.recycle();
+        }
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+        mSizeBytes = 0;
+    }
+
+    public synchronized long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized int getReuseCount() {
+        return mReuseCount;
+    }
+
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.os.Build;
+
+/**
+ * 解码时的像素格式和方向
+ * 像素格式由图片是否透明、系统版本以及质量策略共同决定，不透明的图片不需要透明通道，
+ * EXIF方向不旋转像素，而是作为原图坐标到显示坐标的变换合并到控件的矩阵中
+ */
+public final class DecodeConfig {
+    /**
+     * 始终使用ARGB_8888，适合有大面积渐变的图片
+     */
+    public static final int QUALITY_HIGH = 0;
+    /**
+     * 不透明的图片使用RGB_565，内存减半，默认值
+     */
+    public static final int QUALITY_BALANCED = 1;
+    /**
+     * 在QUALITY_BALANCED的基础上，Android 8.0及以上底图使用HARDWARE，像素只保存在显存中
+     */
+    public static final int QUALITY_LOW_MEMORY = 2;
+
+    private DecodeConfig() {
+    }
+
+    /**
+     * 解码使用的像素格式
+     *
+     * @param quality QUALITY_HIGH、QUALITY_BALANCED或QUALITY_LOW_MEMORY
+     * @param opaque  图片是否确定不透明
+     * @return
+     */
+    static Bitmap.Config softwareConfig(int quality, boolean opaque) {
+        return quality != QUALITY_HIGH && opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * 底图的像素格式，底图只用于显示，不会被复用或者修改，可以放到显存中
+     * 图块需要通过BitmapPool复用，始终使用softwareConfig
+     *
+     * @param quality
+     * @param opaque
+     * @return
+     */
+    static Bitmap.Config baseConfig(int quality, boolean opaque) {
+        if (quality == QUALITY_LOW_MEMORY && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return Bitmap.Config.HARDWARE;
+        }
+        return softwareConfig(quality, opaque);
+    }
+
+    /**
+     * 每个像素占用的字节数，用于内存预算
+     *
+     * @param config
+     * @return
+     */
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    /**
+     * JPEG不支持透明通道，解码前就能确定不透明，其他格式需要解码后通过hasAlpha判断
+     *
+     * @param mimeType
+     * @return
+     */
+    static boolean isOpaqueFormat(String mimeType) {
+        return "image/jpeg".equals(mimeType);
+    }
+
+    /**
+     * 磁盘缓存中不透明的图块压缩为JPEG，通过文件头判断
+     *
+     * @param data
+     * @return
+     */
+    static boolean isJpeg(byte[] data) {
+        return data.length > 2 && (data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xd8;
+    }
+
+    /**
+     * 方向为旋转90度或270度（包括对角线翻转）时，显示的宽高与原图相反
+     *
+     * @param orientation ExifInterface.ORIENTATION_*
+     * @return
+     */
+    static boolean isSwapped(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270;
+    }
+
+    /**
+     * 计算原图坐标到显示坐标的矩阵，显示坐标系的原点在摆正后图片的左上角
+     *
+     * @param orientation ExifInterface.ORIENTATION_*
+     * @param width       原图宽度
+     * @param height      原图高度
+     * @param out
+     */
+    static void getOrientationMatrix(int orientation, float width, float height, Matrix out) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                out.setScale(-1, 1);
+                out.postTranslate(width, 0);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                out.setRotate(180);
+                out.postTranslate(width, height);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                out.setScale(1, -1);
+                out.postTranslate(0, height);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                //(x, y) -> (y, x)
+                out.setRotate(90);
+                out.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                //顺时针旋转，(x, y) -> (height - y, x)
+                out.setRotate(90);
+                out.postTranslate(height, 0);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                //(x, y) -> (height - y, width - x)
+                out.setRotate(-90);
+                out.postScale(-1, 1);
+                out.postTranslate(height, width);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                //(x, y) -> (y, width - x)
+                out.setRotate(-90);
+                out.postTranslate(0, width);
+                break;
+            default:
+                out.reset();
+                break;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.example.scaleImageview;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 磁盘上的图块金字塔缓存，进程重启后仍然有效
+ * 每张图片对应一个数据文件和一个索引文件：数据文件顺序追加压缩后的图块，
+ * 索引文件顺序追加每个图块的采样率、区域以及在数据文件中的位置，打开时整体读入内存，
+ * 之后只按需随机读取可见的图块。写入中途进程被杀时，超出数据文件长度的索引会被忽略
+ * 所有图片按最近打开的时间做LRU淘汰，总大小不超过maxBytes
+ * 同一张图片同时只有一个打开的Pack，多个控件共享并按引用计数关闭，避免各自追加到同一个位置
+ */
+public class DiskTileCache {
+    private static final String TAG = "DiskTileCache";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String PACK_SUFFIX = ".pack";
+    private static final int MAGIC = 0x54504b31;
+    private static final int VERSION = 1;
+    //默认256MB
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static DiskTileCache sDefault;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    //-1表示还没有统计，第一次使用时在子线程统计
+    private long mSizeBytes = -1;
+    //正在使用的图片，淘汰时跳过
+    private final Map<String, Pack> mOpenPacks = new HashMap<>();
+
+    /**
+     * @param directory 缓存目录，只能被一个DiskTileCache使用
+     * @param maxBytes  缓存的最大字节数
+     */
+    public DiskTileCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 位于应用缓存目录下的默认缓存，大小为256MB
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized DiskTileCache getDefault(Context context) {
+        if (sDefault == null) {
+            sDefault = new DiskTileCache(new File(context.getApplicationContext().getCacheDir(), "scale_image_tiles"), DEFAULT_MAX_BYTES);
+        }
+        return sDefault;
+    }
+
+    /**
+     * 打开一张图片的缓存，不存在或者已经失效时返回null，需要在子线程调用
+     * 已经被其他控件打开时返回同一个Pack，使用完后都需要调用close
+     *
+     * @param diskKey   图片的标识，包含修改时间，见ImageSource.getDiskCacheKey
+     * @param sourceKey 内存中图块键使用的图片标识
+     * @return
+     */
+    synchronized Pack open(String diskKey, String sourceKey) {
+        String name = fileName(diskKey);
+        File index = new File(mDirectory, name + INDEX_SUFFIX);
+        Pack opened = mOpenPacks.get(name);
+        if (opened != null) {
+            opened.mRefCount++;
+            index.setLastModified(System.currentTimeMillis());
+            return opened;
+        }
+        File pack = new File(mDirectory, name + PACK_SUFFIX);
+        if (!index.exists() || !pack.exists()) {
+            return null;
+        }
+        try {
+            Pack result = Pack.read(this, name, diskKey, sourceKey, index, pack);
+            mOpenPacks.put(name, result);
+            //更新最近使用的时间
+            index.setLastModified(System.currentTimeMillis());
+            return result;
+        } catch (IOException e) {
+            Log.w(TAG, "open " + diskKey + " failed", e);
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * 为图片创建新的缓存，旧的缓存会被删除，需要在子线程调用
+     * 其他控件正在写入同一张图片时不删除，直接共享它的Pack
+     *
+     * @param diskKey
+     * @param sourceKey
+     * @param sourceWidth
+     * @param sourceHeight
+     * @return
+     */
+    synchronized Pack create(String diskKey, String sourceKey, int sourceWidth, int sourceHeight) {
+        String name = fileName(diskKey);
+        Pack opened = mOpenPacks.get(name);
+        if (opened != null) {
+            opened.mRefCount++;
+            return opened;
+        }
+        remove(name);
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "cannot create " + mDirectory);
+            return null;
+        }
+        File index = new File(mDirectory, name + INDEX_SUFFIX);
+        File pack = new File(mDirectory, name + PACK_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(index)) {
+            out.write(header(diskKey, sourceWidth, sourceHeight));
+        } catch (IOException e) {
+            Log.w(TAG, "create " + diskKey + " failed", e);
+            remove(name);
+            return null;
+        }
+        Pack result = new Pack(this, name, sourceKey, index, pack, sourceWidth, sourceHeight, new HashMap<>(), 0);
+        mOpenPacks.put(name, result);
+        addSize(index.length());
+        return result;
+    }
+
+    /**
+     * 最后一个使用者关闭时才关闭文件
+     * 写入时先锁Pack再锁DiskTileCache，所以关闭文件放在锁外面
+     *
+     * @param pack
+     */
+    private void release(Pack pack) {
+        synchronized (this) {
+            if (--pack.mRefCount > 0) {
+                return;
+            }
+            mOpenPacks.remove(pack.mName);
+        }
+        pack.closeFiles();
+    }
+
+    synchronized void addSize(long bytes) {
+        if (mSizeBytes < 0) {
+            mSizeBytes = computeSize();
+        } else {
+            mSizeBytes += bytes;
+        }
+        trimToSize();
+    }
+
+    /**
+     * 删除最久没有打开的图片，直到总大小不超过上限
+     */
+    private void trimToSize() {
+        if (mSizeBytes <= mMaxBytes) {
+            return;
+        }
+        File[] indexes = mDirectory.listFiles((dir, fileName) -> fileName.endsWith(INDEX_SUFFIX));
+        if (indexes == null) {
+            return;
+        }
+        Arrays.sort(indexes, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File index : indexes) {
+            if (mSizeBytes <= mMaxBytes) {
+                break;
+            }
+            String name = index.getName().substring(0, index.getName().length() - INDEX_SUFFIX.length());
+            if (!mOpenPacks.containsKey(name)) {
+                remove(name);
+            }
+        }
+    }
+
+    private void remove(String name) {
+        File index = new File(mDirectory, name + INDEX_SUFFIX);
+        File pack = new File(mDirectory, name + PACK_SUFFIX);
+        long removed = index.length() + pack.length();
+        index.delete();
+        pack.delete();
+        if (mSizeBytes >= 0) {
+            mSizeBytes = Math.max(0, mSizeBytes - removed);
+        }
+    }
+
+    private long computeSize() {
+        long size = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 删除所有缓存，需要在子线程调用
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mSizeBytes = 0;
+    }
+
+    /**
+     * 当前缓存占用的字节数，需要在子线程调用
+     *
+     * @return
+     */
+    public synchronized long sizeBytes() {
+        if (mSizeBytes < 0) {
+            mSizeBytes = computeSize();
+        }
+        return mSizeBytes;
+    }
+
+    public long maxSizeBytes() {
+        return mMaxBytes;
+    }
+
+    private static byte[] header(String diskKey, int sourceWidth, int sourceHeight) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(diskKey);
+        out.writeInt(sourceWidth);
+        out.writeInt(sourceHeight);
+        return bytes.toByteArray();
+    }
+
+    private static String fileName(String diskKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(diskKey.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 一张图片的缓存，读写都是同步的，可以被多个控件共享
+     */
+    static final class Pack {
+        //索引中每条记录的字节数
+        private static final int RECORD_BYTES = 32;
+
+        private final DiskTileCache mCache;
+        private final String mName;
+        private final String mSourceKey;
+        private final File mIndexFile;
+        private final File mPackFile;
+        final int sourceWidth;
+        final int sourceHeight;
+        //图块在数据文件中的位置：offset, length
+        private final Map<TileKey, long[]> mEntries;
+        private long mPackLength;
+        //打开的控件数，由DiskTileCache加锁访问
+        private int mRefCount = 1;
+        private RandomAccessFile mPackAccess;
+        private FileOutputStream mIndexOut;
+        private boolean mClosed;
+
+        private Pack(DiskTileCache cache, String name, String sourceKey, File indexFile, File packFile,
+                     int sourceWidth, int sourceHeight, Map<TileKey, long[]> entries, long packLength) {
+            mCache = cache;
+            mName = name;
+            mSourceKey = sourceKey;
+            mIndexFile = indexFile;
+            mPackFile = packFile;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            mEntries = entries;
+            mPackLength = packLength;
+        }
+
+        private static Pack read(DiskTileCache cache, String name, String diskKey, String sourceKey,
+                                 File indexFile, File packFile) throws IOException {
+            long packLength = packFile.length();
+            Map<TileKey, long[]> entries = new HashMap<>();
+            //完整读取的记录数，重复的记录也计算在内
+            int records = 0;
+            int width;
+            int height;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                if (in.readInt() != MAGIC || in.readShort() != VERSION || !diskKey.equals(in.readUTF())) {
+                    throw new IOException("stale index " + indexFile);
+                }
+                width = in.readInt();
+                height = in.readInt();
+                Rect rect = new Rect();
+                try {
+                    while (true) {
+                        int sampleSize = in.readInt();
+                        rect.set(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                        long offset = in.readLong();
+                        int length = in.readInt();
+                        //数据没有完整写入的记录
+                        if (offset + length > packLength) {
+                            break;
+                        }
+                        entries.put(new TileKey(sourceKey, sampleSize, rect), new long[]{offset, length});
+                        records++;
+                    }
+                } catch (EOFException e) {
+                    //读到文件末尾，或者最后一条记录不完整
+                }
+            }
+            //截掉不完整的记录，保证之后追加的记录仍然对齐
+            long validLength = header(diskKey, width, height).length + (long) records * RECORD_BYTES;
+            if (indexFile.length() > validLength) {
+                try (RandomAccessFile access = new RandomAccessFile(indexFile, "rw")) {
+                    access.setLength(validLength);
+                }
+            }
+            return new Pack(cache, name, sourceKey, indexFile, packFile, width, height, entries, packLength);
+        }
+
+        String getSourceKey() {
+            return mSourceKey;
+        }
+
+        /**
+         * 共享的Pack以第一个打开的控件的图片标识保存图块，其他控件的键换成相同的标识
+         *
+         * @param key
+         * @return
+         */
+        private TileKey entryKey(TileKey key) {
+            if (key.sourceKey.equals(mSourceKey)) {
+                return key;
+            }
+            return new TileKey(mSourceKey, key.sampleSize, new Rect(key.left, key.top, key.right, key.bottom));
+        }
+
+        /**
+         * 是否已经缓存了图块，不读取数据
+         *
+         * @param key
+         * @return
+         */
+        synchronized boolean contains(TileKey key) {
+            return !mClosed && mEntries.containsKey(entryKey(key));
+        }
+
+        /**
+         * 读取压缩后的图块
+         *
+         * @param key
+         * @return 没有缓存时返回null
+         * @throws IOException
+         */
+        synchronized byte[] read(TileKey key) throws IOException {
+            long[] entry = mEntries.get(entryKey(key));
+            if (entry == null || mClosed) {
+                return null;
+            }
+            if (mPackAccess == null) {
+                mPackAccess = new RandomAccessFile(mPackFile, "rw");
+            }
+            byte[] data = new byte[(int) entry[1]];
+            mPackAccess.seek(entry[0]);
+            mPackAccess.readFully(data);
+            return data;
+        }
+
+        /**
+         * 追加一个压缩后的图块，先写数据再写索引
+         *
+         * @param sampleSize
+         * @param rect
+         * @param data
+         * @throws IOException
+         */
+        synchronized void write(int sampleSize, Rect rect, byte[] data) throws IOException {
+            TileKey key = new TileKey(mSourceKey, sampleSize, rect);
+            if (mClosed || mEntries.containsKey(key)) {
+                return;
+            }
+            if (mPackAccess == null) {
+                mPackAccess = new RandomAccessFile(mPackFile, "rw");
+            }
+            long offset = mPackLength;
+            mPackAccess.seek(offset);
+            mPackAccess.write(data);
+            mPackLength += data.length;
+            if (mIndexOut == null) {
+                mIndexOut = new FileOutputStream(mIndexFile, true);
+            }
+            //一条记录一次写入，减少中途被杀时留下的不完整记录
+            ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+            record.putInt(sampleSize).putInt(rect.left).putInt(rect.top).putInt(rect.right).putInt(rect.bottom)
+                    .putLong(offset).putInt(data.length);
+            mIndexOut.write(record.array());
+            mEntries.put(key, new long[]{offset, data.length});
+            mCache.addSize(data.length + RECORD_BYTES);
+        }
+
+        /**
+         * 每次open或create之后调用一次
+         */
+        void close() {
+            mCache.release(this);
+        }
+
+        private synchronized void closeFiles() {
+            mClosed = true;
+            try {
+                if (mPackAccess != null) {
+                    mPackAccess.close();
+                }
+                if (mIndexOut != null) {
+                    mIndexOut.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "close " + mName + " failed", e);
+            }
+        }
+    }
+}
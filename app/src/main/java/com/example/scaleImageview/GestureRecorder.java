@@ -0,0 +1,51 @@
+package com.example.scaleImageview;
+
+import android.view.MotionEvent;
+
+/**
+ * 把控件收到的MotionEvent录制为GestureTrace，包括批量的历史采样以及分发给mEventConsumer的事件类型
+ */
+class GestureRecorder {
+    private final GestureTrace.Builder mBuilder;
+    private long mStartTime = -1;
+
+    GestureRecorder(int viewWidth, int viewHeight, int sourceWidth, int sourceHeight) {
+        mBuilder = new GestureTrace.Builder(viewWidth, viewHeight, sourceWidth, sourceHeight);
+    }
+
+    void record(MotionEvent event) {
+        if (mStartTime < 0) {
+            mStartTime = event.getDownTime();
+        }
+        int pointerCount = event.getPointerCount();
+        int historySize = event.getHistorySize();
+        int[] pointerIds = new int[pointerCount];
+        for (int p = 0; p < pointerCount; p++) {
+            pointerIds[p] = event.getPointerId(p);
+        }
+        long[] sampleTimes = new long[historySize + 1];
+        float[] coords = new float[(historySize + 1) * pointerCount * 2];
+        int index = 0;
+        for (int h = 0; h < historySize; h++) {
+            sampleTimes[h] = event.getHistoricalEventTime(h) - mStartTime;
+            for (int p = 0; p < pointerCount; p++) {
+                coords[index++] = event.getHistoricalX(p, h);
+                coords[index++] = event.getHistoricalY(p, h);
+            }
+        }
+        sampleTimes[historySize] = event.getEventTime() - mStartTime;
+        for (int p = 0; p < pointerCount; p++) {
+            coords[index++] = event.getX(p);
+            coords[index++] = event.getY(p);
+        }
+        mBuilder.addEvent(new GestureTrace.Event(event.getAction(), pointerIds, sampleTimes, coords));
+    }
+
+    void recordResult(int eventType) {
+        mBuilder.addResult(eventType);
+    }
+
+    GestureTrace finish() {
+        return mBuilder.build();
+    }
+}
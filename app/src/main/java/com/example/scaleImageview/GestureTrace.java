@@ -0,0 +1,203 @@
+package com.example.scaleImageview;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 录制下来的触摸事件序列，用于离线回放
+ * 只依赖java.io，格式如下（大端）：
+ * <pre>
+ * int   magic 'GTRC'
+ * short version
+ * int   viewWidth, viewHeight, sourceWidth, sourceHeight
+ * short resultCount, byte[resultCount] 录制时mEventConsumer收到的事件类型
+ * int   eventCount
+ * 每个事件：short action, byte pointerCount, byte[pointerCount] pointerId,
+ *          short sampleCount（历史采样 + 当前采样），
+ *          每个采样：int 相对录制开始的毫秒数, float[pointerCount * 2] x y
+ * </pre>
+ */
+public final class GestureTrace {
+    public static final String FILE_EXTENSION = ".gtrace";
+    private static final int MAGIC = 0x47545243;
+    private static final int VERSION = 1;
+
+    public final int viewWidth;
+    public final int viewHeight;
+    public final int sourceWidth;
+    public final int sourceHeight;
+    private final List<Event> mEvents;
+    private final int[] mResults;
+
+    private GestureTrace(int viewWidth, int viewHeight, int sourceWidth, int sourceHeight, List<Event> events, int[] results) {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        mEvents = Collections.unmodifiableList(events);
+        mResults = results;
+    }
+
+    public List<Event> getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * 录制时控件分发给mEventConsumer的事件类型，即PREVIEW_*
+     *
+     * @return
+     */
+    public int[] getResults() {
+        return mResults.clone();
+    }
+
+    /**
+     * 一个触摸事件，包含批量的历史采样
+     */
+    public static final class Event {
+        public final int action;
+        public final int[] pointerIds;
+        //每个采样的时间，最后一个为事件本身的时间
+        public final long[] sampleTimes;
+        //依次为每个采样中每个手指的x y
+        private final float[] mCoords;
+
+        public Event(int action, int[] pointerIds, long[] sampleTimes, float[] coords) {
+            if (coords.length != sampleTimes.length * pointerIds.length * 2) {
+                throw new IllegalArgumentException("coords length " + coords.length + " does not match "
+                        + sampleTimes.length + " samples of " + pointerIds.length + " pointers");
+            }
+            this.action = action;
+            this.pointerIds = pointerIds;
+            this.sampleTimes = sampleTimes;
+            mCoords = coords;
+        }
+
+        public int getPointerCount() {
+            return pointerIds.length;
+        }
+
+        public int getSampleCount() {
+            return sampleTimes.length;
+        }
+
+        public long getEventTime() {
+            return sampleTimes[sampleTimes.length - 1];
+        }
+
+        public float getX(int sample, int pointer) {
+            return mCoords[(sample * pointerIds.length + pointer) * 2];
+        }
+
+        public float getY(int sample, int pointer) {
+            return mCoords[(sample * pointerIds.length + pointer) * 2 + 1];
+        }
+    }
+
+    public static final class Builder {
+        private final int mViewWidth;
+        private final int mViewHeight;
+        private final int mSourceWidth;
+        private final int mSourceHeight;
+        private final List<Event> mEvents = new ArrayList<>();
+        private final List<Integer> mResults = new ArrayList<>();
+
+        public Builder(int viewWidth, int viewHeight, int sourceWidth, int sourceHeight) {
+            mViewWidth = viewWidth;
+            mViewHeight = viewHeight;
+            mSourceWidth = sourceWidth;
+            mSourceHeight = sourceHeight;
+        }
+
+        public Builder addEvent(Event event) {
+            mEvents.add(event);
+            return this;
+        }
+
+        public Builder addResult(int result) {
+            mResults.add(result);
+            return this;
+        }
+
+        public GestureTrace build() {
+            int[] results = new int[mResults.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = mResults.get(i);
+            }
+            return new GestureTrace(mViewWidth, mViewHeight, mSourceWidth, mSourceHeight, new ArrayList<>(mEvents), results);
+        }
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(viewWidth);
+        out.writeInt(viewHeight);
+        out.writeInt(sourceWidth);
+        out.writeInt(sourceHeight);
+        out.writeShort(mResults.length);
+        for (int result : mResults) {
+            out.writeByte(result);
+        }
+        out.writeInt(mEvents.size());
+        for (Event event : mEvents) {
+            out.writeShort(event.action);
+            out.writeByte(event.pointerIds.length);
+            for (int id : event.pointerIds) {
+                out.writeByte(id);
+            }
+            out.writeShort(event.sampleTimes.length);
+            for (int sample = 0; sample < event.sampleTimes.length; sample++) {
+                out.writeInt((int) event.sampleTimes[sample]);
+                for (int pointer = 0; pointer < event.pointerIds.length; pointer++) {
+                    out.writeFloat(event.getX(sample, pointer));
+                    out.writeFloat(event.getY(sample, pointer));
+                }
+            }
+        }
+        out.flush();
+    }
+
+    public static GestureTrace readFrom(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a gesture trace");
+        }
+        int version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("unsupported gesture trace version " + version);
+        }
+        Builder builder = new Builder(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        int resultCount = in.readShort();
+        for (int i = 0; i < resultCount; i++) {
+            builder.addResult(in.readByte());
+        }
+        int eventCount = in.readInt();
+        for (int i = 0; i < eventCount; i++) {
+            int action = in.readShort();
+            int[] pointerIds = new int[in.readByte()];
+            for (int p = 0; p < pointerIds.length; p++) {
+                pointerIds[p] = in.readByte();
+            }
+            long[] sampleTimes = new long[in.readShort()];
+            float[] coords = new float[sampleTimes.length * pointerIds.length * 2];
+            int index = 0;
+            for (int sample = 0; sample < sampleTimes.length; sample++) {
+                sampleTimes[sample] = in.readInt();
+                for (int p = 0; p < pointerIds.length; p++) {
+                    coords[index++] = in.readFloat();
+                    coords[index++] = in.readFloat();
+                }
+            }
+            builder.addEvent(new Event(action, pointerIds, sampleTimes, coords));
+        }
+        return builder.build();
+    }
+}
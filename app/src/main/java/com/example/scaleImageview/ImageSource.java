@@ -0,0 +1,579 @@
+package com.example.scaleImageview;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Point;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 图片来源，供分块解码和采样解码使用
+ * 解码前只读取图片尺寸，不会在主线程解码整张图片
+ * 文件、文件描述符以及内存映射的来源直接交给native解码，不经过Java堆上的byte[]
+ */
+public final class ImageSource {
+    //流式读取时，已读取的数据每增加一倍通知一次
+    private static final int PARTIAL_DATA_MIN_BYTES = 32 * 1024;
+
+    /**
+     * 流式读取的进度，在读取数据的线程回调
+     */
+    interface PartialDataListener {
+        /**
+         * @param data   目前已经读取的数据
+         * @param length 有效的长度
+         */
+        void onPartialData(byte[] data, int length);
+    }
+
+    private final String mFilePath;
+    private final int mResId;
+    private final Uri mUri;
+    //输入流只能读取一次，第一次使用时读入内存，之后的解码都使用这份数据
+    private InputStream mStream;
+    private byte[] mStreamBytes;
+    private final String mStreamKey;
+    //文件描述符，由调用方负责关闭，多个解码线程共用时需要同步读取位置
+    private ParcelFileDescriptor mFileDescriptor;
+    //内存映射或者直接内存中的数据，position为0
+    private ByteBuffer mBuffer;
+
+    private ImageSource(String filePath, int resId, Uri uri, InputStream stream) {
+        mFilePath = filePath;
+        mResId = resId;
+        mUri = uri;
+        mStream = stream;
+        mStreamKey = stream != null ? "stream:" + System.identityHashCode(stream) : null;
+    }
+
+    /**
+     * 本地文件
+     *
+     * @param path
+     * @return
+     */
+    public static ImageSource file(String path) {
+        if (path == null) {
+            throw new IllegalArgumentException("path == null");
+        }
+        return new ImageSource(path, 0, null, null);
+    }
+
+    /**
+     * 资源文件
+     *
+     * @param resId
+     * @return
+     */
+    public static ImageSource resource(int resId) {
+        return new ImageSource(null, resId, null, null);
+    }
+
+    /**
+     * content://、file://、android.resource://等ContentResolver能打开的uri
+     *
+     * @param uri
+     * @return
+     */
+    public static ImageSource uri(Uri uri) {
+        if (uri == null) {
+            throw new IllegalArgumentException("uri == null");
+        }
+        return new ImageSource(null, 0, uri, null);
+    }
+
+    /**
+     * 输入流，第一次解码时在子线程读入内存并关闭
+     *
+     * @param stream
+     * @return
+     */
+    public static ImageSource stream(InputStream stream) {
+        if (stream == null) {
+            throw new IllegalArgumentException("stream == null");
+        }
+        return new ImageSource(null, 0, null, stream);
+    }
+
+    /**
+     * 文件描述符，例如ContentResolver.openFileDescriptor()的结果
+     * 解码器直接读取文件，不会复制数据，调用方需要在不再显示后关闭
+     *
+     * @param fileDescriptor
+     * @return
+     */
+    public static ImageSource fileDescriptor(ParcelFileDescriptor fileDescriptor) {
+        if (fileDescriptor == null) {
+            throw new IllegalArgumentException("fileDescriptor == null");
+        }
+        ImageSource source = new ImageSource(null, 0, null, null);
+        source.mFileDescriptor = fileDescriptor;
+        return source;
+    }
+
+    /**
+     * 内存中的图片数据，从position到limit
+     * 堆内的数据直接解码其数组，direct buffer通过输入流读取，区域解码器无法直接使用ByteBuffer，会在native层复制一份
+     *
+     * @param buffer
+     * @return
+     */
+    public static ImageSource byteBuffer(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer == null");
+        }
+        ImageSource source = new ImageSource(null, 0, null, null);
+        source.mBuffer = buffer.slice();
+        return source;
+    }
+
+    /**
+     * 以只读方式把文件映射到内存，整图解码和区域解码都使用文件路径在native层读取，不会复制到Java堆
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static ImageSource mappedFile(String path) throws IOException {
+        ImageSource source = file(path);
+        try (FileChannel channel = new RandomAccessFile(path, "r").getChannel()) {
+            //关闭channel后映射仍然有效
+            source.mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return source;
+    }
+
+    /**
+     * 图片的唯一标识，用于缓存
+     *
+     * @return
+     */
+    public String getKey() {
+        if (mFilePath != null) {
+            return "file:" + mFilePath;
+        }
+        if (mUri != null) {
+            return "uri:" + mUri;
+        }
+        if (mStreamKey != null) {
+            return mStreamKey;
+        }
+        if (mFileDescriptor != null) {
+            return "fd:" + System.identityHashCode(mFileDescriptor);
+        }
+        if (mBuffer != null) {
+            return "buffer:" + System.identityHashCode(mBuffer);
+        }
+        return "res:" + mResId;
+    }
+
+    /**
+     * 磁盘缓存使用的标识，包含文件的修改时间和大小，文件变化后缓存自动失效
+     * 无法判断内容是否变化的来源（输入流、文件描述符、内存数据、content uri）返回null，不使用磁盘缓存
+     *
+     * @param context
+     * @return
+     */
+    String getDiskCacheKey(Context context) {
+        String path = mFilePath;
+        if (path == null && mUri != null && "file".equals(mUri.getScheme())) {
+            path = mUri.getPath();
+        }
+        if (path != null) {
+            File file = new File(path);
+            if (!file.exists()) {
+                return null;
+            }
+            return "file:" + file.getAbsolutePath() + "@" + file.lastModified() + ":" + file.length();
+        }
+        if (mUri == null && mStreamKey == null && mFileDescriptor == null && mBuffer == null) {
+            //资源id在每次构建时都可能变化，使用应用的更新时间区分
+            try {
+                long updateTime = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+                return "res:" + mResId + "@" + updateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 是否为只能读取一次的输入流
+     *
+     * @return
+     */
+    boolean isStream() {
+        return mStreamKey != null;
+    }
+
+    /**
+     * 打开图片数据，需要在子线程调用
+     *
+     * @param context
+     * @return
+     * @throws IOException
+     */
+    InputStream openStream(Context context) throws IOException {
+        if (mFilePath != null) {
+            return new FileInputStream(mFilePath);
+        }
+        if (mUri != null) {
+            InputStream in = context.getContentResolver().openInputStream(mUri);
+            if (in == null) {
+                throw new IOException("cannot open " + mUri);
+            }
+            return in;
+        }
+        if (mStreamKey != null) {
+            return new ByteArrayInputStream(readStreamBytes());
+        }
+        if (mFileDescriptor != null) {
+            //调用方需要持有mFileDescriptor的锁
+            seekToStart(mFileDescriptor);
+            return new FileInputStream(mFileDescriptor.getFileDescriptor());
+        }
+        if (mBuffer != null) {
+            return new ByteBufferInputStream(mBuffer.duplicate());
+        }
+        return context.getResources().openRawResource(mResId);
+    }
+
+    /**
+     * 尝试以文件描述符的方式打开uri，provider不支持时返回null
+     *
+     * @param context
+     * @return
+     */
+    private ParcelFileDescriptor openUriFileDescriptor(Context context) {
+        try {
+            return context.getContentResolver().openFileDescriptor(mUri, "r");
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void seekToStart(ParcelFileDescriptor fileDescriptor) throws IOException {
+        try {
+            Os.lseek(fileDescriptor.getFileDescriptor(), 0, OsConstants.SEEK_SET);
+        } catch (ErrnoException e) {
+            throw new IOException("cannot seek " + fileDescriptor, e);
+        }
+    }
+
+    private byte[] readStreamBytes() throws IOException {
+        return readStreamBytes(null);
+    }
+
+    /**
+     * 读取输入流的全部数据，数据逐步到达时可以通过listener提前显示部分内容
+     * 只有第一次读取时会回调listener
+     *
+     * @param listener
+     * @return
+     * @throws IOException
+     */
+    synchronized byte[] readStreamBytes(PartialDataListener listener) throws IOException {
+        if (mStreamBytes == null) {
+            try (InputStream in = mStream) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+                byte[] buffer = new byte[8192];
+                int nextNotify = PARTIAL_DATA_MIN_BYTES;
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                    if (listener != null && out.size() >= nextNotify) {
+                        listener.onPartialData(out.toByteArray(), out.size());
+                        nextNotify = out.size() * 2;
+                    }
+                }
+                mStreamBytes = out.toByteArray();
+            }
+            mStream = null;
+        }
+        return mStreamBytes;
+    }
+
+    /**
+     * 区域解码器是否直接读取文件，否则每个解码器都会在native层复制一份完整的图片数据
+     *
+     * @return
+     */
+    boolean isFileBacked() {
+        return mFilePath != null || mFileDescriptor != null || mUri != null;
+    }
+
+    /**
+     * 创建区域解码器，需要在子线程调用
+     *
+     * @param context
+     * @return
+     * @throws IOException
+     */
+    BitmapRegionDecoder newRegionDecoder(Context context) throws IOException {
+        if (mFilePath != null) {
+            return BitmapRegionDecoder.newInstance(mFilePath, false);
+        }
+        //文件描述符会在native层映射到内存，创建后即可关闭
+        if (mFileDescriptor != null) {
+            synchronized (mFileDescriptor) {
+                seekToStart(mFileDescriptor);
+                return BitmapRegionDecoder.newInstance(mFileDescriptor.getFileDescriptor(), false);
+            }
+        }
+        if (mUri != null) {
+            ParcelFileDescriptor fileDescriptor = openUriFileDescriptor(context);
+            if (fileDescriptor != null) {
+                try (ParcelFileDescriptor fd = fileDescriptor) {
+                    return BitmapRegionDecoder.newInstance(fd.getFileDescriptor(), false);
+                }
+            }
+        }
+        if (mStreamKey != null) {
+            byte[] bytes = readStreamBytes();
+            return BitmapRegionDecoder.newInstance(bytes, 0, bytes.length, false);
+        }
+        try (InputStream in = openStream(context)) {
+            return BitmapRegionDecoder.newInstance(in, false);
+        }
+    }
+
+    /**
+     * 只读取图片的宽高，不解码像素，需要在子线程调用
+     *
+     * @param context
+     * @return
+     * @throws IOException
+     */
+    Point decodeBounds(Context context) throws IOException {
+        BitmapFactory.Options options = decodeHeader(context);
+        return new Point(options.outWidth, options.outHeight);
+    }
+
+    /**
+     * 读取图片格式，例如image/jpeg，需要在子线程调用
+     *
+     * @param context
+     * @return 无法识别时返回null
+     * @throws IOException
+     */
+    String decodeMimeType(Context context) throws IOException {
+        return decodeHeader(context).outMimeType;
+    }
+
+    /**
+     * 读取宽高和格式，不解码像素，需要在子线程调用
+     *
+     * @param context
+     * @return outWidth、outHeight和outMimeType有效
+     * @throws IOException
+     */
+    BitmapFactory.Options decodeHeader(Context context) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(context, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("cannot decode bounds of " + this);
+        }
+        return options;
+    }
+
+    /**
+     * 按采样率解码整张图片，需要在子线程调用
+     *
+     * @param context
+     * @param sampleSize
+     * @param config     像素格式，HARDWARE只能在Android 8.0及以上使用
+     * @return
+     * @throws IOException
+     */
+    Bitmap decodeSampled(Context context, int sampleSize, Bitmap.Config config) throws IOException {
+        //ImageDecoder会按EXIF方向旋转，与其他来源不一致，所有来源都使用BitmapFactory解码出未旋转的图片
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        Bitmap bitmap = decode(context, options);
+        if (bitmap == null) {
+            throw new IOException("cannot decode " + this);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 文件、文件描述符和堆内的ByteBuffer使用native的解码入口，其余使用输入流
+     *
+     * @param context
+     * @param options
+     * @return
+     * @throws IOException
+     */
+    private Bitmap decode(Context context, BitmapFactory.Options options) throws IOException {
+        if (mFilePath != null) {
+            return BitmapFactory.decodeFile(mFilePath, options);
+        }
+        if (mFileDescriptor != null) {
+            synchronized (mFileDescriptor) {
+                seekToStart(mFileDescriptor);
+                return BitmapFactory.decodeFileDescriptor(mFileDescriptor.getFileDescriptor(), null, options);
+            }
+        }
+        if (mBuffer != null && mBuffer.hasArray()) {
+            //直接解码数组，不经过输入流复制
+            return BitmapFactory.decodeByteArray(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(),
+                    mBuffer.remaining(), options);
+        }
+        if (mUri != null) {
+            ParcelFileDescriptor fileDescriptor = openUriFileDescriptor(context);
+            if (fileDescriptor != null) {
+                try (ParcelFileDescriptor fd = fileDescriptor) {
+                    return BitmapFactory.decodeFileDescriptor(fd.getFileDescriptor(), null, options);
+                }
+            }
+        }
+        try (InputStream in = openStream(context)) {
+            return BitmapFactory.decodeStream(in, null, options);
+        }
+    }
+
+    /**
+     * 读取EXIF中内嵌的缩略图，没有缩略图或者无法读取时返回null，需要在子线程调用
+     *
+     * @param context
+     * @return
+     */
+    Bitmap decodeExifThumbnail(Context context) {
+        try {
+            ExifInterface exif = openExif(context);
+            byte[] thumbnail = exif != null && exif.hasThumbnail() ? exif.getThumbnail() : null;
+            if (thumbnail == null) {
+                return null;
+            }
+            return BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 读取EXIF中的方向，没有方向或者无法读取时返回ORIENTATION_NORMAL，需要在子线程调用
+     *
+     * @param context
+     * @return ExifInterface.ORIENTATION_*
+     */
+    int decodeExifOrientation(Context context) {
+        try {
+            ExifInterface exif = openExif(context);
+            if (exif == null) {
+                return ExifInterface.ORIENTATION_NORMAL;
+            }
+            return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException | RuntimeException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * 从已经读取的部分数据中解析EXIF方向，EXIF位于文件头，不需要等待全部数据
+     *
+     * @param data
+     * @param length 有效的长度
+     * @return ExifInterface.ORIENTATION_*
+     */
+    static int decodeExifOrientation(byte[] data, int length) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+        try {
+            ExifInterface exif = new ExifInterface(new ByteArrayInputStream(data, 0, length));
+            return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException | RuntimeException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * 只解析EXIF，不解码像素
+     *
+     * @param context
+     * @return 系统版本不支持时返回null
+     * @throws IOException
+     */
+    private ExifInterface openExif(Context context) throws IOException {
+        if (mFilePath != null) {
+            return new ExifInterface(mFilePath);
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return null;
+        }
+        if (mFileDescriptor != null) {
+            synchronized (mFileDescriptor) {
+                seekToStart(mFileDescriptor);
+                return new ExifInterface(mFileDescriptor.getFileDescriptor());
+            }
+        }
+        try (InputStream in = openStream(context)) {
+            return new ExifInterface(in);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+
+    /**
+     * ByteBuffer的输入流视图，只在不支持直接解码ByteBuffer时使用
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.scaleImageview;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的耗时直方图，按微秒取2的幂分桶
+ * 第i个桶统计[2^i, 2^(i+1))微秒的样本，记录时只有几次原子加，可以在线上常开
+ */
+public class LatencyHistogram {
+    private static final int BUCKET_COUNT = 32;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSumNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(micros));
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSumNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = mMaxNanos.get())) {
+            if (mMaxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSumNanos.get() / count;
+    }
+
+    /**
+     * 百分位数的近似值，取所在桶的上界
+     *
+     * @param percentile 0-100
+     * @return 纳秒
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] buckets = getBuckets();
+        long total = 0;
+        for (long count : buckets) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= target) {
+                return Math.min((1L << (i + 1)) * 1000, mMaxNanos.get());
+            }
+        }
+        return mMaxNanos.get();
+    }
+
+    /**
+     * 各个桶的计数
+     *
+     * @return
+     */
+    public long[] getBuckets() {
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return buckets;
+    }
+
+    /**
+     * 取出各个桶的计数并清零，用于周期性上报
+     *
+     * @return
+     */
+    public long[] drainBuckets() {
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.getAndSet(i, 0);
+        }
+        mCount.set(0);
+        mSumNanos.set(0);
+        mMaxNanos.set(0);
+        return buckets;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ",mean=" + getMeanNanos() / 1000 + "us"
+                + ",p50=" + getPercentileNanos(50) / 1000 + "us"
+                + ",p99=" + getPercentileNanos(99) / 1000 + "us"
+                + ",max=" + getMaxNanos() / 1000 + "us";
+    }
+}
@@ -16,5 +16,7 @@ public class MainActivity extends AppCompatActivity {
         mScaleImage = findViewById(R.id.iv_scale);
         mScaleImage.setScaleEnable(true);
         mScaleImage.setDoubleTapEnable(true);
+        //按控件尺寸采样解码，不在布局中通过src解码原图
+        mScaleImage.setImageSource(ImageSource.resource(R.mipmap.test));
     }
 }
\ No newline at end of file
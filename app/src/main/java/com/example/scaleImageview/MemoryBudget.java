@@ -0,0 +1,254 @@
+package com.example.scaleImageview;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 所有ScaleImageView共享的bitmap内存预算
+ * 统计控件显示中的底图和图块、图块缓存以及预解码缓存占用的字节数，
+ * 申请新的bitmap之前先检查预算，超出时依次释放预解码的图片和屏幕外的图块，仍然不够时降低分辨率或者放弃，
+ * 而不是等到OutOfMemoryError之后再处理
+ * 系统内存紧张时按onTrimMemory的级别分阶段释放：预解码的图片、屏幕外的图块、屏幕内的高清图块，始终保留底图
+ */
+public class MemoryBudget implements ComponentCallbacks2 {
+    private static final String TAG = "MemoryBudget";
+    //释放阶段，后面的阶段包含前面的阶段
+    static final int TRIM_PREFETCH = 1;
+    static final int TRIM_OFFSCREEN_TILES = 2;
+    static final int TRIM_VISIBLE_TILES = 3;
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static MemoryBudget sDefault;
+
+    private final long mBudgetBytes;
+    //每个控件显示中的bitmap字节数，由控件在主线程更新，解码线程读取
+    private final Map<Object, Long> mHeldBytes = new ConcurrentHashMap<>();
+    private final Set<TileCache> mTileCaches = new CopyOnWriteArraySet<>();
+    private final Set<PrefetchCache> mPrefetchCaches = new CopyOnWriteArraySet<>();
+    //已经添加到窗口的控件，只在主线程访问
+    private final Set<ScaleImageView> mViews = Collections.newSetFromMap(new WeakHashMap<>());
+    //解码线程超出预算时交给主线程释放，等待执行期间不再重复提交
+    private final AtomicBoolean mShedPosted = new AtomicBoolean();
+
+    /**
+     * 自定义的预算需要调用方通过Context.registerComponentCallbacks注册才能收到onTrimMemory
+     *
+     * @param budgetBytes 所有控件以及缓存共用的最大字节数
+     */
+    public MemoryBudget(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * 进程内默认共享的预算，大小为ActivityManager.getMemoryClass()的一半，并自动注册onTrimMemory
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized MemoryBudget getDefault(Context context) {
+        if (sDefault == null) {
+            Context appContext = context.getApplicationContext();
+            ActivityManager activityManager = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+            int memoryClass = activityManager != null ? activityManager.getMemoryClass()
+                    : (int) (Runtime.getRuntime().maxMemory() >> 20);
+            sDefault = new MemoryBudget(memoryClass * 1024L * 1024L / 2);
+            sDefault.track(TileCache.getDefault());
+            sDefault.track(PrefetchCache.getDefault());
+            appContext.registerComponentCallbacks(sDefault);
+        }
+        return sDefault;
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    /**
+     * 当前占用的字节数，预解码的图片正在显示时会重复统计，结果偏大
+     *
+     * @return
+     */
+    public long getUsedBytes() {
+        long bytes = 0;
+        for (Long held : mHeldBytes.values()) {
+            bytes += held;
+        }
+        for (TileCache tileCache : mTileCaches) {
+            bytes += tileCache.sizeBytes() + tileCache.getBitmapPool().getSizeBytes();
+        }
+        for (PrefetchCache prefetchCache : mPrefetchCaches) {
+            bytes += prefetchCache.sizeBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 检查当前是否还能放下bytes字节，不释放任何缓存，可以在任意线程调用
+     * 用于预解码等可以放弃的场景，避免为了检查而清空缓存
+     *
+     * @param bytes
+     * @return
+     */
+    public boolean hasRoom(long bytes) {
+        return getUsedBytes() + bytes <= mBudgetBytes;
+    }
+
+    /**
+     * 检查能否再申请bytes字节，超出预算时先释放预解码的图片，再释放屏幕外的图块，可以在任意线程调用
+     * 缓存中的bitmap可能正被主线程取出显示，所以只在主线程释放，其他线程超出预算时直接返回false，并通知主线程释放
+     *
+     * @param bytes
+     * @return 释放之后仍然超出预算时返回false，调用方应该放弃或者降低分辨率
+     */
+    public boolean canAllocate(final long bytes) {
+        if (hasRoom(bytes)) {
+            return true;
+        }
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            if (mShedPosted.compareAndSet(false, true)) {
+                MAIN_HANDLER.post(() -> {
+                    mShedPosted.set(false);
+                    shed(bytes);
+                });
+            }
+            return false;
+        }
+        return shed(bytes);
+    }
+
+    /**
+     * 依次释放预解码的图片和屏幕外的图块，直到能放下bytes字节，需要在主线程调用
+     *
+     * @param bytes
+     * @return
+     */
+    private boolean shed(long bytes) {
+        for (PrefetchCache prefetchCache : mPrefetchCaches) {
+            prefetchCache.clear();
+        }
+        if (hasRoom(bytes)) {
+            return true;
+        }
+        for (TileCache tileCache : mTileCaches) {
+            tileCache.clear();
+        }
+        return hasRoom(bytes);
+    }
+
+    /**
+     * 在预算内解码一张宽高为width*height的图片时可以使用的最小采样率
+     *
+     * @param width
+     * @param height
+     * @param sampleSize    期望的采样率
+     * @param bytesPerPixel
+     * @return 不小于sampleSize的2的幂
+     */
+    int fitSampleSize(int width, int height, int sampleSize, int bytesPerPixel) {
+        while (width / sampleSize > 1 && height / sampleSize > 1
+                && !canAllocate((long) (width / sampleSize) * (height / sampleSize) * bytesPerPixel)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    void track(TileCache tileCache) {
+        mTileCaches.add(tileCache);
+    }
+
+    void track(PrefetchCache prefetchCache) {
+        mPrefetchCaches.add(prefetchCache);
+    }
+
+    /**
+     * 更新控件显示中的bitmap字节数
+     *
+     * @param owner
+     * @param bytes 为0时移除
+     */
+    void setHeldBytes(Object owner, long bytes) {
+        if (bytes > 0) {
+            mHeldBytes.put(owner, bytes);
+        } else {
+            mHeldBytes.remove(owner);
+        }
+    }
+
+    /**
+     * 控件添加到窗口时注册，内存紧张时释放其屏幕内的图块，需要在主线程调用
+     *
+     * @param view
+     */
+    void register(ScaleImageView view) {
+        mViews.add(view);
+        track(view.getTileCache());
+        track(view.getPrefetchCache());
+    }
+
+    void unregister(ScaleImageView view) {
+        mViews.remove(view);
+        setHeldBytes(view, 0);
+    }
+
+    /**
+     * 按阶段释放内存，需要在主线程调用
+     *
+     * @param stage TRIM_PREFETCH、TRIM_OFFSCREEN_TILES或TRIM_VISIBLE_TILES
+     */
+    void trim(int stage) {
+        long before = getUsedBytes();
+        for (PrefetchCache prefetchCache : mPrefetchCaches) {
+            prefetchCache.clear();
+        }
+        if (stage >= TRIM_VISIBLE_TILES) {
+            //屏幕内的图块先放入缓存，随后和屏幕外的图块一起释放，只保留底图
+            for (ScaleImageView view : mViews) {
+                view.trimTiles();
+            }
+        }
+        if (stage >= TRIM_OFFSCREEN_TILES) {
+            for (TileCache tileCache : mTileCaches) {
+                tileCache.clear();
+            }
+        }
+        Log.i(TAG, "trim stage " + stage + ": " + (before >> 10) + "KB -> " + (getUsedBytes() >> 10) + "KB");
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            trim(TRIM_VISIBLE_TILES);
+        } else if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_LOW) {
+            trim(TRIM_OFFSCREEN_TILES);
+        } else {
+            //RUNNING_MODERATE、UI_HIDDEN、BACKGROUND
+            trim(TRIM_PREFETCH);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(TRIM_VISIBLE_TILES);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryBudget[used=" + (getUsedBytes() >> 10) + "KB/" + (mBudgetBytes >> 10) + "KB,views=" + mViews.size() + "]";
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.scaleImageview;
+
+/**
+ * ScaleImageView运行时指标的回调
+ * 解码相关的回调发生在解码线程，其余回调发生在主线程，实现需要线程安全且足够轻量
+ */
+public interface MetricsListener {
+    int DECODE_BASE = 0;
+    int DECODE_TILE = 1;
+
+    /**
+     * 触摸事件产生到对应帧绘制的延迟
+     *
+     * @param nanos
+     */
+    void onInputLatency(long nanos);
+
+    /**
+     * 手势或动画进行中每一帧onDraw的耗时
+     *
+     * @param nanos
+     */
+    void onDrawCost(long nanos);
+
+    /**
+     * 缩放动画或惯性滑动的一帧
+     *
+     * @param droppedFrames 与上一帧之间丢掉的帧数
+     */
+    void onAnimationFrame(int droppedFrames);
+
+    /**
+     * 一次解码的耗时
+     *
+     * @param type  DECODE_*
+     * @param nanos
+     */
+    void onDecode(int type, long nanos);
+
+    /**
+     * convertViewToBitmap的耗时
+     *
+     * @param nanos
+     */
+    void onBitmapCapture(long nanos);
+
+    /**
+     * 控件当前持有的bitmap字节数，发生变化时回调
+     *
+     * @param bytes
+     */
+    void onBitmapMemory(long bytes);
+}
@@ -0,0 +1,198 @@
+package com.example.scaleImageview;
+
+import android.content.Context;
+import android.graphics.BitmapRegionDecoder;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 图片序列中相邻图片的预解码缓存，按字节数做LRU淘汰
+ * 在后台以适应控件的采样率解码前后的图片，切换图片时可以直接使用解码好的底图，不需要等待解码
+ * 控件释放时正在显示的底图也保留在这里，生命周期与进程相同，比控件更长
+ */
+public class PrefetchCache {
+    private static final String TAG = "PrefetchCache";
+    private static PrefetchCache sDefault;
+    //预解码的优先级低于当前图片的图块解码
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ScaleImageView-prefetch");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final LruCache<String, TiledImage.BaseLayer> mCache;
+    //等待或正在解码的任务
+    private final Map<String, Future<?>> mPending = new HashMap<>();
+    //只统计切换图片时的命中情况，不包括预解码时的检查
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @param maxBytes 缓存的最大字节数
+     */
+    public PrefetchCache(int maxBytes) {
+        mCache = new LruCache<String, TiledImage.BaseLayer>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, TiledImage.BaseLayer value) {
+                return value.bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * 进程内默认共享的缓存，大小为最大堆内存的1/16
+     *
+     * @return
+     */
+    public static synchronized PrefetchCache getDefault() {
+        if (sDefault == null) {
+            sDefault = new PrefetchCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16));
+        }
+        return sDefault;
+    }
+
+    /**
+     * 获取已经解码好的底图，不会从缓存中移除，来回切换时可以重复使用
+     *
+     * @param source
+     * @return
+     */
+    synchronized TiledImage.BaseLayer get(ImageSource source) {
+        TiledImage.BaseLayer baseLayer = mCache.get(source.getKey());
+        if (baseLayer != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return baseLayer;
+    }
+
+    /**
+     * 保留控件释放时正在显示的底图，屏幕旋转或者页面回收后重新创建的控件可以直接显示，不需要重新解码
+     *
+     * @param source
+     * @param baseLayer
+     */
+    synchronized void retain(ImageSource source, TiledImage.BaseLayer baseLayer) {
+        String key = source.getKey();
+        //正在解码的任务结果相同，不再需要
+        Future<?> pending = mPending.remove(key);
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        mCache.put(key, baseLayer);
+    }
+
+    /**
+     * 在后台解码图片，已经缓存或正在解码时忽略
+     *
+     * @param context
+     * @param source
+     * @param targetWidth
+     * @param targetHeight
+     * @param tiling       与控件的分块设置一致
+     * @param memoryBudget 超出预算时降低分辨率，为null时不检查
+     * @param quality      DecodeConfig.QUALITY_*
+     */
+    synchronized void prefetch(Context context, final ImageSource source, final int targetWidth, final int targetHeight,
+                               final boolean tiling, final MemoryBudget memoryBudget, final int quality) {
+        final String key = source.getKey();
+        if (mCache.get(key) != null || mPending.containsKey(key)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        mPending.put(key, PREFETCH_EXECUTOR.submit(() -> {
+            TiledImage.BaseLayer baseLayer = null;
+            BitmapRegionDecoder decoder = null;
+            try {
+                if (tiling) {
+                    try {
+                        decoder = source.newRegionDecoder(appContext);
+                    } catch (IOException e) {
+                        Log.w(TAG, source + " does not support region decoding, decode sampled instead", e);
+                    }
+                }
+                int orientation = source.decodeExifOrientation(appContext);
+                baseLayer = decoder != null
+                        ? TiledImage.decodeBaseLayer(appContext, source, decoder, orientation, targetWidth, targetHeight, memoryBudget, quality)
+                        : TiledImage.decodeSampledLayer(appContext, source, orientation, targetWidth, targetHeight, memoryBudget, quality);
+            } catch (Exception e) {
+                Log.e(TAG, "prefetch " + source + " failed", e);
+            } finally {
+                if (decoder != null) {
+                    decoder.recycle();
+                }
+            }
+            synchronized (PrefetchCache.this) {
+                //解码期间被取消的结果不再放入缓存
+                if (mPending.remove(key) != null && baseLayer != null) {
+                    mCache.put(key, baseLayer);
+                }
+            }
+        }));
+    }
+
+    /**
+     * 取消不在保留列表中的预解码任务，用于跳转到较远的位置时
+     *
+     * @param keepKeys 需要保留的图片标识
+     */
+    synchronized void cancelExcept(Set<String> keepKeys) {
+        Iterator<Map.Entry<String, Future<?>>> iterator = mPending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Future<?>> entry = iterator.next();
+            if (!keepKeys.contains(entry.getKey())) {
+                entry.getValue().cancel(false);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 是否正在等待或者正在预解码
+     *
+     * @param source
+     * @return
+     */
+    synchronized boolean isPending(ImageSource source) {
+        return mPending.containsKey(source.getKey());
+    }
+
+    /**
+     * 取消所有任务并清空缓存
+     */
+    public synchronized void clear() {
+        for (Future<?> future : mPending.values()) {
+            future.cancel(false);
+        }
+        mPending.clear();
+        mCache.evictAll();
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int sizeBytes() {
+        return mCache.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PrefetchCache[size=" + mCache.size() + "/" + mCache.maxSize()
+                + ",pending=" + mPending.size() + ",hit=" + mHitCount + ",miss=" + mMissCount + "]";
+    }
+}
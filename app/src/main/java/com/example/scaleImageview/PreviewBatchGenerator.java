@@ -0,0 +1,388 @@
+package com.example.scaleImageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在打开图片之前为整个目录批量生成适应屏幕的底图，写入DiskTileCache，之后ScaleImageView打开时直接读取，不再解码原图
+ * 采样率与控件适应屏幕时的底图一致，所有文件在固定大小的ForkJoinPool中并行处理，空闲的线程会窃取其他线程未处理的文件，
+ * 同时解码的bitmap总字节数受MemoryBudget限制
+ * 磁盘缓存的标识包含文件的修改时间和大小，已经有最新底图的文件直接跳过，中途取消或进程被杀后再次调用会从未完成的文件继续
+ */
+public final class PreviewBatchGenerator {
+    private static final String TAG = "PreviewBatchGenerator";
+    //每个子任务最多处理的文件数，更多时一分为二，便于空闲的线程窃取
+    private static final int SPLIT_THRESHOLD = 4;
+    //预解码之外，批量生成最多占用预算中剩余空间的比例，给正在显示的控件留出余量
+    private static final float BUDGET_FRACTION = 0.5f;
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static ForkJoinPool sPool;
+
+    /**
+     * 批量生成的回调，都在主线程调用
+     */
+    public interface Callback {
+        /**
+         * 进度回调会合并，不保证每个文件都回调一次
+         *
+         * @param done  已经处理的文件数，包括跳过和失败的文件
+         * @param total
+         */
+        void onProgress(int done, int total);
+
+        /**
+         * 全部处理完成或者被取消
+         *
+         * @param result
+         */
+        void onBatchComplete(Result result);
+    }
+
+    /**
+     * 一次批量生成任务
+     */
+    public static final class Task {
+        private volatile boolean mCancelled;
+
+        /**
+         * 取消后不再开始新的文件，已经写入的底图保留在磁盘缓存中，下次调用时跳过
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * 批量生成的统计
+     */
+    public static final class Result {
+        //新生成的底图数
+        public final int generated;
+        //底图已经是最新的，或者图片不大于屏幕不需要底图
+        public final int skipped;
+        public final int failed;
+        public final int total;
+        public final long elapsedNanos;
+        public final boolean cancelled;
+
+        Result(int generated, int skipped, int failed, int total, long elapsedNanos, boolean cancelled) {
+            this.generated = generated;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.total = total;
+            this.elapsedNanos = elapsedNanos;
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * 每秒处理的图片数，包括跳过的文件
+         *
+         * @return
+         */
+        public float getImagesPerSecond() {
+            return elapsedNanos > 0 ? (generated + skipped + failed) * 1e9f / elapsedNanos : 0;
+        }
+
+        /**
+         * 每秒新生成的底图数
+         *
+         * @return
+         */
+        public float getGeneratedPerSecond() {
+            return elapsedNanos > 0 ? generated * 1e9f / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("generated=%d skipped=%d failed=%d total=%d %.1fms %.1f images/s%s",
+                    generated, skipped, failed, total, elapsedNanos / 1e6, getImagesPerSecond(),
+                    cancelled ? " cancelled" : "");
+        }
+    }
+
+    private final Context mContext;
+    private final List<File> mFiles;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final DiskTileCache mDiskTileCache;
+    private final MemoryBudget mMemoryBudget;
+    private final Callback mCallback;
+    private final Task mTask = new Task();
+    private final AtomicInteger mGenerated = new AtomicInteger();
+    private final AtomicInteger mSkipped = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private final AtomicBoolean mProgressPending = new AtomicBoolean();
+    //正在解码的bitmap字节数，由this保护
+    private long mInFlightBytes;
+    //System.nanoTime()，按实际经过的时间计算吞吐量
+    private long mStartNanos;
+
+    private PreviewBatchGenerator(Context context, List<File> files, int targetWidth, int targetHeight,
+                                  DiskTileCache diskTileCache, MemoryBudget memoryBudget, Callback callback) {
+        mContext = context.getApplicationContext();
+        mFiles = files;
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+        mDiskTileCache = diskTileCache;
+        mMemoryBudget = memoryBudget;
+        mCallback = callback;
+    }
+
+    /**
+     * 为目录下的所有文件（不包括子目录）生成适应屏幕的底图，按文件名顺序处理，不是图片的文件会被跳过
+     * 需要在主线程调用
+     *
+     * @param context
+     * @param directory
+     * @param diskTileCache ScaleImageView需要通过setDiskTileCache使用同一个缓存
+     * @param callback
+     * @return 可以用于取消
+     */
+    public static Task generate(Context context, File directory, DiskTileCache diskTileCache, Callback callback) {
+        File[] listed = directory.listFiles();
+        List<File> files = new ArrayList<>();
+        if (listed != null) {
+            Arrays.sort(listed);
+            for (File file : listed) {
+                if (file.isFile()) {
+                    files.add(file);
+                }
+            }
+        }
+        //与控件还没有布局时的目标尺寸一致
+        ViewMetrics metrics = ViewMetrics.get(context);
+        return generate(context, files, metrics.screenWidth, metrics.screenHeight, diskTileCache, callback);
+    }
+
+    /**
+     * 按指定的目标尺寸生成底图，目标尺寸需要与打开图片时控件的尺寸一致，否则采样率不同，缓存不会被使用
+     *
+     * @param context
+     * @param files
+     * @param targetWidth
+     * @param targetHeight
+     * @param diskTileCache
+     * @param callback
+     * @return
+     */
+    public static Task generate(Context context, List<File> files, int targetWidth, int targetHeight,
+                                DiskTileCache diskTileCache, Callback callback) {
+        PreviewBatchGenerator generator = new PreviewBatchGenerator(context, Collections.unmodifiableList(new ArrayList<>(files)),
+                targetWidth, targetHeight, diskTileCache, MemoryBudget.getDefault(context), callback);
+        generator.start();
+        return generator.mTask;
+    }
+
+    /**
+     * 所有批量任务共享的线程池，线程数与CPU核数相同
+     *
+     * @return
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if (sPool == null) {
+            sPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sPool;
+    }
+
+    private void start() {
+        mStartNanos = System.nanoTime();
+        if (mFiles.isEmpty()) {
+            postComplete();
+            return;
+        }
+        final RecursiveAction root = new FileRange(0, mFiles.size());
+        getPool().execute(() -> {
+            try {
+                root.invoke();
+            } finally {
+                postComplete();
+            }
+        });
+    }
+
+    /**
+     * 文件列表中的一段，超过SPLIT_THRESHOLD时拆分
+     */
+    private final class FileRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mFrom;
+        private final int mTo;
+
+        FileRange(int from, int to) {
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > SPLIT_THRESHOLD) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new FileRange(mFrom, middle), new FileRange(middle, mTo));
+                return;
+            }
+            for (int i = mFrom; i < mTo && !mTask.isCancelled(); i++) {
+                process(mFiles.get(i));
+                postProgress();
+            }
+        }
+    }
+
+    /**
+     * 生成一个文件的底图，在线程池中调用
+     *
+     * @param file
+     */
+    private void process(File file) {
+        ImageSource source = ImageSource.file(file.getPath());
+        DiskTileCache.Pack pack = null;
+        Bitmap bitmap = null;
+        long bytes = 0;
+        try {
+            String diskKey = source.getDiskCacheKey(mContext);
+            BitmapFactory.Options header = diskKey != null ? source.decodeHeader(mContext) : null;
+            if (header == null || header.outWidth <= 0 || header.outHeight <= 0) {
+                //不是图片
+                mSkipped.incrementAndGet();
+                return;
+            }
+            int width = header.outWidth;
+            int height = header.outHeight;
+            int orientation = source.decodeExifOrientation(mContext);
+            //与TiledImage的底图使用同样的采样率，不大于屏幕的图片打开时直接解码，不需要底图
+            int sampleSize = TiledImage.calculateSampleSize(TiledImage.fitScale(mTargetWidth, mTargetHeight, width, height, orientation));
+            if (sampleSize < 2) {
+                mSkipped.incrementAndGet();
+                return;
+            }
+            Rect bounds = new Rect(0, 0, width, height);
+            TileKey key = new TileKey(source.getKey(), sampleSize, bounds);
+            pack = mDiskTileCache.open(diskKey, source.getKey());
+            if (pack != null && pack.contains(key)) {
+                mSkipped.incrementAndGet();
+                return;
+            }
+            //底图只用于压缩，不需要放到显存中
+            Bitmap.Config config = DecodeConfig.softwareConfig(DecodeConfig.QUALITY_BALANCED,
+                    DecodeConfig.isOpaqueFormat(header.outMimeType));
+            bytes = (long) (width / sampleSize) * (height / sampleSize) * DecodeConfig.bytesPerPixel(config);
+            if (!acquire(bytes)) {
+                bytes = 0;
+                return;
+            }
+            bitmap = source.decodeSampled(mContext, sampleSize, config);
+            byte[] data = TiledImage.compressForDisk(bitmap);
+            if (data == null) {
+                throw new IOException("compress " + file + " failed");
+            }
+            if (pack == null) {
+                pack = mDiskTileCache.create(diskKey, source.getKey(), width, height);
+                if (pack == null) {
+                    throw new IOException("cannot create cache for " + file);
+                }
+            }
+            pack.write(sampleSize, bounds, data);
+            mGenerated.incrementAndGet();
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            Log.w(TAG, "generate preview for " + file + " failed", e);
+            mFailed.incrementAndGet();
+        } finally {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            if (bytes > 0) {
+                release(bytes);
+            }
+            if (pack != null) {
+                pack.close();
+            }
+        }
+    }
+
+    /**
+     * 等待有足够的内存预算再解码，至少允许一个文件在解码，避免大图永远无法开始
+     *
+     * @param bytes
+     * @return 等待过程中被取消时返回false
+     */
+    private synchronized boolean acquire(long bytes) {
+        while (mInFlightBytes > 0 && mInFlightBytes + bytes > getAvailableBytes()) {
+            if (mTask.isCancelled()) {
+                return false;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (mTask.isCancelled()) {
+            return false;
+        }
+        mInFlightBytes += bytes;
+        //计入共享的预算，控件解码时能看到批量任务占用的内存
+        mMemoryBudget.setHeldBytes(this, mInFlightBytes);
+        return true;
+    }
+
+    private synchronized void release(long bytes) {
+        mInFlightBytes -= bytes;
+        mMemoryBudget.setHeldBytes(this, mInFlightBytes);
+        notifyAll();
+    }
+
+    /**
+     * 批量任务可以使用的字节数，不包括自己已经占用的部分
+     *
+     * @return
+     */
+    private long getAvailableBytes() {
+        long othersBytes = mMemoryBudget.getUsedBytes() - mInFlightBytes;
+        return (long) ((mMemoryBudget.getBudgetBytes() - othersBytes) * BUDGET_FRACTION);
+    }
+
+    private int getDoneCount() {
+        return mGenerated.get() + mSkipped.get() + mFailed.get();
+    }
+
+    /**
+     * 合并进度回调，主线程处理之前的多次进度只回调一次
+     */
+    private void postProgress() {
+        if (mProgressPending.compareAndSet(false, true)) {
+            MAIN_HANDLER.post(() -> {
+                mProgressPending.set(false);
+                mCallback.onProgress(getDoneCount(), mFiles.size());
+            });
+        }
+    }
+
+    private void postComplete() {
+        final Result result = new Result(mGenerated.get(), mSkipped.get(), mFailed.get(), mFiles.size(),
+                System.nanoTime() - mStartNanos, mTask.isCancelled());
+        Log.i(TAG, result.toString());
+        MAIN_HANDLER.post(() -> mCallback.onBatchComplete(result));
+    }
+}
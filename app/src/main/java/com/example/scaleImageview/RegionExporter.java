@@ -0,0 +1,311 @@
+package com.example.scaleImageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * 从原图中导出指定区域
+ * 在子线程按输出分辨率分条解码原图的区域，绘制到输出大小的bitmap后直接压缩到输出流，
+ * 不会创建屏幕大小的中间bitmap，每一条之间都可以取消
+ */
+public final class RegionExporter {
+    //每一条输出的高度
+    private static final int BAND_HEIGHT = 512;
+    //解码占总进度的比例，剩余部分为压缩
+    private static final float DECODE_PROGRESS = 0.9f;
+    private static final Executor EXPORT_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    /**
+     * 导出的回调，都在主线程调用
+     */
+    public interface Callback {
+        /**
+         * @param progress 0-1
+         */
+        void onProgress(float progress);
+
+        void onExportComplete(int width, int height);
+
+        void onExportFailed(Exception e);
+
+        void onExportCancelled();
+    }
+
+    /**
+     * 一次导出任务
+     */
+    public static final class Task {
+        private volatile boolean mCancelled;
+
+        /**
+         * 取消导出，已经写入输出流的数据不会回滚，导出到文件时会删除文件
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private final Context mContext;
+    //原图，与mBitmap二选一
+    private final ImageSource mSource;
+    private final Bitmap mBitmap;
+    //要导出的区域，原图坐标系
+    private final Rect mRegion;
+    //EXIF方向，输出时按方向摆正
+    private final int mOrientation;
+    //摆正后的输出尺寸
+    private final int mOutputWidth;
+    private final int mOutputHeight;
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+    private final Callback mCallback;
+    private final Task mTask = new Task();
+
+    private RegionExporter(Context context, ImageSource source, Bitmap bitmap, Rect region, int orientation,
+                           int outputWidth, Bitmap.CompressFormat format, int quality, Callback callback) {
+        mContext = context.getApplicationContext();
+        mSource = source;
+        mBitmap = bitmap;
+        mRegion = new Rect(region);
+        mOrientation = orientation;
+        boolean swapped = DecodeConfig.isSwapped(orientation);
+        int regionWidth = swapped ? region.height() : region.width();
+        int regionHeight = swapped ? region.width() : region.height();
+        if (outputWidth <= 0) {
+            //不指定时按原图分辨率导出
+            outputWidth = regionWidth;
+        }
+        mOutputWidth = outputWidth;
+        mOutputHeight = Math.max(1, Math.round(regionHeight * outputWidth * 1.0f / regionWidth));
+        mFormat = format;
+        mQuality = quality;
+        //回调在主线程执行，提前在调用处检查
+        mCallback = Objects.requireNonNull(callback, "callback == null");
+    }
+
+    /**
+     * 从原图解码区域并导出
+     *
+     * @param context
+     * @param source
+     * @param region      原图坐标系中的区域
+     * @param orientation EXIF方向，输出的图片按方向摆正
+     * @param outputWidth 摆正后的输出宽度，高度按区域比例计算，小于等于0时使用原图分辨率
+     * @param format
+     * @param quality
+     * @param out         调用方负责关闭
+     * @param callback
+     * @return
+     */
+    static Task export(Context context, ImageSource source, Rect region, int orientation, int outputWidth,
+                       Bitmap.CompressFormat format, int quality, OutputStream out, Callback callback) {
+        RegionExporter exporter = new RegionExporter(context, source, null, region, orientation, outputWidth, format, quality, callback);
+        exporter.start(out, null);
+        return exporter.mTask;
+    }
+
+    /**
+     * 从已经在内存中的bitmap导出区域，用于没有设置ImageSource的情况
+     *
+     * @param context
+     * @param bitmap
+     * @param region      bitmap坐标系中的区域
+     * @param outputWidth
+     * @param format
+     * @param quality
+     * @param out
+     * @param callback
+     * @return
+     */
+    static Task export(Context context, Bitmap bitmap, Rect region, int outputWidth,
+                       Bitmap.CompressFormat format, int quality, OutputStream out, Callback callback) {
+        RegionExporter exporter = new RegionExporter(context, null, bitmap, region, ExifInterface.ORIENTATION_NORMAL,
+                outputWidth, format, quality, callback);
+        exporter.start(out, null);
+        return exporter.mTask;
+    }
+
+    static Task export(Context context, ImageSource source, Bitmap bitmap, Rect region, int orientation, int outputWidth,
+                       Bitmap.CompressFormat format, int quality, File file, Callback callback) {
+        RegionExporter exporter = new RegionExporter(context, source, bitmap, region, orientation, outputWidth, format, quality, callback);
+        exporter.start(null, file);
+        return exporter.mTask;
+    }
+
+    private void start(final OutputStream out, final File file) {
+        if (mRegion.isEmpty()) {
+            postFailed(new IllegalArgumentException("empty region " + mRegion));
+            return;
+        }
+        EXPORT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (file == null) {
+                    if (runExport(out)) {
+                        postComplete();
+                    }
+                    return;
+                }
+                boolean success = false;
+                try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file))) {
+                    success = runExport(fileOut);
+                } catch (IOException e) {
+                    //关闭时写入剩余的数据失败，文件不完整
+                    success = false;
+                    postFailed(e);
+                } finally {
+                    if (!success) {
+                        //取消或失败时不留下不完整的文件
+                        file.delete();
+                    }
+                }
+                //文件关闭之后才通知完成，避免完成之后又回调失败
+                if (success) {
+                    postComplete();
+                }
+            }
+        });
+    }
+
+    /**
+     * 在子线程执行导出，失败和取消时在这里回调，成功时由调用方关闭输出后回调
+     *
+     * @param out
+     * @return 是否成功
+     */
+    private boolean runExport(OutputStream out) {
+        Bitmap output = null;
+        BitmapRegionDecoder decoder = null;
+        try {
+            if (mSource != null) {
+                decoder = mSource.newRegionDecoder(mContext);
+            }
+            output = Bitmap.createBitmap(mOutputWidth, mOutputHeight, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(output);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            //按原图的方向分条解码，绘制时再摆正
+            boolean swapped = DecodeConfig.isSwapped(mOrientation);
+            int width = swapped ? mOutputHeight : mOutputWidth;
+            int height = swapped ? mOutputWidth : mOutputHeight;
+            Matrix orientationMatrix = new Matrix();
+            DecodeConfig.getOrientationMatrix(mOrientation, width, height, orientationMatrix);
+            canvas.concat(orientationMatrix);
+            float scale = width * 1.0f / mRegion.width();
+            int sampleSize = TiledImage.calculateSampleSize(scale);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+
+            Rect band = new Rect();
+            RectF dst = new RectF();
+            for (int top = 0; top < height; top += BAND_HEIGHT) {
+                if (mTask.isCancelled()) {
+                    postCancelled();
+                    return false;
+                }
+                int bottom = Math.min(height, top + BAND_HEIGHT);
+                //输出的一条对应原图中的区域
+                band.set(mRegion.left, mRegion.top + (int) (top / scale),
+                        mRegion.right, Math.min(mRegion.bottom, mRegion.top + (int) Math.ceil(bottom / scale)));
+                if (band.isEmpty()) {
+                    continue;
+                }
+                dst.set(0, (band.top - mRegion.top) * scale, width, (band.bottom - mRegion.top) * scale);
+                if (decoder != null) {
+                    Bitmap decoded = decoder.decodeRegion(band, options);
+                    if (decoded == null) {
+                        throw new IOException("decode region failed: " + band);
+                    }
+                    canvas.drawBitmap(decoded, null, dst, paint);
+                    decoded.recycle();
+                } else {
+                    canvas.drawBitmap(mBitmap, band, dst, paint);
+                }
+                postProgress(DECODE_PROGRESS * bottom / height);
+            }
+            if (mTask.isCancelled()) {
+                postCancelled();
+                return false;
+            }
+            if (!output.compress(mFormat, mQuality, out)) {
+                throw new IOException("compress failed");
+            }
+            out.flush();
+            postProgress(1.0f);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            postFailed(e);
+        } catch (OutOfMemoryError e) {
+            postFailed(new IOException("out of memory for " + mOutputWidth + "x" + mOutputHeight, e));
+        } finally {
+            if (output != null) {
+                output.recycle();
+            }
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+        return false;
+    }
+
+    private void postProgress(final float progress) {
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mTask.isCancelled()) {
+                    mCallback.onProgress(progress);
+                }
+            }
+        });
+    }
+
+    private void postComplete() {
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onExportComplete(mOutputWidth, mOutputHeight);
+            }
+        });
+    }
+
+    private void postFailed(final Exception e) {
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onExportFailed(e);
+            }
+        });
+    }
+
+    private void postCancelled() {
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onExportCancelled();
+            }
+        });
+    }
+}
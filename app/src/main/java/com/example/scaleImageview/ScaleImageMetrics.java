@@ -0,0 +1,100 @@
+package com.example.scaleImageview;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MetricsListener的默认实现，把指标记录到无锁的直方图和计数器中，
+ * 由业务方定期读取或drain后上报
+ * 同一个实例可以设置给多个ScaleImageView
+ */
+public class ScaleImageMetrics implements MetricsListener {
+    private final LatencyHistogram mInputLatency = new LatencyHistogram();
+    private final LatencyHistogram mDrawCost = new LatencyHistogram();
+    private final LatencyHistogram mBaseDecode = new LatencyHistogram();
+    private final LatencyHistogram mTileDecode = new LatencyHistogram();
+    private final LatencyHistogram mBitmapCapture = new LatencyHistogram();
+    private final AtomicLong mAnimationFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mBitmapBytes = new AtomicLong();
+
+    @Override
+    public void onInputLatency(long nanos) {
+        mInputLatency.record(nanos);
+    }
+
+    @Override
+    public void onDrawCost(long nanos) {
+        mDrawCost.record(nanos);
+    }
+
+    @Override
+    public void onAnimationFrame(int droppedFrames) {
+        mAnimationFrames.incrementAndGet();
+        if (droppedFrames > 0) {
+            mDroppedFrames.addAndGet(droppedFrames);
+        }
+    }
+
+    @Override
+    public void onDecode(int type, long nanos) {
+        if (type == DECODE_TILE) {
+            mTileDecode.record(nanos);
+        } else {
+            mBaseDecode.record(nanos);
+        }
+    }
+
+    @Override
+    public void onBitmapCapture(long nanos) {
+        mBitmapCapture.record(nanos);
+    }
+
+    @Override
+    public void onBitmapMemory(long bytes) {
+        mBitmapBytes.set(bytes);
+    }
+
+    public LatencyHistogram getInputLatency() {
+        return mInputLatency;
+    }
+
+    public LatencyHistogram getDrawCost() {
+        return mDrawCost;
+    }
+
+    public LatencyHistogram getBaseDecode() {
+        return mBaseDecode;
+    }
+
+    public LatencyHistogram getTileDecode() {
+        return mTileDecode;
+    }
+
+    public LatencyHistogram getBitmapCapture() {
+        return mBitmapCapture;
+    }
+
+    public long getAnimationFrames() {
+        return mAnimationFrames.get();
+    }
+
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    public long getBitmapBytes() {
+        return mBitmapBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ScaleImageMetrics[inputLatency={" + mInputLatency + "}"
+                + ",drawCost={" + mDrawCost + "}"
+                + ",baseDecode={" + mBaseDecode + "}"
+                + ",tileDecode={" + mTileDecode + "}"
+                + ",bitmapCapture={" + mBitmapCapture + "}"
+                + ",animationFrames=" + getAnimationFrames()
+                + ",droppedFrames=" + getDroppedFrames()
+                + ",bitmapBytes=" + getBitmapBytes() + "]";
+    }
+}
@@ -5,8 +5,14 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.media.ExifInterface;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Display;
@@ -14,26 +20,42 @@ import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.ScaleGestureDetector.OnScaleGestureListener;
+import android.view.VelocityTracker;
 import android.view.View;
 import android.view.View.OnTouchListener;
-import android.view.ViewConfiguration;
-import android.view.ViewTreeObserver.OnGlobalLayoutListener;
 import android.view.WindowManager;
+import android.view.animation.Interpolator;
 import android.widget.FrameLayout;
+import android.widget.OverScroller;
 
 import androidx.appcompat.widget.AppCompatImageView;
 import androidx.viewpager.widget.ViewPager;
 
+import com.example.viewport.Viewport;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.function.IntConsumer;
 
 /**
  * a custom view that supports zoom and move
  */
-public class ScaleImageView extends AppCompatImageView implements OnGlobalLayoutListener, OnScaleGestureListener, OnTouchListener {
+public class ScaleImageView extends AppCompatImageView implements OnScaleGestureListener, OnTouchListener {
     private static final String TAG = "ScaleImageView";
     public static final int PREVIEW_CLICK_TYPE = 0;
+    //上下滑动，控件没有切换图片，由调用方处理
     public static final int PREVIEW_SWITCH_LAST_TYPE = 1;
     public static final int PREVIEW_SWITCH_NEXT_TYPE = 2;
+    //设置了图片序列时控件已经切换到前一张或后一张，调用方不需要再切换
+    public static final int PREVIEW_SWITCHED_LAST_TYPE = 3;
+    public static final int PREVIEW_SWITCHED_NEXT_TYPE = 4;
+    //调试日志开关，手势处理的热路径上的日志都受其控制
+    private static boolean sDebug = false;
 
     //是否支持缩放
     private boolean isScaleEnable;
@@ -42,9 +64,45 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
     //屏幕尺寸
     Point mScreenSize = new Point();
     private Matrix mMatrix;
+    //缩放平移的计算都交给Viewport，mMatrix只用于绘制
+    private final Viewport mViewport = new Viewport();
+    //EXIF方向，像素不旋转，原图坐标先经过mOrientationMatrix摆正，Viewport工作在摆正后的坐标系上
+    private int mOrientation = ExifInterface.ORIENTATION_NORMAL;
+    private final Matrix mOrientationMatrix = new Matrix();
+    //复用的图片区域，避免每次调用都分配对象
+    private final RectF mMatrixRect = new RectF();
+    //触摸事件只更新视口，每帧最多同步一次矩阵
+    private final Runnable mApplyViewportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isApplyPending = false;
+            applyViewport();
+        }
+    };
+    private boolean isApplyPending;
+    //是否根据手指的速度预测下一帧的位置，降低跟手的延迟
+    private boolean isTouchPrediction = false;
+    //预测的手指在下一帧的位移，只用于绘制，不修改视口
+    private float mPredictX;
+    private float mPredictY;
+    //加上预测位移后的视口
+    private final Viewport mPredictViewport = new Viewport();
     //捕获用户多指触控时缩放的比例
     private ScaleGestureDetector mScaleGestureDetector;
     private IntConsumer mEventConsumer;
+    //录制触摸事件，用于离线回放
+    private GestureRecorder mGestureRecorder;
+
+    //---------------------运行时指标变量-------------------------
+    private MetricsListener mMetricsListener;
+    //最近一次触摸事件的时间
+    private long mLastInputTime;
+    //尚未绘制的第一个触摸事件的时间，-1表示没有
+    private long mPendingInputTime = -1;
+    //手指是否在屏幕上
+    private boolean mInGesture;
+    //屏幕刷新的间隔
+    private long mFrameIntervalNanos = 16666667L;
 
     //---------------------自由移动的变量------------------------
     //记录上次多点触控的数量
@@ -57,10 +115,6 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
     private float mTouchSlop;
     //是否能够移动
     private boolean isCanDrag;
-    //是否超出控件宽度，即是否处于放大状态
-    private boolean isBeyondLeftAndRight;
-    //是否超出控件高度，即是否处于放大状态
-    private boolean isBeyondTopAndBottom;
 
     private float downX;
     private float downY;
@@ -72,20 +126,49 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
     private int validScrollYThreshold;
     private float significantMoveThreshold;
 
+    //---------------------松手后惯性滑动的变量------------------------
+    //拖动过程中的速度追踪，复用同一个实例
+    private VelocityTracker mVelocityTracker;
+    private OverScroller mScroller;
+    private final FlingRunnable mFlingRunnable = new FlingRunnable();
+    //触发惯性滑动的最小速度以及最大速度
+    private float mMinFlingVelocity;
+    private float mMaxFlingVelocity;
+
 
     //---------------------双击放大与缩小变量-------------------------
     //用户双击手势的对象变量
     private GestureDetector mGestureDetector;
     //是否支持双击缩放或缩小
     private boolean isDoubleTapEnable = false;
-    //是否正在放大或缩小---防止用户在正在放大或缩小时疯狂点击
-    private boolean isScaling;
-    //初始化缩放的比例
-    private float mInitScale;
-    //双击放大的值
-    private float mMidScale;
-    //放大的最大值
-    private float mMaxScale;
+    //双击缩放的动画，新的手势开始时会被打断
+    private final ZoomAnimator mZoomAnimator;
+    //计算动画终点时使用的视口
+    private final Viewport mAnimViewport = new Viewport();
+
+    //---------------------大图分块加载变量-------------------------
+    private TiledImage mTiledImage;
+    //图块缓存，默认在所有ScaleImageView之间共享
+    private TileCache mTileCache = TileCache.getDefault();
+
+    //---------------------图片序列变量-------------------------
+    private List<ImageSource> mSources;
+    private int mCurrentIndex;
+    //前后各预解码几张
+    private int mPrefetchDepth = 1;
+    private PrefetchCache mPrefetchCache = PrefetchCache.getDefault();
+    //是否分块加载，关闭时按最大放大倍数采样解码整张图片
+    private boolean isTilingEnable = true;
+    //图块的磁盘缓存，默认不使用
+    private DiskTileCache mDiskTileCache;
+    //所有控件共享的bitmap内存预算
+    private MemoryBudget mMemoryBudget;
+    //像素格式的质量策略
+    private int mDecodeQuality = DecodeConfig.QUALITY_BALANCED;
+    //等待恢复的视口，图片适应控件之后再应用
+    private SavedState mPendingState;
+    //正在播放的动图
+    private AnimatedImage mAnimatedImage;
 
     public ScaleImageView(Context context) {
         this(context, null);
@@ -100,54 +183,609 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
         // 初始化
         mMatrix = new Matrix();
         setScaleType(ScaleType.MATRIX);
-        //获取屏幕尺寸
-        getFullScreenSize(context, mScreenSize);
+        //屏幕尺寸以及系统的滑动阈值在所有控件之间共享，配置不变时不再重复查询
+        ViewMetrics metrics = ViewMetrics.get(context);
+        mScreenSize.set(metrics.screenWidth, metrics.screenHeight);
+        mMemoryBudget = MemoryBudget.getDefault(context);
 
         setOnTouchListener(this);
-        mScaleGestureDetector = new ScaleGestureDetector(context, this);
 
         //系统触发的最小滑动距离
-        mTouchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+        mTouchSlop = metrics.touchSlop;
         //系统触发的滚动整个页面的最小距离
-        final ViewConfiguration configuration = ViewConfiguration.get(getContext());
-        mScrollPageSlop = configuration.getScaledPagingTouchSlop();
+        mScrollPageSlop = metrics.pagingTouchSlop;
+        mMinFlingVelocity = metrics.minFlingVelocity;
+        mMaxFlingVelocity = metrics.maxFlingVelocity;
+        mScroller = new OverScroller(context);
 
         int validScrollFactor = 40;
         significantMoveThreshold = validScrollFactor / 100f;
 
-        //双击放大与缩小
-        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+        mZoomAnimator = new ZoomAnimator(new ZoomAnimator.Listener() {
             @Override
-            public boolean onDoubleTap(MotionEvent e) {
-                if (isScaling) {
+            public void onZoomUpdate(float scale, float translateX, float translateY) {
+                mViewport.setTransform(scale, translateX, translateY);
+                applyViewport();
+            }
+        });
+    }
+
+    /**
+     * 第一次收到触摸事件时才创建，画廊中大部分控件不会被触摸
+     *
+     * @return
+     */
+    private ScaleGestureDetector getScaleGestureDetector() {
+        if (mScaleGestureDetector == null) {
+            mScaleGestureDetector = new ScaleGestureDetector(getContext(), this);
+        }
+        return mScaleGestureDetector;
+    }
+
+    private GestureDetector getGestureDetector() {
+        if (mGestureDetector == null) {
+            //双击放大与缩小
+            mGestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+                @Override
+                public boolean onDoubleTap(MotionEvent e) {
+                    //以此点为缩放中心
+                    float x = e.getX();
+                    float y = e.getY();
+
+                    if (getCurrentScale() < mViewport.getMidScale()) {
+                        animateScaleTo(mViewport.getMidScale(), x, y);
+                    } else {
+                        animateScaleTo(mViewport.getInitScale(), x, y);
+                    }
                     return true;
                 }
-                //以此点为缩放中心
-                float x = e.getX();
-                float y = e.getY();
-
-                if (getCurrentScale() < mMidScale) {
-                    postDelayed(new SlowlyScaleRunnable(mMidScale, x, y), 16);
-//					mMatrix.postScale(mMidScale/getScale(), mMidScale/getScale(), x, y);
-//					checkBorderAndCenterWhenScale();
-//					setImageMatrix(mMatrix);
-                } else {
-                    postDelayed(new SlowlyScaleRunnable(mInitScale, x, y), 16);
-//					mMatrix.postScale(mInitScale/getScale(), mInitScale/getScale(), x, y);
-//					checkBorderAndCenterWhenScale();
-//					setImageMatrix(mMatrix);
-                }
-                isScaling = true;
-                return true;
+            });
+        }
+        return mGestureDetector;
+    }
+
+    /**
+     * 以分块加载的方式显示大图
+     * 先显示采样后的底图，放大后只解码屏幕内可见的区域
+     *
+     * @param source
+     */
+    public void setImageSource(ImageSource source) {
+        releaseTiledImage();
+        releaseAnimatedImage();
+        mMatrix.reset();
+        mInit = false;
+        mViewport.setSourceSize(0, 0);
+        setOrientation(ExifInterface.ORIENTATION_NORMAL, 0, 0);
+        setImageDrawable(null);
+        updateHeldBytes();
+        if (source == null) {
+            return;
+        }
+        mTiledImage = new TiledImage(getContext(), source, mTileCache, new TiledImage.Callback() {
+            @Override
+            public void onPreviewReady(Bitmap preview, int sourceWidth, int sourceHeight, int orientation) {
+                showSourceBitmap(preview, sourceWidth, sourceHeight, orientation);
+            }
+
+            @Override
+            public void onBaseLayerReady(Bitmap base, int sourceWidth, int sourceHeight, int orientation) {
+                showSourceBitmap(base, sourceWidth, sourceHeight, orientation);
+                reportBitmapMemory();
+            }
+
+            @Override
+            public void onTileLoaded() {
+                invalidate();
+                reportBitmapMemory();
+            }
+
+            @Override
+            public void onLoadFailed(Exception e) {
+                Log.e(TAG, "setImageSource failed", e);
             }
         });
+        mTiledImage.setMetricsListener(mMetricsListener);
+        mTiledImage.setDiskTileCache(mDiskTileCache);
+        mTiledImage.setMemoryBudget(mMemoryBudget);
+        mTiledImage.setDecodeQuality(mDecodeQuality);
+        //已经预解码的图片直接显示底图
+        TiledImage.BaseLayer baseLayer = mPrefetchCache.get(source);
+        if (baseLayer != null) {
+            mTiledImage.load(baseLayer);
+        } else {
+            mTiledImage.load(getTargetWidth(), getTargetHeight(), isTilingEnable);
+        }
+    }
+
+    /**
+     * 显示GIF或者动态WebP（Android 9及以上），帧在子线程解码，离开屏幕时暂停播放
+     * 只有一帧的图片按setImageSource显示
+     *
+     * @param source
+     */
+    public void setAnimatedImageSource(final ImageSource source) {
+        setImageSource(null);
+        if (source == null) {
+            return;
+        }
+        mAnimatedImage = new AnimatedImage(getContext(), source, mMemoryBudget, new AnimatedImage.Callback() {
+            @Override
+            public void onAnimationReady(Drawable drawable) {
+                setImageDrawable(drawable);
+                reportBitmapMemory();
+                updateAnimation();
+            }
+
+            @Override
+            public void onNotAnimated() {
+                setImageSource(source);
+            }
+
+            @Override
+            public void onLoadFailed(Exception e) {
+                Log.e(TAG, "setAnimatedImageSource failed", e);
+            }
+        });
+        mAnimatedImage.load();
+    }
+
+    /**
+     * 动图是否正在播放
+     *
+     * @return
+     */
+    public boolean isAnimating() {
+        return mAnimatedImage != null && mAnimatedImage.isRunning();
+    }
+
+    private void releaseAnimatedImage() {
+        if (mAnimatedImage != null) {
+            mAnimatedImage.release();
+            mAnimatedImage = null;
+        }
+    }
+
+    /**
+     * 只在添加到窗口并且可见时播放，其余时候暂停，不再解码
+     */
+    private void updateAnimation() {
+        if (mAnimatedImage == null) {
+            return;
+        }
+        if (isAttachedToWindow() && isShown() && getWindowVisibility() == VISIBLE) {
+            mAnimatedImage.start();
+        } else {
+            mAnimatedImage.stop();
+        }
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateAnimation();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateAnimation();
+    }
+
+    /**
+     * 设置是否分块加载，在下一次setImageSource时生效
+     * 关闭后只读取尺寸并按适应控件的缩放比例乘以最大放大倍数采样解码，不再按需解码图块
+     *
+     * @param tilingEnable
+     */
+    public void setTilingEnable(boolean tilingEnable) {
+        isTilingEnable = tilingEnable;
+    }
+
+    /**
+     * 设置像素格式的质量策略，在下一次setImageSource时生效
+     *
+     * @param quality DecodeConfig.QUALITY_HIGH、QUALITY_BALANCED或QUALITY_LOW_MEMORY
+     */
+    public void setDecodeQuality(int quality) {
+        mDecodeQuality = quality;
+    }
+
+    public int getDecodeQuality() {
+        return mDecodeQuality;
+    }
+
+    /**
+     * 显示原图坐标系下的bitmap，drawable的固有尺寸始终是原图尺寸，
+     * 预览图替换为更清晰的底图时矩阵保持不变，不会打断正在进行的手势
+     *
+     * @param bitmap
+     * @param sourceWidth
+     * @param sourceHeight
+     * @param orientation  EXIF方向
+     */
+    private void showSourceBitmap(Bitmap bitmap, int sourceWidth, int sourceHeight, int orientation) {
+        if (orientation != mOrientation) {
+            //预览图读取到的方向不完整时，底图的方向会不同，需要重新适应控件
+            setOrientation(orientation, sourceWidth, sourceHeight);
+            mInit = false;
+        }
+        boolean wasInit = mInit;
+        //尺寸不变时保持当前的视口，否则重新适应控件
+        setImageDrawable(new SourceBitmapDrawable(bitmap, sourceWidth, sourceHeight));
+        if (wasInit) {
+            //重新应用当前的视口，更新可见的图块
+            applyViewport();
+        }
+    }
+
+    /**
+     * 更新原图坐标到摆正后坐标的矩阵
+     *
+     * @param orientation
+     * @param sourceWidth
+     * @param sourceHeight
+     */
+    private void setOrientation(int orientation, int sourceWidth, int sourceHeight) {
+        mOrientation = orientation;
+        DecodeConfig.getOrientationMatrix(orientation, sourceWidth, sourceHeight, mOrientationMatrix);
+    }
+
+    private int getTargetWidth() {
+        return getWidth() > 0 ? getWidth() : mScreenSize.x;
+    }
+
+    private int getTargetHeight() {
+        return getHeight() > 0 ? getHeight() : mScreenSize.y;
+    }
+
+    /**
+     * 设置图片序列，上下滑动时自动切换到前一张或后一张，相邻的图片会在后台预先解码
+     * 自动切换后回调PREVIEW_SWITCHED_*，图片放大时上下拖动只移动图片，不会切换
+     *
+     * @param sources
+     * @param index   当前显示的位置
+     */
+    public void setImageSources(List<ImageSource> sources, int index) {
+        mSources = sources != null ? new ArrayList<>(sources) : null;
+        if (mSources == null || mSources.isEmpty()) {
+            mSources = null;
+            setImageSource(null);
+            return;
+        }
+        mCurrentIndex = -1;
+        setCurrentIndex(index);
+    }
+
+    /**
+     * 切换到序列中的指定位置
+     *
+     * @param index
+     * @return 位置是否有效
+     */
+    public boolean setCurrentIndex(int index) {
+        if (mSources == null || index < 0 || index >= mSources.size()) {
+            return false;
+        }
+        if (index != mCurrentIndex) {
+            mCurrentIndex = index;
+            setImageSource(mSources.get(index));
+            prefetchNeighbors();
+        }
+        return true;
+    }
+
+    public int getCurrentIndex() {
+        return mCurrentIndex;
+    }
+
+    public boolean showNext() {
+        return setCurrentIndex(mCurrentIndex + 1);
+    }
+
+    public boolean showPrevious() {
+        return setCurrentIndex(mCurrentIndex - 1);
+    }
+
+    /**
+     * 设置前后各预解码几张图片，0表示不预解码
+     *
+     * @param depth
+     */
+    public void setPrefetchDepth(int depth) {
+        mPrefetchDepth = Math.max(0, depth);
+        prefetchNeighbors();
+    }
+
+    /**
+     * 设置预解码缓存，默认在所有ScaleImageView之间共享
+     *
+     * @param prefetchCache
+     */
+    public void setPrefetchCache(PrefetchCache prefetchCache) {
+        mPrefetchCache = prefetchCache != null ? prefetchCache : PrefetchCache.getDefault();
+    }
+
+    public PrefetchCache getPrefetchCache() {
+        return mPrefetchCache;
+    }
+
+    /**
+     * 预解码当前位置前后的图片，并取消窗口以外的任务
+     */
+    private void prefetchNeighbors() {
+        if (mSources == null) {
+            return;
+        }
+        int from = Math.max(0, mCurrentIndex - mPrefetchDepth);
+        int to = Math.min(mSources.size() - 1, mCurrentIndex + mPrefetchDepth);
+        Set<String> window = new HashSet<>();
+        for (int i = from; i <= to; i++) {
+            window.add(mSources.get(i).getKey());
+        }
+        mPrefetchCache.cancelExcept(window);
+        //预解码的优先级最低，预算不足以再放下一张底图时不再预解码，只检查不释放，否则会清空刚预解码好的图片
+        if (!mMemoryBudget.hasRoom((long) getTargetWidth() * getTargetHeight() * 4)) {
+            return;
+        }
+        //先解码下一张，向后浏览更常见
+        for (int distance = 1; distance <= mPrefetchDepth; distance++) {
+            if (mCurrentIndex + distance <= to) {
+                mPrefetchCache.prefetch(getContext(), mSources.get(mCurrentIndex + distance),
+                        getTargetWidth(), getTargetHeight(), isTilingEnable, mMemoryBudget, mDecodeQuality);
+            }
+            if (mCurrentIndex - distance >= from) {
+                mPrefetchCache.prefetch(getContext(), mSources.get(mCurrentIndex - distance),
+                        getTargetWidth(), getTargetHeight(), isTilingEnable, mMemoryBudget, mDecodeQuality);
+            }
+        }
+    }
+
+    /**
+     * 设置图块缓存，ViewPager等场景下多个控件可以共用同一个缓存
+     * 在下一次setImageSource时生效
+     *
+     * @param tileCache
+     */
+    public void setTileCache(TileCache tileCache) {
+        mTileCache = tileCache != null ? tileCache : TileCache.getDefault();
+    }
+
+    public TileCache getTileCache() {
+        return mTileCache;
+    }
+
+    /**
+     * 设置图块的磁盘缓存，再次打开同一张大图时直接读取缓存的底图和可见图块，传null关闭
+     * 在下一次setImageSource时生效，只对文件和资源来源有效
+     *
+     * @param diskTileCache 例如DiskTileCache.getDefault(context)
+     */
+    public void setDiskTileCache(DiskTileCache diskTileCache) {
+        mDiskTileCache = diskTileCache;
+    }
+
+    public DiskTileCache getDiskTileCache() {
+        return mDiskTileCache;
+    }
+
+    /**
+     * 分块加载的图片已经显示的底图，只显示了预览图时返回null
+     *
+     * @return
+     */
+    TiledImage.BaseLayer getBaseLayer() {
+        return mTiledImage != null ? mTiledImage.getBaseLayer() : null;
+    }
+
+    TiledImage getTiledImage() {
+        return mTiledImage;
+    }
+
+    private void releaseTiledImage() {
+        if (mTiledImage != null) {
+            //底图保留在进程级的缓存中，重新创建的控件显示同一张图片时不需要重新解码
+            TiledImage.BaseLayer baseLayer = mTiledImage.getBaseLayer();
+            if (baseLayer != null) {
+                mPrefetchCache.retain(mTiledImage.getSource(), baseLayer);
+            }
+            mTiledImage.release();
+            mTiledImage = null;
+        }
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        state.index = mCurrentIndex;
+        if (mInit && mViewport.isReady()) {
+            state.sourceKey = mTiledImage != null ? mTiledImage.getSource().getKey() : null;
+            state.relativeScale = mViewport.getRelativeScale();
+            state.centerX = mViewport.getCenterFractionX();
+            state.centerY = mViewport.getCenterFractionY();
+        }
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        //重建后调用方一般已经设置了同一个序列，切换到保存时的位置
+        setCurrentIndex(savedState.index);
+        if (savedState.relativeScale <= 0) {
+            return;
+        }
+        mPendingState = savedState;
+        if (mInit) {
+            restorePendingState();
+        }
+    }
+
+    /**
+     * 显示的仍是保存时的图片时，恢复缩放倍数和中心点
+     */
+    private void restorePendingState() {
+        SavedState state = mPendingState;
+        mPendingState = null;
+        String sourceKey = mTiledImage != null ? mTiledImage.getSource().getKey() : null;
+        if (state == null || !Objects.equals(state.sourceKey, sourceKey)) {
+            return;
+        }
+        mViewport.restore(state.relativeScale, state.centerX, state.centerY);
+        applyViewport();
+    }
+
+    @Override
+    public void setImageMatrix(Matrix matrix) {
+        //由触摸事件引起的重绘，记录事件时间用于统计触摸到绘制的延迟
+        if (mMetricsListener != null && mInGesture && mPendingInputTime < 0) {
+            mPendingInputTime = mLastInputTime;
+        }
+        super.setImageMatrix(matrix);
+        //矩阵变化后更新可见的图块
+        if (mTiledImage != null) {
+            mTiledImage.updateVisibleTiles(matrix, getWidth(), getHeight());
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long start = mMetricsListener != null ? System.nanoTime() : 0;
+        super.onDraw(canvas);
+        if (mTiledImage != null) {
+            int saveCount = canvas.save();
+            canvas.translate(getPaddingLeft(), getPaddingTop());
+            mTiledImage.draw(canvas, getImageMatrix());
+            canvas.restoreToCount(saveCount);
+        }
+        if (mMetricsListener != null) {
+            if (mInGesture || mZoomAnimator.isRunning() || !mScroller.isFinished()) {
+                mMetricsListener.onDrawCost(System.nanoTime() - start);
+            }
+            if (mPendingInputTime >= 0) {
+                mMetricsListener.onInputLatency((SystemClock.uptimeMillis() - mPendingInputTime) * 1000000L);
+                mPendingInputTime = -1;
+            }
+        }
+    }
+
+    /**
+     * 设置运行时指标的回调，可以使用ScaleImageMetrics记录后上报，传null关闭统计
+     *
+     * @param metricsListener
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        mMetricsListener = metricsListener;
+        mPendingInputTime = -1;
+        mZoomAnimator.setMetricsListener(metricsListener);
+        if (mTiledImage != null) {
+            mTiledImage.setMetricsListener(metricsListener);
+        }
+    }
+
+    public MetricsListener getMetricsListener() {
+        return mMetricsListener;
+    }
+
+    /**
+     * 控件当前持有的bitmap字节数，包括底图和显示中的图块
+     *
+     * @return
+     */
+    public long getBitmapMemoryBytes() {
+        long bytes = 0;
+        Drawable drawable = getDrawable();
+        Bitmap bitmap = null;
+        if (drawable instanceof SourceBitmapDrawable) {
+            bitmap = ((SourceBitmapDrawable) drawable).getBitmap();
+        } else if (drawable instanceof BitmapDrawable) {
+            bitmap = ((BitmapDrawable) drawable).getBitmap();
+        }
+        if (bitmap != null && !bitmap.isRecycled()) {
+            bytes += bitmap.getAllocationByteCount();
+        }
+        if (mTiledImage != null) {
+            bytes += mTiledImage.getTileBytes();
+        }
+        if (mAnimatedImage != null) {
+            bytes += mAnimatedImage.getFrameBytes();
+        }
+        return bytes;
+    }
+
+    private void reportBitmapMemory() {
+        long bytes = updateHeldBytes();
+        if (mMetricsListener != null) {
+            mMetricsListener.onBitmapMemory(bytes);
+        }
+    }
+
+    /**
+     * 把当前持有的bitmap字节数同步到内存预算
+     *
+     * @return
+     */
+    private long updateHeldBytes() {
+        long bytes = getBitmapMemoryBytes();
+        mMemoryBudget.setHeldBytes(this, isAttachedToWindow() ? bytes : 0);
+        return bytes;
+    }
+
+    /**
+     * 设置bitmap内存预算，默认为MemoryBudget.getDefault(context)，在下一次setImageSource时生效
+     *
+     * @param memoryBudget
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        if (isAttachedToWindow()) {
+            mMemoryBudget.unregister(this);
+        }
+        mMemoryBudget = memoryBudget != null ? memoryBudget : MemoryBudget.getDefault(getContext());
+        if (isAttachedToWindow()) {
+            mMemoryBudget.register(this);
+            updateHeldBytes();
+        }
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return mMemoryBudget;
+    }
+
+    /**
+     * 内存紧张时释放屏幕内的图块，只保留底图
+     */
+    void trimTiles() {
+        if (mTiledImage != null) {
+            mTiledImage.freeTiles();
+            invalidate();
+            updateHeldBytes();
+        }
     }
 
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
-        //注册onGlobalLayoutListener
-        getViewTreeObserver().addOnGlobalLayoutListener(this);
+        mMemoryBudget.register(this);
+        updateHeldBytes();
+        if (mTiledImage != null) {
+            mTiledImage.resume();
+        }
+        if (mInit) {
+            //重新加载离开窗口时释放的图块，图块一般还在缓存中
+            applyViewport();
+        }
+        updateAnimation();
+        //按屏幕实际的刷新率统计丢帧
+        Display display = getDisplay();
+        if (display != null && display.getRefreshRate() > 0) {
+            mFrameIntervalNanos = (long) (1000000000L / display.getRefreshRate());
+            mZoomAnimator.setFrameInterval(mFrameIntervalNanos);
+        }
     }
 
     @Override
@@ -155,108 +793,154 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
         super.onSizeChanged(w, h, oldw, oldh);
         validScrollYThreshold = (int) (getMeasuredHeight() * significantMoveThreshold);
         //LogUtils.d("onSizeChanged=" + getMeasuredHeight() + ", validScrollYThreshold=" + validScrollYThreshold);
+        if (mInit && w > 0 && h > 0) {
+            //分屏、多窗口等改变控件尺寸时保持相对缩放倍数和中心点，不回到初始状态
+            mZoomAnimator.cancel();
+            mFlingRunnable.cancel();
+            float relativeScale = mViewport.getRelativeScale();
+            float centerX = mViewport.getCenterFractionX();
+            float centerY = mViewport.getCenterFractionY();
+            mViewport.setViewSize(w, h);
+            mViewport.fit();
+            mViewport.restore(relativeScale, centerX, centerY);
+            applyViewport();
+        } else {
+            //尺寸变为0（例如被折叠）后重新显示时回到初始状态
+            mInit = false;
+            mViewport.setViewSize(w, h);
+            fitToView();
+        }
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        //移除onGlobalLayoutListener
-        getViewTreeObserver().removeGlobalOnLayoutListener(this);
+        mZoomAnimator.cancel();
+        mFlingRunnable.cancel();
+        removeCallbacks(mApplyViewportRunnable);
+        isApplyPending = false;
+        //离开窗口（例如ViewPager回收页面）时图块放回共享的缓存，关闭解码器和磁盘缓存，不再由控件持有
+        if (mTiledImage != null) {
+            mTiledImage.suspend();
+        }
+        if (mAnimatedImage != null) {
+            mAnimatedImage.stop();
+        }
+        mMemoryBudget.unregister(this);
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
         mEventConsumer = null;
     }
 
-    /**
-     * 捕获图片加载完成事件
-     * onMeasure和onDraw都不适合
-     */
     @Override
-    public void onGlobalLayout() {
-        //初始化操作（一次就好，为了保证对缩放只进行一次）
-        if (!mInit) {
-            //得到控件的宽和高--不一定是屏幕的宽和高 可能会有actionBar等等
-            int width = getWidth();
-            int height = getHeight();
+    public void setImageDrawable(Drawable drawable) {
+        //setImageBitmap会复用同一个BitmapDrawable，但调用前getDrawable已经返回null
+        boolean changed = drawable != getDrawable();
+        super.setImageDrawable(drawable);
+        //父类的构造方法中可能会设置图片，此时成员变量还没有初始化
+        if (changed && mViewport != null) {
+            onDrawableChanged();
+        }
+    }
 
-            //得到我们的图片以及宽和高
-            Drawable drawable = getDrawable();
-            if (drawable == null || drawable.getIntrinsicWidth() < 0) {
+    /**
+     * 图片变化后重新适应控件，setImageBitmap和setImageResource最终也会调用setImageDrawable
+     * 分块加载时预览图替换为底图，固有尺寸不变，保持当前的视口
+     */
+    private void onDrawableChanged() {
+        Drawable drawable = getDrawable();
+        if (drawable == null || drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0) {
+            mInit = false;
+            return;
+        }
+        if (mInit && drawable instanceof SourceBitmapDrawable) {
+            //旋转90度或270度时按摆正后的宽高比较
+            boolean swapped = DecodeConfig.isSwapped(mOrientation);
+            int width = swapped ? drawable.getIntrinsicHeight() : drawable.getIntrinsicWidth();
+            int height = swapped ? drawable.getIntrinsicWidth() : drawable.getIntrinsicHeight();
+            if (width == mViewport.getSourceWidth() && height == mViewport.getSourceHeight()) {
                 return;
             }
+            mInit = false;
+        }
+        fitToView();
+    }
+
+    /**
+     * 计算初始化缩放的比例，并将图片移动到控件的中心
+     * 在图片变化以及控件尺寸确定时调用，不依赖全局的布局回调
+     */
+    private void fitToView() {
+        //得到控件的宽和高--不一定是屏幕的宽和高 可能会有actionBar等等
+        int width = getWidth();
+        int height = getHeight();
+        //得到我们的图片以及宽和高
+        Drawable drawable = getDrawable();
+        if (width <= 0 || height <= 0 || drawable == null
+                || drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0) {
+            return;
+        }
 
-            /**
-             * 这里说下Drawable这个抽象类，具体实现类为BitmapDrawable
-             * BitmapDrawable这个类重写了getIntrinsicWidth()和getIntrinsicHeight()方法
-             * 这个两个方法看字面意思就知道是什么了，就是得到图片固有的宽和高
-             */
-            int intrinsicWidth = drawable.getIntrinsicWidth();
-            int intrinsicHeight = drawable.getIntrinsicHeight();
+        /**
+         * 这里说下Drawable这个抽象类，具体实现类为BitmapDrawable
+         * BitmapDrawable这个类重写了getIntrinsicWidth()和getIntrinsicHeight()方法
+         * 这个两个方法看字面意思就知道是什么了，就是得到图片固有的宽和高
+         */
+        int intrinsicWidth = drawable.getIntrinsicWidth();
+        int intrinsicHeight = drawable.getIntrinsicHeight();
+        if (sDebug) {
             Log.e("SCALE_IMAGEVIEW", intrinsicWidth + ":intrinsicWidth");
             Log.e("SCALE_IMAGEVIEW", intrinsicHeight + ":intrinsicHeight");
-            // 如果图片宽度比控件宽度小，高度比控件高度大，则需要缩小
-            float scale = 1.0f;
-            if (width > intrinsicWidth && height < intrinsicHeight) {
-                scale = height * 1.0f / intrinsicHeight;
-            }
-            // 如果图片宽度比控件宽度大，高度比控件高度小，则需要缩小
-            if (width < intrinsicWidth && height > intrinsicHeight) {
-                scale = width * 1.0f / intrinsicWidth;
-            }
-            // 如果图片宽高都比控件宽高大，则需要缩小。如果图片宽高都比控件宽高小，则需要放大。
-            if ((width < intrinsicWidth && height < intrinsicHeight) || (width > intrinsicWidth && height > intrinsicHeight)) {
-                scale = Math.min(width * 1.0f / intrinsicWidth, height * 1.0f / intrinsicHeight);
-            }
-
-            //得到初始化缩放的比例
-            mInitScale = scale;
-            mMidScale = 2 * mInitScale;//双击放大的值
-            mMaxScale = 4 * mInitScale;//放大的最大值
-
-            //将图片移动到控件的中心
-            int dx = width / 2 - intrinsicWidth / 2;
-            int dy = height / 2 - intrinsicHeight / 2;
-            //将一些参数设置到图片或控件上 设置平移缩放 旋转
-            mMatrix.postTranslate(dx, dy);
-            mMatrix.postScale(mInitScale, mInitScale, width / 2, height / 2);//以控件的中心进行缩放
-            setImageMatrix(mMatrix);
+        }
+        mZoomAnimator.cancel();
+        mFlingRunnable.cancel();
+        mViewport.setViewSize(width, height);
+        //旋转90度或270度时按摆正后的宽高计算
+        if (DecodeConfig.isSwapped(mOrientation)) {
+            mViewport.setSourceSize(intrinsicHeight, intrinsicWidth);
+        } else {
+            mViewport.setSourceSize(intrinsicWidth, intrinsicHeight);
+        }
+        mViewport.fit();
+        applyViewport();
 
-            mInit = true;
+        mInit = true;
+        if (mPendingState != null) {
+            restorePendingState();
         }
     }
 
     @Override
     public boolean onScaleBegin(ScaleGestureDetector detector) {
-        Log.e("ScaleGestureDetector", "onScaleBegin");
+        if (sDebug) {
+            Log.e("ScaleGestureDetector", "onScaleBegin");
+        }
         //修改为true才会进入onScale()这个函数，否则多指触控一直走onScaleBegin方法，不走onScale和onScaleEnd方法
         return true;
     }
 
     @Override
     public void onScaleEnd(ScaleGestureDetector detector) {
-        Log.e("ScaleGestureDetector", "onScaleEnd");
+        if (sDebug) {
+            Log.e("ScaleGestureDetector", "onScaleEnd");
+        }
     }
 
     @Override
     public boolean onScale(ScaleGestureDetector detector) {
-        float scale = getCurrentScale();
         //捕获用户多指触控时缩放的比例
         float scaleFactor = detector.getScaleFactor();
-        Log.e("ScaleGestureDetector", "scaleFactor:" + scaleFactor);
+        if (sDebug) {
+            Log.e("ScaleGestureDetector", "scaleFactor:" + scaleFactor);
+        }
         if (getDrawable() == null) {
             return true;
         }
-        //最大最小控制(缩放区间 initScale --- maxScale)
-        if ((scale < mMaxScale && scaleFactor > 1.0f) || (scale > mInitScale && scaleFactor < 1.0f)) {
-            if (scale * scaleFactor > mMaxScale) {
-                scaleFactor = mMaxScale / scale;
-            }
-            if (scale * scaleFactor < mInitScale) {
-                scaleFactor = mInitScale / scale;
-            }
-
-            mMatrix.postScale(scaleFactor, scaleFactor, detector.getFocusX(), detector.getFocusY());
-            //不断检测 控制边界和中心位置
-            checkBorderAndCenterWhenScale();
-            setImageMatrix(mMatrix);
+        //最大最小控制(缩放区间 initScale --- maxScale)，并不断检测 控制边界和中心位置
+        if (mViewport.zoomBy(scaleFactor, detector.getFocusX(), detector.getFocusY())) {
+            requestApplyViewport();
         }
 
         return true;
@@ -264,16 +948,29 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
 
     @Override
     public boolean onTouch(View v, MotionEvent event) {
+        if (mGestureRecorder != null) {
+            mGestureRecorder.record(event);
+        }
+        if (mMetricsListener != null) {
+            mLastInputTime = event.getEventTime();
+            int action = event.getActionMasked();
+            mInGesture = action != MotionEvent.ACTION_UP && action != MotionEvent.ACTION_CANCEL;
+        }
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            //新的手势开始时打断正在进行的缩放动画以及惯性滑动，停在当前位置
+            mZoomAnimator.cancel();
+            mFlingRunnable.cancel();
+        }
         if (isDoubleTapEnable) {
             //双击放大与缩小事件传递给GestureDetector 放在最前面 防止双击时还能产生移动的事件响应
-            if (mGestureDetector.onTouchEvent(event)) {
+            if (getGestureDetector().onTouchEvent(event)) {
                 return true;
             }
         }
 
         //将手势传递给ScaleGestureDetector
         if (isScaleEnable) {
-            mScaleGestureDetector.onTouchEvent(event);
+            getScaleGestureDetector().onTouchEvent(event);
         }
 
         //-------------------------将放大的图片自由移动逻辑处理-----------------start------------
@@ -282,7 +979,9 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
         float pointerY = 0;
         //拿到多点触控的数量
         int pointerCount = event.getPointerCount();
-        Log.i("pointerCount", "pointerCount:" + pointerCount);
+        if (sDebug) {
+            Log.i("pointerCount", "pointerCount:" + pointerCount);
+        }
         for (int i = 0; i < pointerCount; i++) {
             pointerX += event.getX(i);
             pointerY += event.getY(i);
@@ -296,14 +995,18 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
             mLastPointerY = pointerY;
         }
         mLastPointerCount = pointerCount;
-        RectF rectF = getMatrixRectF();
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
                 downX = event.getX();
                 downY = event.getY();
+                if (mVelocityTracker == null) {
+                    mVelocityTracker = VelocityTracker.obtain();
+                }
+                mVelocityTracker.clear();
+                mVelocityTracker.addMovement(event);
                 if (getParent() instanceof ViewPager) {
                     //如果图片放大时 处理图片平移与ViewPager的滑动冲突
-                    if (rectF.width() - getWidth() > 0.01 || rectF.height() - getHeight() > 0.01) {
+                    if (mViewport.isBeyondView()) {
                         //阻止ViewPager拦截触摸事件
                         getParent().requestDisallowInterceptTouchEvent(true);
                     }
@@ -314,7 +1017,7 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
                 deltaY = event.getY() - downY;
                 //如果图片放大时 处理图片平移与ViewPager的滑动冲突
                 if (getParent() instanceof ViewPager) {
-                    if (rectF.width() - getWidth() > 0.01 || rectF.height() - getHeight() > 0.01) {
+                    if (mViewport.isBeyondView()) {
                         //阻止ViewPager拦截触摸事件
                         getParent().requestDisallowInterceptTouchEvent(true);
                     }
@@ -322,32 +1025,51 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
 
                 float dx = pointerX - mLastPointerX;
                 float dy = pointerY - mLastPointerY;
+                //VelocityTracker会读取事件中的历史采样
+                float panVelocityX = 0;
+                float panVelocityY = 0;
+                if (mVelocityTracker != null) {
+                    mVelocityTracker.addMovement(event);
+                    if (mTiledImage != null || isTouchPrediction) {
+                        mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+                        panVelocityX = mVelocityTracker.getXVelocity();
+                        panVelocityY = mVelocityTracker.getYVelocity();
+                    }
+                    //按当前的速度沿滑动方向预加载图块
+                    if (mTiledImage != null) {
+                        mTiledImage.setPanVelocity(panVelocityX, panVelocityY);
+                    }
+                }
                 if (!isCanDrag) {
-                    isCanDrag = isMoveAction(dx, dy);
+                    isCanDrag = Viewport.isMoveAction(dx, dy, mTouchSlop);
                 }
                 if (isCanDrag) {
                     if (getDrawable() != null) {
-                        isBeyondLeftAndRight = isBeyondTopAndBottom = true;
-                        //如果图片宽度小于控件宽度 不允许横向移动
-                        if (rectF.width() < getWidth()) {
-                            isBeyondLeftAndRight = false;
-                            dx = 0;
-                        }
-                        //如果图片的高度小于控件的高度 不允许纵向移动
-                        if (rectF.height() < getHeight()) {
-                            isBeyondTopAndBottom = false;
-                            dy = 0;
+                        //图片小于控件的方向上不允许移动，移动后进行边界检查
+                        panWithHistory(event, pointerCount);
+                        if (isTouchPrediction) {
+                            //预测到下一帧开始时手指的位移
+                            float frameSeconds = mFrameIntervalNanos / 1e9f;
+                            mPredictX = panVelocityX * frameSeconds;
+                            mPredictY = panVelocityY * frameSeconds;
                         }
-
-                        mMatrix.postTranslate(dx, dy);
-                        checkBorderWhenTranslate();
-                        setImageMatrix(mMatrix);
+                        requestApplyViewport();
                     }
                 }
                 mLastPointerX = pointerX;
                 mLastPointerY = pointerY;
                 break;
             case MotionEvent.ACTION_UP:
+                //拖动图片后松手，继续惯性滑动
+                if (isCanDrag && mVelocityTracker != null && getDrawable() != null) {
+                    mVelocityTracker.addMovement(event);
+                    mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+                    float velocityX = mVelocityTracker.getXVelocity();
+                    float velocityY = mVelocityTracker.getYVelocity();
+                    if (Math.abs(velocityX) > mMinFlingVelocity || Math.abs(velocityY) > mMinFlingVelocity) {
+                        mFlingRunnable.fling((int) velocityX, (int) velocityY);
+                    }
+                }
                 if (Math.abs(deltaY) < Math.abs(mScrollPageSlop) && Math.abs(deltaX) < Math.abs(mScrollPageSlop)) {
                     updateEventConsumer(PREVIEW_CLICK_TYPE);
                 } else {
@@ -355,10 +1077,12 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
                     //boolean isSignificantMove = Math.abs(deltaY) > pageHeight * significantMoveThreshold;
                     //LogUtils.d("Math.abs(deltaY)=" + Math.abs(deltaY));
                     if (Math.abs(deltaY) > validScrollYThreshold) {
-                        if (deltaY > 0) {
-                            updateEventConsumer(PREVIEW_SWITCH_LAST_TYPE);
+                        boolean previous = deltaY > 0;
+                        //设置了图片序列时直接切换到预解码好的图片，放大后的拖动是在移动图片，不切换
+                        if (mSources != null && !isScaled() && (previous ? showPrevious() : showNext())) {
+                            updateEventConsumer(previous ? PREVIEW_SWITCHED_LAST_TYPE : PREVIEW_SWITCHED_NEXT_TYPE);
                         } else {
-                            updateEventConsumer(PREVIEW_SWITCH_NEXT_TYPE);
+                            updateEventConsumer(previous ? PREVIEW_SWITCH_LAST_TYPE : PREVIEW_SWITCH_NEXT_TYPE);
                         }
                     }
                 }
@@ -366,6 +1090,16 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
                 deltaY = 0;
             case MotionEvent.ACTION_CANCEL:
                 mLastPointerCount = 0;
+                //松手后显示真实的位置
+                if (mPredictX != 0 || mPredictY != 0) {
+                    mPredictX = 0;
+                    mPredictY = 0;
+                    requestApplyViewport();
+                }
+                //惯性滑动时由FlingRunnable更新速度
+                if (mTiledImage != null && mScroller.isFinished()) {
+                    mTiledImage.setPanVelocity(0, 0);
+                }
                 break;
         }
         //-------------------------将放大的图片自由移动逻辑处理-------------------end----------
@@ -379,109 +1113,123 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
      * @return
      */
     public float getCurrentScale() {
-        float[] values = new float[9];
-        mMatrix.getValues(values);
-        return values[Matrix.MSCALE_X];
+        return mViewport.getScale();
     }
 
     /**
-     * 获得图片放大或缩小之后的宽和高 以及 left top right bottom的坐标点
+     * 按事件中的每个历史采样依次平移，与逐个处理高采样率的触摸事件时的边界检查一致
      *
-     * @return
+     * @param event
+     * @param pointerCount
      */
-    private RectF getMatrixRectF() {
-        Matrix matrix = mMatrix;
-        RectF rect = new RectF();
-        Drawable drawable = getDrawable();
-        if (null != drawable) {
-            rect.set(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
-            matrix.mapRect(rect);
+    private void panWithHistory(MotionEvent event, int pointerCount) {
+        float lastX = mLastPointerX;
+        float lastY = mLastPointerY;
+        for (int h = 0, n = event.getHistorySize(); h < n; h++) {
+            float x = 0;
+            float y = 0;
+            for (int i = 0; i < pointerCount; i++) {
+                x += event.getHistoricalX(i, h);
+                y += event.getHistoricalY(i, h);
+            }
+            x /= pointerCount;
+            y /= pointerCount;
+            mViewport.panBy(x - lastX, y - lastY);
+            lastX = x;
+            lastY = y;
         }
-        return rect;
+        float x = 0;
+        float y = 0;
+        for (int i = 0; i < pointerCount; i++) {
+            x += event.getX(i);
+            y += event.getY(i);
+        }
+        mViewport.panBy(x / pointerCount - lastX, y / pointerCount - lastY);
     }
 
     /**
-     * 在缩放的时候进行边界控制以及我们的中心位置控制
+     * 在下一帧同步视口，同一帧内的多个触摸事件只同步一次
      */
-    private void checkBorderAndCenterWhenScale() {
-        RectF rect = getMatrixRectF();
-        float deltaX = 0;
-        float deltaY = 0;
-        //控件的宽和高
-        int width = getWidth();
-        int height = getHeight();
-        Log.i("top", "top:" + rect.top);
-        Log.i("left", "left:" + rect.left);
-        Log.i("right", "right:" + rect.right);
-        Log.i("bottom", "bottom:" + rect.bottom);
-
-        //如果图片的宽和高大于控件的宽和高 在缩放过程中会产生border 进行偏移补偿
-        if (rect.width() >= width) {
-            if (rect.left > 0) {
-                deltaX = -rect.left;
-            }
-            if (rect.right < width) {
-                deltaX = width - rect.right;
-            }
+    private void requestApplyViewport() {
+        //没有添加到窗口时不会有下一帧
+        if (!isAttachedToWindow()) {
+            applyViewport();
+            return;
         }
-
-        if (rect.height() >= height) {
-            if (rect.top > 0) {
-                deltaY = -rect.top;
-            }
-            if (rect.bottom < height) {
-                deltaY = height - rect.bottom;
-            }
+        if (!isApplyPending) {
+            isApplyPending = true;
+            postOnAnimation(mApplyViewportRunnable);
         }
-
-        //如果图片的宽和高小于控件的宽和高，让其居中
-        if (rect.width() < width) {
-            deltaX = width / 2f - rect.right + rect.width() / 2f;
-        }
-        if (rect.height() < height) {
-            deltaY = height / 2f - rect.bottom + rect.height() / 2f;
-        }
-        mMatrix.postTranslate(deltaX, deltaY);
     }
 
     /**
-     * 当移动时 进行边界检查
+     * 把视口的变换同步到绘制用的矩阵上
      */
-    private void checkBorderWhenTranslate() {
-
-        RectF rect = getMatrixRectF();
-        float deltaX = 0;
-        float deltaY = 0;
-
-        int width = getWidth();
-        int height = getHeight();
-
-        if (rect.top > 0 && isBeyondTopAndBottom) {
-            deltaY = -rect.top;
+    private void applyViewport() {
+        if (isApplyPending) {
+            //已经同步，取消等待中的同步
+            isApplyPending = false;
+            removeCallbacks(mApplyViewportRunnable);
         }
-        if (rect.bottom < height && isBeyondTopAndBottom) {
-            deltaY = height - rect.bottom;
+        Viewport viewport = mViewport;
+        if (mPredictX != 0 || mPredictY != 0) {
+            mPredictViewport.set(mViewport);
+            mPredictViewport.panBy(mPredictX, mPredictY);
+            viewport = mPredictViewport;
         }
+        mMatrix.setScale(viewport.getScale(), viewport.getScale());
+        mMatrix.postTranslate(viewport.getTranslateX(), viewport.getTranslateY());
+        //先按EXIF方向摆正，再缩放平移
+        mMatrix.preConcat(mOrientationMatrix);
+        setImageMatrix(mMatrix);
+    }
 
-        if (rect.left > 0 && isBeyondLeftAndRight) {
-            deltaX = -rect.left;
-        }
-        if (rect.right < width && isBeyondLeftAndRight) {
-            deltaX = width - rect.right;
+    /**
+     * 设置是否根据手指的速度预测下一帧的位置，开启后拖动更跟手，但急停时会有轻微的回弹
+     *
+     * @param touchPrediction
+     */
+    public void setTouchPrediction(boolean touchPrediction) {
+        isTouchPrediction = touchPrediction;
+        if (!touchPrediction) {
+            mPredictX = 0;
+            mPredictY = 0;
         }
+    }
 
-        mMatrix.postTranslate(deltaX, deltaY);
+    public boolean isTouchPrediction() {
+        return isTouchPrediction;
     }
 
     /**
-     * 判断滑动的距离是否触发滑动的临界条件
+     * 获得图片放大或缩小之后的宽和高 以及 left top right bottom的坐标点
+     * 返回的RectF是复用的，下一次调用时会被覆盖
      *
-     * @param dx
-     * @param dy
      * @return
      */
-    private boolean isMoveAction(float dx, float dy) {
-        return Math.sqrt(dx * dx + dy * dy) > mTouchSlop;
+    private RectF getMatrixRectF() {
+        RectF rect = mMatrixRect;
+        if (getDrawable() != null) {
+            rect.set(mViewport.getContentLeft(), mViewport.getContentTop(),
+                    mViewport.getContentRight(), mViewport.getContentBottom());
+        } else {
+            rect.setEmpty();
+        }
+        return rect;
+    }
+
+    /**
+     * 以(x, y)为中心动画缩放到目标值，终点已经做过边界和居中修正
+     *
+     * @param targetScale
+     * @param x
+     * @param y
+     */
+    private void animateScaleTo(float targetScale, float x, float y) {
+        mAnimViewport.set(mViewport);
+        mAnimViewport.zoomTo(targetScale, x, y);
+        mZoomAnimator.start(mViewport.getScale(), mViewport.getTranslateX(), mViewport.getTranslateY(),
+                mAnimViewport.getScale(), mAnimViewport.getTranslateX(), mAnimViewport.getTranslateY());
     }
 
     /**
@@ -500,52 +1248,209 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
      * 获取bitmap
      *
      * @return
+     * @deprecated 在主线程创建屏幕大小的bitmap，清晰度受屏幕限制，使用 {@link #exportVisibleRegion}
      */
+    @Deprecated
     public Bitmap convertViewToBitmap() {
+        long start = System.nanoTime();
         Bitmap bitmap;
         int targetWidth = mScreenSize.x;
         int targetHeight = mScreenSize.y;
         try {
-            bitmap = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+            //先按预算判断，预算不足时直接使用每像素2字节的格式
+            Bitmap.Config config = mMemoryBudget.canAllocate((long) targetWidth * targetHeight * 4)
+                    ? Bitmap.Config.ARGB_8888 : Bitmap.Config.ARGB_4444;
+            bitmap = Bitmap.createBitmap(targetWidth, targetHeight, config);
         } catch (OutOfMemoryError e) {
             bitmap = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_4444);
         }
         Canvas canvas = new Canvas(bitmap);
         draw(canvas);
-        Log.d(TAG, "zoomedCropBitmap: " + bitmap.getWidth() + "-" + bitmap.getHeight());
+        if (sDebug) {
+            Log.d(TAG, "zoomedCropBitmap: " + bitmap.getWidth() + "-" + bitmap.getHeight());
+        }
+        if (mMetricsListener != null) {
+            mMetricsListener.onBitmapCapture(System.nanoTime() - start);
+        }
         return bitmap;
     }
 
+    /**
+     * 将当前可见的区域按原图分辨率导出到文件，在子线程解码原图区域，不占用屏幕大小的内存
+     *
+     * @param outputWidth 输出宽度，高度按可见区域比例计算，小于等于0时使用原图分辨率
+     * @param format
+     * @param quality
+     * @param file
+     * @param callback    在主线程回调，不能为null
+     * @return 可以用于取消导出
+     */
+    public RegionExporter.Task exportVisibleRegion(int outputWidth, Bitmap.CompressFormat format, int quality,
+                                                   File file, RegionExporter.Callback callback) {
+        Rect region = getVisibleSourceRegion();
+        ImageSource source = mTiledImage != null ? mTiledImage.getSource() : null;
+        return RegionExporter.export(getContext(), source, source == null ? getDrawableBitmap() : null,
+                region, mOrientation, outputWidth, format, quality, file, callback);
+    }
+
+    /**
+     * 将当前可见的区域按原图分辨率压缩写入输出流，输出流由调用方关闭
+     *
+     * @param outputWidth
+     * @param format
+     * @param quality
+     * @param out
+     * @param callback
+     * @return
+     */
+    public RegionExporter.Task exportVisibleRegion(int outputWidth, Bitmap.CompressFormat format, int quality,
+                                                   OutputStream out, RegionExporter.Callback callback) {
+        Rect region = getVisibleSourceRegion();
+        if (mTiledImage != null) {
+            return RegionExporter.export(getContext(), mTiledImage.getSource(), region, mOrientation, outputWidth,
+                    format, quality, out, callback);
+        }
+        return RegionExporter.export(getContext(), getDrawableBitmap(), region, outputWidth, format, quality, out, callback);
+    }
+
+    /**
+     * 控件内可见的图片区域，原图坐标系，有EXIF方向时是旋转之前的区域
+     *
+     * @return
+     */
+    public Rect getVisibleSourceRegion() {
+        Rect region = new Rect();
+        if (getDrawable() == null || !mViewport.isReady()) {
+            return region;
+        }
+        float[] rect = new float[4];
+        if (mViewport.getVisibleSourceRect(rect)) {
+            //Viewport工作在摆正后的坐标系上，转换回原图坐标系
+            RectF visible = new RectF(rect[0], rect[1], rect[2], rect[3]);
+            Matrix inverse = new Matrix();
+            if (mOrientationMatrix.invert(inverse)) {
+                inverse.mapRect(visible);
+            }
+            region.set((int) Math.floor(visible.left), (int) Math.floor(visible.top),
+                    (int) Math.ceil(visible.right), (int) Math.ceil(visible.bottom));
+        }
+        return region;
+    }
+
+    private Bitmap getDrawableBitmap() {
+        Drawable drawable = getDrawable();
+        if (drawable instanceof BitmapDrawable) {
+            return ((BitmapDrawable) drawable).getBitmap();
+        }
+        if (drawable instanceof SourceBitmapDrawable) {
+            return ((SourceBitmapDrawable) drawable).getBitmap();
+        }
+        throw new IllegalStateException("no exportable image: " + drawable);
+    }
+
     /**
      * 是否已缩放
      *
      * @return
      */
     public boolean isScaled() {
-        RectF rectF = getMatrixRectF();
         //如果图片的宽度大于控件的宽度，或者图片的高度大于控件的高度，则发生了缩放
-        return rectF.width() > getWidth() || rectF.height() > getHeight();
+        return getDrawable() != null && mViewport.isScaled();
     }
 
     /**
      * 重置状态
      */
     public void reset() {
-        mMatrix = new Matrix();
+        releaseTiledImage();
+        releaseAnimatedImage();
+        mZoomAnimator.cancel();
+        mFlingRunnable.cancel();
+        mMatrix.reset();
+        mViewport.setSourceSize(0, 0);
+        setOrientation(ExifInterface.ORIENTATION_NORMAL, 0, 0);
         mInit = false;
         setImageDrawable(null);
     }
 
+    /**
+     * 在列表或画廊中复用控件时绑定新的图片，只重置状态，矩阵、视口、手势识别器和速度追踪都继续复用
+     * 与reset不同，回调、缓存以及各项开关保持不变
+     *
+     * @param source 为null时只清空
+     */
+    public void rebind(ImageSource source) {
+        mZoomAnimator.cancel();
+        mFlingRunnable.cancel();
+        removeCallbacks(mApplyViewportRunnable);
+        isApplyPending = false;
+        mPendingState = null;
+        mSources = null;
+        mCurrentIndex = 0;
+        cancelTouch();
+        setImageSource(source);
+    }
+
+    /**
+     * 丢弃进行到一半的手势，避免上一张图片的触摸状态影响新的图片
+     */
+    private void cancelTouch() {
+        if (mScaleGestureDetector != null || mGestureDetector != null) {
+            long now = SystemClock.uptimeMillis();
+            MotionEvent cancel = MotionEvent.obtain(now, now, MotionEvent.ACTION_CANCEL, 0, 0, 0);
+            if (mScaleGestureDetector != null) {
+                mScaleGestureDetector.onTouchEvent(cancel);
+            }
+            if (mGestureDetector != null) {
+                mGestureDetector.onTouchEvent(cancel);
+            }
+            cancel.recycle();
+        }
+        if (mVelocityTracker != null) {
+            mVelocityTracker.clear();
+        }
+        mLastPointerCount = 0;
+        isCanDrag = false;
+        deltaX = 0;
+        deltaY = 0;
+        mPredictX = 0;
+        mPredictY = 0;
+        mInGesture = false;
+        mPendingInputTime = -1;
+    }
+
     public void setUpConsumer(IntConsumer eventConsumer) {
         this.mEventConsumer = eventConsumer;
     }
 
     private void updateEventConsumer(int eventType) {
+        if (mGestureRecorder != null) {
+            mGestureRecorder.recordResult(eventType);
+        }
         if (mEventConsumer != null) {
             mEventConsumer.accept(eventType);
         }
     }
 
+    /**
+     * 开始录制触摸事件，之前未结束的录制会被丢弃
+     */
+    public void startGestureRecording() {
+        mGestureRecorder = new GestureRecorder(getWidth(), getHeight(),
+                mViewport.getSourceWidth(), mViewport.getSourceHeight());
+    }
+
+    /**
+     * 结束录制，返回的GestureTrace可以通过writeTo保存为文件
+     *
+     * @return 没有开始录制时返回null
+     */
+    public GestureTrace stopGestureRecording() {
+        GestureRecorder recorder = mGestureRecorder;
+        mGestureRecorder = null;
+        return recorder != null ? recorder.finish() : null;
+    }
+
     public boolean isScaleEnable() {
         return isScaleEnable;
     }
@@ -554,6 +1459,33 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
         isScaleEnable = scaleEnable;
     }
 
+    /**
+     * 打开或关闭调试日志，关闭时手势处理过程中不会拼接任何日志字符串
+     *
+     * @param debug
+     */
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+
+    /**
+     * 设置双击缩放动画的时长
+     *
+     * @param durationMillis
+     */
+    public void setZoomAnimationDuration(long durationMillis) {
+        mZoomAnimator.setDuration(durationMillis);
+    }
+
+    /**
+     * 设置双击缩放动画的插值器
+     *
+     * @param interpolator
+     */
+    public void setZoomInterpolator(Interpolator interpolator) {
+        mZoomAnimator.setInterpolator(interpolator);
+    }
+
     public boolean isDoubleTapEnable() {
         return isDoubleTapEnable;
     }
@@ -563,51 +1495,133 @@ public class ScaleImageView extends AppCompatImageView implements OnGlobalLayout
     }
 
     /**
-     * 自动放大与缩小
+     * 保存的视口状态，只记录图片标识、相对缩放倍数和归一化的中心点，与控件尺寸无关
      */
-    private class SlowlyScaleRunnable implements Runnable {
-        //缩放的中心点
-        private float x;
-        private float y;
-        //缩放的目标值
-        private float mTargetScale;
+    static class SavedState extends BaseSavedState {
+        String sourceKey;
+        int index;
+        float relativeScale;
+        float centerX;
+        float centerY;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
 
-        //放大与缩小的梯度
-        private final float BIGGER = 1.07F;
-        private final float SMALL = 0.97F;
+        private SavedState(Parcel in) {
+            super(in);
+            sourceKey = in.readString();
+            index = in.readInt();
+            relativeScale = in.readFloat();
+            centerX = in.readFloat();
+            centerY = in.readFloat();
+        }
 
-        private float tmpScale;
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeString(sourceKey);
+            out.writeInt(index);
+            out.writeFloat(relativeScale);
+            out.writeFloat(centerX);
+            out.writeFloat(centerY);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
 
-        public SlowlyScaleRunnable(float mTargetScale, float x, float y) {
-            this.mTargetScale = mTargetScale;
-            this.x = x;
-            this.y = y;
-            if (getCurrentScale() < mTargetScale) {
-                tmpScale = BIGGER;
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    /**
+     * 松手后的惯性滑动，每一帧执行一次
+     * 滑动范围与checkBorderWhenTranslate的边界一致
+     */
+    private class FlingRunnable implements Runnable {
+        private int mLastX;
+        private int mLastY;
+        //上一帧的时间，用于统计丢帧
+        private long mLastFrameNanos;
+        //惯性滑动的方向，OverScroller只提供速度的大小
+        private float mDirectionX;
+        private float mDirectionY;
+
+        void fling(int velocityX, int velocityY) {
+            RectF rect = getMatrixRectF();
+            int width = getWidth();
+            int height = getHeight();
+            int startX = Math.round(rect.left);
+            int startY = Math.round(rect.top);
+            //图片宽度小于控件宽度时不允许横向滑动，高度同理
+            int minX = startX;
+            int maxX = startX;
+            int minY = startY;
+            int maxY = startY;
+            if (rect.width() > width) {
+                minX = Math.round(width - rect.width());
+                maxX = 0;
             }
-            if (getCurrentScale() > mTargetScale) {
-                tmpScale = SMALL;
+            if (rect.height() > height) {
+                minY = Math.round(height - rect.height());
+                maxY = 0;
+            }
+            if (minX == maxX && minY == maxY) {
+                return;
+            }
+            mLastX = startX;
+            mLastY = startY;
+            mScroller.fling(startX, startY, velocityX, velocityY, minX, maxX, minY, maxY);
+            float velocity = (float) Math.hypot(velocityX, velocityY);
+            mDirectionX = velocityX / velocity;
+            mDirectionY = velocityY / velocity;
+            mLastFrameNanos = 0;
+            postOnAnimation(this);
+        }
+
+        void cancel() {
+            mScroller.forceFinished(true);
+            removeCallbacks(this);
+            if (mTiledImage != null) {
+                mTiledImage.setPanVelocity(0, 0);
             }
         }
 
         @Override
         public void run() {
-            //进行缩放
-            mMatrix.postScale(tmpScale, tmpScale, x, y);
-            checkBorderAndCenterWhenScale();
-            setImageMatrix(mMatrix);
-            float currentScale = getCurrentScale();
-            if ((tmpScale > 1.0f && currentScale < mTargetScale) || (tmpScale < 1.0f && currentScale > mTargetScale)) {
-                postDelayed(this, 16);
-            } else {
-                isScaling = false;
-                //到达了目标值
-                float scale = mTargetScale / currentScale;
-                mMatrix.postScale(scale, scale, x, y);
-                checkBorderAndCenterWhenScale();
-                setImageMatrix(mMatrix);
+            if (!mScroller.computeScrollOffset()) {
+                return;
+            }
+            if (mMetricsListener != null) {
+                long now = System.nanoTime();
+                int dropped = 0;
+                if (mLastFrameNanos > 0) {
+                    dropped = Math.max(0, Math.round((now - mLastFrameNanos) * 1.0f / mFrameIntervalNanos) - 1);
+                }
+                mLastFrameNanos = now;
+                mMetricsListener.onAnimationFrame(dropped);
+            }
+            int currX = mScroller.getCurrX();
+            int currY = mScroller.getCurrY();
+            mViewport.translate(currX - mLastX, currY - mLastY);
+            mLastX = currX;
+            mLastY = currY;
+            mViewport.checkBorderWhenTranslate();
+            if (mTiledImage != null) {
+                //滑动结束后不再预加载
+                float velocity = mScroller.isFinished() ? 0 : mScroller.getCurrVelocity();
+                mTiledImage.setPanVelocity(velocity * mDirectionX, velocity * mDirectionY);
+            }
+            applyViewport();
+            if (!mScroller.isFinished()) {
+                postOnAnimation(this);
             }
         }
     }
-
 }
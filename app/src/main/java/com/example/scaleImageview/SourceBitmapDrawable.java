@@ -0,0 +1,76 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+
+/**
+ * 以原图尺寸作为固有宽高的Drawable
+ * 采样解码后的bitmap会被拉伸到原图尺寸绘制，这样mMatrix始终工作在原图坐标系上，
+ * 替换不同精度的bitmap时不需要修改矩阵
+ */
+class SourceBitmapDrawable extends Drawable {
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Bitmap mBitmap;
+    private final int mSourceWidth;
+    private final int mSourceHeight;
+
+    SourceBitmapDrawable(Bitmap bitmap, int sourceWidth, int sourceHeight) {
+        mBitmap = bitmap;
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+    }
+
+    Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mBitmap == null || mBitmap.isRecycled()) {
+            return;
+        }
+        if (!canvas.isHardwareAccelerated() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                && mBitmap.getConfig() == Bitmap.Config.HARDWARE) {
+            //软件绘制（例如截图）不支持HARDWARE，临时复制一份
+            Bitmap copy = mBitmap.copy(Bitmap.Config.ARGB_8888, false);
+            if (copy != null) {
+                canvas.drawBitmap(copy, null, getBounds(), mPaint);
+                copy.recycle();
+            }
+            return;
+        }
+        canvas.drawBitmap(mBitmap, null, getBounds(), mPaint);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return mBitmap == null || mBitmap.hasAlpha() || mPaint.getAlpha() < 255 ? PixelFormat.TRANSLUCENT : PixelFormat.OPAQUE;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mSourceWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mSourceHeight;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * 分块解码中的一个图块
+ */
+class Tile {
+    //图块在原图中的区域
+    final Rect sRect;
+    //解码时使用的采样率
+    final int sampleSize;
+    //图块缓存的键
+    final TileKey key;
+    Bitmap bitmap;
+    boolean loading;
+    //不可见时预加载的bitmap已经放入缓存
+    boolean prefetched;
+    //解码线程会读取该值，用于丢弃已经移出屏幕的图块
+    volatile boolean visible;
+    //最近一次被可见区域或预加载区域查询到时的轮次，用于找出离开这些区域的图块
+    int generation;
+    //解码的优先级，由主线程随视口更新，越小越先解码，小于0表示已经不再需要
+    volatile float priority;
+
+    Tile(String sourceKey, Rect sRect, int sampleSize) {
+        this.sRect = sRect;
+        this.sampleSize = sampleSize;
+        this.key = new TileKey(sourceKey, sampleSize, sRect);
+    }
+
+    /**
+     * 释放图块，bitmap放入缓存以便再次可见时直接使用
+     *
+     * @param cache
+     */
+    void free(TileCache cache) {
+        if (bitmap != null) {
+            cache.put(key, bitmap);
+            bitmap = null;
+        }
+    }
+}
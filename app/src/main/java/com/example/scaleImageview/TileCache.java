@@ -0,0 +1,126 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * 已解码图块的内存缓存，按字节数做LRU淘汰
+ * 缓存中只保存当前不在屏幕内的图块，图块重新可见时从缓存中取出，
+ * 被淘汰的bitmap交给BitmapPool，供后续解码复用
+ * 同一个TileCache可以在多个ScaleImageView之间共享，例如ViewPager中的多个页面
+ */
+public class TileCache {
+    private static TileCache sDefault;
+
+    private final BitmapPool mBitmapPool;
+    private final LruCache<TileKey, Bitmap> mCache;
+
+    /**
+     * @param maxBytes 缓存的最大字节数，复用池的大小为其1/4
+     */
+    public TileCache(int maxBytes) {
+        mBitmapPool = new BitmapPool(maxBytes / 4);
+        mCache = new LruCache<TileKey, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(TileKey key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, TileKey key, Bitmap oldValue, Bitmap newValue) {
+                //只有被淘汰的bitmap才放入复用池，被取出的bitmap仍在使用中
+                if (evicted) {
+                    mBitmapPool.put(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * 进程内默认共享的缓存，大小为最大堆内存的1/8
+     *
+     * @return
+     */
+    public static synchronized TileCache getDefault() {
+        if (sDefault == null) {
+            sDefault = new TileCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8));
+        }
+        return sDefault;
+    }
+
+    /**
+     * 取出图块，取出后缓存不再持有该bitmap
+     *
+     * @param key
+     * @return
+     */
+    synchronized Bitmap take(TileKey key) {
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap != null) {
+            mCache.remove(key);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 放入一个不再显示的图块
+     *
+     * @param key
+     * @param bitmap
+     */
+    synchronized void put(TileKey key, Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        mCache.put(key, bitmap);
+    }
+
+    BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * 清空缓存以及复用池，与take/put互斥，避免取出正在被回收的bitmap
+     */
+    public synchronized void clear() {
+        mCache.evictAll();
+        mBitmapPool.clear();
+    }
+
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    public int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    public int reuseCount() {
+        return mBitmapPool.getReuseCount();
+    }
+
+    /**
+     * 当前缓存的字节数，不包括复用池
+     *
+     * @return
+     */
+    public int sizeBytes() {
+        return mCache.size();
+    }
+
+    public int maxSizeBytes() {
+        return mCache.maxSize();
+    }
+
+    @Override
+    public String toString() {
+        return "TileCache[size=" + sizeBytes() + "/" + maxSizeBytes()
+                + ",hits=" + hitCount() + ",misses=" + missCount()
+                + ",evictions=" + evictionCount() + ",reuses=" + reuseCount()
+                + ",pool=" + mBitmapPool.getSizeBytes() + "]";
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.scaleImageview;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.List;
+
+/**
+ * 一个采样率下的图块网格，图块按行优先存放在数组中
+ * 网格是规则的，与区域相交的图块可以直接由坐标算出行列范围，查询的耗时只和结果的数量有关
+ */
+final class TileGrid {
+    final int sampleSize;
+    //图块在原图中的边长
+    private final int mTileSize;
+    private final int mCols;
+    private final int mRows;
+    private final int mSourceWidth;
+    private final int mSourceHeight;
+    private final Tile[] mTiles;
+
+    TileGrid(String sourceKey, int sourceWidth, int sourceHeight, int sampleSize, int tileSize) {
+        this.sampleSize = sampleSize;
+        mTileSize = tileSize * sampleSize;
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mCols = (sourceWidth + mTileSize - 1) / mTileSize;
+        mRows = (sourceHeight + mTileSize - 1) / mTileSize;
+        mTiles = new Tile[mCols * mRows];
+        for (int row = 0; row < mRows; row++) {
+            for (int col = 0; col < mCols; col++) {
+                Rect rect = new Rect(col * mTileSize, row * mTileSize,
+                        Math.min((col + 1) * mTileSize, sourceWidth), Math.min((row + 1) * mTileSize, sourceHeight));
+                mTiles[row * mCols + col] = new Tile(sourceKey, rect, sampleSize);
+            }
+        }
+    }
+
+    int size() {
+        return mTiles.length;
+    }
+
+    Tile get(int index) {
+        return mTiles[index];
+    }
+
+    /**
+     * 把与区域相交的图块按行优先的顺序追加到out中，只接触边界的图块不算相交
+     *
+     * @param region 原图坐标系中的区域
+     * @param out
+     */
+    void query(RectF region, List<Tile> out) {
+        //最后一行和最后一列的图块不满一格，先裁剪到原图范围内
+        float left = Math.max(0, region.left);
+        float top = Math.max(0, region.top);
+        float right = Math.min(mSourceWidth, region.right);
+        float bottom = Math.min(mSourceHeight, region.bottom);
+        if (!(left < right && top < bottom)) {
+            return;
+        }
+        int colStart = (int) (left / mTileSize);
+        int colEnd = Math.min(mCols - 1, (int) Math.ceil(right / mTileSize) - 1);
+        int rowStart = (int) (top / mTileSize);
+        int rowEnd = Math.min(mRows - 1, (int) Math.ceil(bottom / mTileSize) - 1);
+        for (int row = rowStart; row <= rowEnd; row++) {
+            int offset = row * mCols;
+            for (int col = colStart; col <= colEnd; col++) {
+                out.add(mTiles[offset + col]);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.scaleImageview;
+
+import android.graphics.Rect;
+
+/**
+ * 图块缓存的键：图片来源 + 采样率 + 图块在原图中的区域
+ */
+final class TileKey {
+    final String sourceKey;
+    final int sampleSize;
+    final int left;
+    final int top;
+    final int right;
+    final int bottom;
+    private final int mHashCode;
+
+    TileKey(String sourceKey, int sampleSize, Rect rect) {
+        this.sourceKey = sourceKey;
+        this.sampleSize = sampleSize;
+        this.left = rect.left;
+        this.top = rect.top;
+        this.right = rect.right;
+        this.bottom = rect.bottom;
+        int result = sourceKey.hashCode();
+        result = 31 * result + sampleSize;
+        result = 31 * result + left;
+        result = 31 * result + top;
+        result = 31 * result + right;
+        result = 31 * result + bottom;
+        mHashCode = result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TileKey)) {
+            return false;
+        }
+        TileKey other = (TileKey) o;
+        return sampleSize == other.sampleSize
+                && left == other.left && top == other.top
+                && right == other.right && bottom == other.bottom
+                && sourceKey.equals(other.sourceKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHashCode;
+    }
+
+    @Override
+    public String toString() {
+        return sourceKey + "@" + sampleSize + "[" + left + "," + top + "," + right + "," + bottom + "]";
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.scaleImageview;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 图块解码的调度器，所有控件共用一组固定数量的工作线程
+ * 任务的优先级由提交方随视口变化随时更新，工作线程每次取出当前优先级最高的任务，
+ * 已经过期的任务不再解码，直接丢弃
+ */
+final class TileScheduler {
+    private static final String TAG = "TileScheduler";
+    //留一个核心给主线程和渲染线程
+    static final int WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static TileScheduler sDefault;
+
+    interface Task extends Runnable {
+        /**
+         * 在工作线程调用，需要是线程安全的
+         *
+         * @return 越小越先执行，小于0表示任务已经过期
+         */
+        float getPriority();
+
+        /**
+         * 任务过期时代替run调用
+         */
+        void drop();
+    }
+
+    private final List<Task> mPending = new ArrayList<>();
+
+    TileScheduler(int workerCount) {
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::work, "TileDecoder-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    static synchronized TileScheduler getDefault() {
+        if (sDefault == null) {
+            sDefault = new TileScheduler(WORKER_COUNT);
+        }
+        return sDefault;
+    }
+
+    void submit(Task task) {
+        synchronized (mPending) {
+            mPending.add(task);
+            mPending.notify();
+        }
+    }
+
+    /**
+     * 取出优先级最高的任务，过期的任务优先取出以便尽快丢弃
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    private Task take() throws InterruptedException {
+        synchronized (mPending) {
+            while (mPending.isEmpty()) {
+                mPending.wait();
+            }
+            //等待中的任务只有屏幕附近的几十个，线性查找即可
+            int best = 0;
+            float bestPriority = Float.MAX_VALUE;
+            for (int i = 0, n = mPending.size(); i < n; i++) {
+                float priority = mPending.get(i).getPriority();
+                if (priority < 0) {
+                    best = i;
+                    break;
+                }
+                if (priority < bestPriority) {
+                    bestPriority = priority;
+                    best = i;
+                }
+            }
+            //与末尾交换后删除，避免移动数组
+            int last = mPending.size() - 1;
+            Task task = mPending.get(best);
+            mPending.set(best, mPending.get(last));
+            mPending.remove(last);
+            return task;
+        }
+    }
+
+    private void work() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        while (true) {
+            Task task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (task.getPriority() < 0) {
+                    task.drop();
+                } else {
+                    task.run();
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "tile task failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,1110 @@
+package com.example.scaleImageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.viewport.Viewport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * 基于BitmapRegionDecoder的分块加载
+ * 先以初始缩放比例解码一张采样后的底图，放大后只解码屏幕内可见的图块，
+ * 内存占用只和屏幕尺寸相关，和原图尺寸无关
+ */
+class TiledImage {
+    private static final String TAG = "TiledImage";
+    //图块解码后的边长
+    private static final int TILE_SIZE = 512;
+    //写入磁盘缓存时的压缩质量
+    private static final int DISK_QUALITY = 90;
+    //预览图在底图的基础上再缩小的倍数
+    private static final int PREVIEW_SAMPLE_FACTOR = 8;
+    //沿滑动方向预加载的时间，预测区域最多偏移一屏
+    private static final float PREFETCH_SECONDS = 0.3f;
+    //预加载的图块排在所有可见图块之后
+    private static final float PREFETCH_PRIORITY = 1;
+    //打开解码器以及解码底图，图块由TileScheduler并行解码
+    private static final Executor DECODE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    interface Callback {
+        /**
+         * 低清晰度的预览图解码完成，底图解码完成后会被替换，可能回调多次
+         *
+         * @param orientation EXIF方向，bitmap本身没有旋转
+         */
+        void onPreviewReady(Bitmap preview, int sourceWidth, int sourceHeight, int orientation);
+
+        /**
+         * 底图解码完成
+         */
+        void onBaseLayerReady(Bitmap base, int sourceWidth, int sourceHeight, int orientation);
+
+        /**
+         * 有新的图块解码完成，需要重绘
+         */
+        void onTileLoaded();
+
+        void onLoadFailed(Exception e);
+    }
+
+    /**
+     * 按适应控件的采样率解码出的底图
+     */
+    static final class BaseLayer {
+        final Bitmap bitmap;
+        final int sourceWidth;
+        final int sourceHeight;
+        final int sampleSize;
+        //EXIF方向，显示时通过矩阵旋转
+        final int orientation;
+
+        BaseLayer(Bitmap bitmap, int sourceWidth, int sourceHeight, int sampleSize, int orientation) {
+            this.bitmap = bitmap;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.sampleSize = sampleSize;
+            this.orientation = orientation;
+        }
+
+        /**
+         * 采样率为1时底图已经足够清晰，不需要图块
+         *
+         * @return
+         */
+        boolean hasTiles() {
+            return sampleSize > 1;
+        }
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Context mContext;
+    private final ImageSource mSource;
+    private final Callback mCallback;
+    private final TileCache mTileCache;
+    private final TileScheduler mScheduler = TileScheduler.getDefault();
+
+    //空闲的解码器，BitmapRegionDecoder内部加锁串行解码，并行解码需要各自独立的实例
+    private final ArrayDeque<BitmapRegionDecoder> mIdleDecoders = new ArrayDeque<>();
+    //已经创建的解码器数量，由mIdleDecoders保护
+    private int mDecoderCount;
+    private final int mMaxDecoders;
+    private volatile boolean mReleased;
+    //控件离开窗口期间不保留解码器和磁盘缓存的文件
+    private volatile boolean mSuspended;
+    //是否使用磁盘缓存，重新添加到窗口时据此重新打开
+    private volatile boolean mTiling;
+    //解码线程会读取该值
+    private volatile MetricsListener mMetricsListener;
+    //磁盘缓存，为null时不使用
+    private volatile DiskTileCache mDiskTileCache;
+    //内存预算，为null时不检查
+    private volatile MemoryBudget mMemoryBudget;
+    //当前图片在磁盘缓存中的数据，读写都是同步的
+    private volatile DiskTileCache.Pack mPack;
+    //像素格式的质量策略
+    private volatile int mQuality = DecodeConfig.QUALITY_BALANCED;
+    //图块的像素格式，底图确定是否透明之后更新，解码线程读取
+    private volatile Bitmap.Config mTileConfig = Bitmap.Config.ARGB_8888;
+    //EXIF方向，在解码线程读取后随预览图交给主线程
+    private volatile int mOrientation = ExifInterface.ORIENTATION_NORMAL;
+
+    private int mSourceWidth;
+    private int mSourceHeight;
+    //正在显示的底图，控件释放后可以保留给重新创建的控件
+    private BaseLayer mBaseLayer;
+    //底图的采样率，小于该采样率时才需要加载图块
+    private int mBaseSampleSize;
+    //每个采样率对应的图块网格
+    private final SparseArray<TileGrid> mTileGrids = new SparseArray<>();
+    //当前可见的图块，绘制时只遍历这些图块
+    private final List<Tile> mVisibleTiles = new ArrayList<>();
+    private final List<Tile> mPrefetchTiles = new ArrayList<>();
+    //上一次更新时可见或者预加载的图块，只需要在其中找出离开的图块
+    private List<Tile> mActiveTiles = new ArrayList<>();
+    private List<Tile> mNextActiveTiles = new ArrayList<>();
+    private int mGeneration;
+
+    private final Matrix mInverse = new Matrix();
+    //预加载的偏移量，控件坐标系映射到原图坐标系
+    private final float[] mPrefetchOffset = new float[2];
+    private final RectF mVisibleRect = new RectF();
+    //按滑动速度预测的即将可见的区域
+    private final RectF mPrefetchRect = new RectF();
+    //控件坐标系中内容移动的速度，像素/秒
+    private float mVelocityX;
+    private float mVelocityY;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    TiledImage(Context context, ImageSource source, TileCache tileCache, Callback callback) {
+        mContext = context.getApplicationContext();
+        mSource = source;
+        mTileCache = tileCache;
+        mCallback = callback;
+        //内存中的图片每个解码器都要复制一份数据，只使用一个
+        mMaxDecoders = source.isFileBacked() ? TileScheduler.WORKER_COUNT : 1;
+    }
+
+    ImageSource getSource() {
+        return mSource;
+    }
+
+    /**
+     * 已经显示的底图，只显示了预览图时返回null，需要在主线程调用
+     *
+     * @return
+     */
+    BaseLayer getBaseLayer() {
+        return mBaseLayer;
+    }
+
+    /**
+     * 上一次updateVisibleTiles计算出的可见图块，需要在主线程调用
+     *
+     * @return
+     */
+    List<Tile> getVisibleTiles() {
+        return mVisibleTiles;
+    }
+
+    void setMetricsListener(MetricsListener metricsListener) {
+        mMetricsListener = metricsListener;
+    }
+
+    /**
+     * 设置磁盘缓存，需要在load之前调用
+     *
+     * @param diskTileCache
+     */
+    void setDiskTileCache(DiskTileCache diskTileCache) {
+        mDiskTileCache = diskTileCache;
+    }
+
+    /**
+     * 设置内存预算，超出预算时底图降低分辨率，图块不再解码
+     *
+     * @param memoryBudget
+     */
+    void setMemoryBudget(MemoryBudget memoryBudget) {
+        mMemoryBudget = memoryBudget;
+    }
+
+    /**
+     * 设置像素格式的质量策略，需要在load之前调用
+     *
+     * @param quality DecodeConfig.QUALITY_*
+     */
+    void setDecodeQuality(int quality) {
+        mQuality = quality;
+    }
+
+    /**
+     * 当前显示的图块持有的bitmap字节数，不包括底图
+     *
+     * @return
+     */
+    long getTileBytes() {
+        long bytes = 0;
+        for (int i = 0, n = mVisibleTiles.size(); i < n; i++) {
+            Bitmap bitmap = mVisibleTiles.get(i).bitmap;
+            if (bitmap != null) {
+                bytes += bitmap.getAllocationByteCount();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 打开解码器并解码底图，大图会先显示预览图
+     * 输入流会在数据到达的过程中解码已有的部分作为预览，EXIF中有缩略图时直接使用缩略图，
+     * 否则以更大的采样率快速解码一张预览图
+     *
+     * @param targetWidth  底图的目标宽度，一般为控件宽度
+     * @param targetHeight 底图的目标高度
+     * @param tiling       是否分块加载，不分块或者格式不支持区域解码时按最大放大倍数采样解码整张图片
+     */
+    void load(final int targetWidth, final int targetHeight, final boolean tiling) {
+        mTiling = tiling;
+        DECODE_EXECUTOR.execute(() -> {
+            if (mReleased) {
+                return;
+            }
+            try {
+                //输入流在读取过程中从已到达的数据中解析方向
+                if (!mSource.isStream()) {
+                    mOrientation = mSource.decodeExifOrientation(mContext);
+                }
+                //磁盘缓存中有合适的底图时直接显示，不再解码原图
+                String diskKey = null;
+                if (tiling && mDiskTileCache != null) {
+                    diskKey = mSource.getDiskCacheKey(mContext);
+                    if (diskKey != null) {
+                        mPack = mDiskTileCache.open(diskKey, mSource.getKey());
+                    }
+                    if (mPack != null && loadBaseLayerFromDisk(targetWidth, targetHeight)) {
+                        return;
+                    }
+                }
+                boolean previewShown = false;
+                if (mSource.isStream()) {
+                    previewShown = readStreamWithPreview(targetWidth, targetHeight);
+                    mOrientation = mSource.decodeExifOrientation(mContext);
+                }
+                BitmapRegionDecoder decoder = null;
+                if (tiling) {
+                    try {
+                        decoder = mSource.newRegionDecoder(mContext);
+                    } catch (IOException e) {
+                        Log.w(TAG, mSource + " does not support region decoding, decode sampled instead", e);
+                    }
+                }
+                if (!previewShown && !mReleased) {
+                    decodePreview(decoder, targetWidth, targetHeight);
+                }
+                long start = System.nanoTime();
+                final BaseLayer baseLayer = decoder != null
+                        ? decodeBaseLayer(mContext, mSource, decoder, mOrientation, targetWidth, targetHeight, mMemoryBudget, mQuality)
+                        : decodeSampledLayer(mContext, mSource, mOrientation, targetWidth, targetHeight, mMemoryBudget, mQuality);
+                MetricsListener metricsListener = mMetricsListener;
+                if (metricsListener != null) {
+                    metricsListener.onDecode(MetricsListener.DECODE_BASE, System.nanoTime() - start);
+                }
+                if (decoder != null) {
+                    addDecoder(decoder);
+                }
+                mMainHandler.post(() -> {
+                    if (!mReleased) {
+                        applyBaseLayer(baseLayer);
+                    }
+                });
+                //底图显示后再写入磁盘缓存
+                if (diskKey != null && decoder != null && baseLayer.hasTiles()) {
+                    if (mPack == null) {
+                        mPack = mDiskTileCache.create(diskKey, mSource.getKey(), baseLayer.sourceWidth, baseLayer.sourceHeight);
+                    }
+                    writeToDisk(baseLayer.sampleSize, new Rect(0, 0, baseLayer.sourceWidth, baseLayer.sourceHeight), compress(baseLayer.bitmap));
+                }
+            } catch (Exception e) {
+                postLoadFailed(e);
+            }
+        });
+    }
+
+    /**
+     * 从磁盘缓存读取与当前目标尺寸对应的底图，并打开解码器供缓存中没有的图块使用
+     *
+     * @param targetWidth
+     * @param targetHeight
+     * @return 缓存中是否有底图
+     * @throws IOException
+     */
+    private boolean loadBaseLayerFromDisk(int targetWidth, int targetHeight) throws IOException {
+        int width = mPack.sourceWidth;
+        int height = mPack.sourceHeight;
+        int baseSampleSize = calculateSampleSize(fitScale(targetWidth, targetHeight, width, height, mOrientation));
+        if (baseSampleSize < 2) {
+            return false;
+        }
+        long start = System.nanoTime();
+        byte[] data = mPack.read(new TileKey(mSource.getKey(), baseSampleSize, new Rect(0, 0, width, height)));
+        Bitmap base = null;
+        if (data != null) {
+            //不透明的底图压缩为JPEG
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = DecodeConfig.baseConfig(mQuality, DecodeConfig.isJpeg(data));
+            base = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if (base == null) {
+            return false;
+        }
+        MetricsListener metricsListener = mMetricsListener;
+        if (metricsListener != null) {
+            metricsListener.onDecode(MetricsListener.DECODE_BASE, System.nanoTime() - start);
+        }
+        final BaseLayer baseLayer = new BaseLayer(base, width, height, baseSampleSize, mOrientation);
+        mMainHandler.post(() -> {
+            if (!mReleased) {
+                applyBaseLayer(baseLayer);
+            }
+        });
+        try {
+            addDecoder(mSource.newRegionDecoder(mContext));
+        } catch (IOException e) {
+            //缓存中已有的图块仍然可以显示
+            Log.w(TAG, "open decoder of " + mSource + " failed", e);
+        }
+        return true;
+    }
+
+    /**
+     * 压缩后写入磁盘缓存，没有磁盘缓存时返回null，在子线程调用
+     *
+     * @param bitmap
+     * @return
+     */
+    private byte[] compress(Bitmap bitmap) {
+        if (mPack == null || bitmap == null || mReleased) {
+            return null;
+        }
+        return compressForDisk(bitmap);
+    }
+
+    /**
+     * 按磁盘缓存的格式压缩，预览图批量生成时也使用同样的格式
+     *
+     * @param bitmap
+     * @return 压缩失败时返回null
+     */
+    static byte[] compressForDisk(Bitmap bitmap) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        //带透明度的图片使用无损压缩
+        Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+        return bitmap.compress(format, DISK_QUALITY, out) ? out.toByteArray() : null;
+    }
+
+    /**
+     * 追加到磁盘缓存，在子线程调用
+     *
+     * @param sampleSize
+     * @param rect
+     * @param data       compress的结果
+     */
+    private void writeToDisk(int sampleSize, Rect rect, byte[] data) {
+        DiskTileCache.Pack pack = mPack;
+        if (pack == null || data == null) {
+            return;
+        }
+        try {
+            pack.write(sampleSize, rect, data);
+        } catch (IOException e) {
+            Log.w(TAG, "write tile of " + mSource + " to disk failed", e);
+        }
+    }
+
+    /**
+     * 读取输入流，已读取的数据每增加一倍就解码一次作为预览
+     *
+     * @param targetWidth
+     * @param targetHeight
+     * @return 是否显示过预览
+     * @throws IOException
+     */
+    private boolean readStreamWithPreview(final int targetWidth, final int targetHeight) throws IOException {
+        final boolean[] previewShown = new boolean[1];
+        mSource.readStreamBytes((data, length) -> {
+            if (mReleased) {
+                return;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, length, options);
+            //文件头还没有完整到达
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return;
+            }
+            int width = options.outWidth;
+            int height = options.outHeight;
+            //EXIF在文件头中，文件头到达后就可以读取方向
+            mOrientation = ImageSource.decodeExifOrientation(data, length);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = calculateSampleSize(fitScale(targetWidth, targetHeight, width, height, mOrientation));
+            //不完整的数据只能解码出上面的部分或者低质量的扫描，其余部分为空白
+            Bitmap partial = BitmapFactory.decodeByteArray(data, 0, length, options);
+            if (partial != null) {
+                postPreview(partial, width, height);
+                previewShown[0] = true;
+            }
+        });
+        return previewShown[0];
+    }
+
+    /**
+     * 解码预览图，优先使用EXIF缩略图，采样率很小的图片不需要预览
+     *
+     * @param decoder 为null时使用采样解码
+     * @param targetWidth
+     * @param targetHeight
+     */
+    private void decodePreview(BitmapRegionDecoder decoder, int targetWidth, int targetHeight) {
+        try {
+            int width;
+            int height;
+            if (decoder != null) {
+                width = decoder.getWidth();
+                height = decoder.getHeight();
+            } else {
+                Point bounds = mSource.decodeBounds(mContext);
+                width = bounds.x;
+                height = bounds.y;
+            }
+            int baseSampleSize = calculateSampleSize(fitScale(targetWidth, targetHeight, width, height, mOrientation));
+            if (baseSampleSize < 2) {
+                return;
+            }
+            Bitmap preview = mSource.decodeExifThumbnail(mContext);
+            //比例不一致的缩略图（例如带黑边）会被拉伸，不使用
+            if (preview != null && Math.abs(preview.getWidth() * 1.0f / preview.getHeight() - width * 1.0f / height) > 0.01f) {
+                preview = null;
+            }
+            if (preview == null) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = baseSampleSize * PREVIEW_SAMPLE_FACTOR;
+                //预览图很快会被替换，不透明时总是使用RGB_565
+                options.inPreferredConfig = DecodeConfig.softwareConfig(DecodeConfig.QUALITY_BALANCED,
+                        DecodeConfig.isOpaqueFormat(mSource.decodeMimeType(mContext)));
+                preview = decoder != null
+                        ? decoder.decodeRegion(new Rect(0, 0, width, height), options)
+                        : mSource.decodeSampled(mContext, options.inSampleSize, options.inPreferredConfig);
+            }
+            if (preview != null) {
+                postPreview(preview, width, height);
+            }
+        } catch (Exception e) {
+            //预览失败不影响底图的加载
+            Log.w(TAG, "decode preview of " + mSource + " failed", e);
+        }
+    }
+
+    private void postPreview(final Bitmap preview, final int width, final int height) {
+        final int orientation = mOrientation;
+        mMainHandler.post(() -> {
+            if (!mReleased) {
+                mCallback.onPreviewReady(preview, width, height, orientation);
+            }
+        });
+    }
+
+    /**
+     * 使用已经预先解码好的底图，底图立即显示，只在子线程打开解码器供图块使用
+     * 需要在主线程调用
+     *
+     * @param baseLayer
+     */
+    void load(BaseLayer baseLayer) {
+        applyBaseLayer(baseLayer);
+        if (!baseLayer.hasTiles()) {
+            return;
+        }
+        mTiling = true;
+        //提前打开一个解码器，图块解码时解码器还没有就绪会另外创建
+        DECODE_EXECUTOR.execute(() -> {
+            if (mReleased) {
+                return;
+            }
+            try {
+                if (mDiskTileCache != null) {
+                    String diskKey = mSource.getDiskCacheKey(mContext);
+                    if (diskKey != null) {
+                        mPack = mDiskTileCache.open(diskKey, mSource.getKey());
+                    }
+                }
+                addDecoder(mSource.newRegionDecoder(mContext));
+            } catch (Exception e) {
+                postLoadFailed(e);
+            }
+        });
+    }
+
+    private void applyBaseLayer(BaseLayer baseLayer) {
+        mBaseLayer = baseLayer;
+        mSourceWidth = baseLayer.sourceWidth;
+        mSourceHeight = baseLayer.sourceHeight;
+        mBaseSampleSize = baseLayer.sampleSize;
+        mOrientation = baseLayer.orientation;
+        //PNG等格式只有解码后才知道是否透明，图块与底图保持一致
+        mTileConfig = DecodeConfig.softwareConfig(mQuality, !baseLayer.bitmap.hasAlpha());
+        initTileGrid();
+        mCallback.onBaseLayerReady(baseLayer.bitmap, baseLayer.sourceWidth, baseLayer.sourceHeight, baseLayer.orientation);
+    }
+
+    /**
+     * 按适应目标尺寸的采样率解码整张图片
+     *
+     * @param context
+     * @param source
+     * @param decoder
+     * @param orientation  EXIF方向，旋转90度时按交换后的宽高适应目标尺寸
+     * @param targetWidth
+     * @param targetHeight
+     * @param memoryBudget 超出预算时增大采样率，为null时不检查
+     * @param quality      DecodeConfig.QUALITY_*
+     * @return
+     * @throws IOException
+     */
+    static BaseLayer decodeBaseLayer(Context context, ImageSource source, BitmapRegionDecoder decoder, int orientation,
+                                     int targetWidth, int targetHeight, MemoryBudget memoryBudget, int quality) throws IOException {
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        int baseSampleSize = calculateSampleSize(fitScale(targetWidth, targetHeight, width, height, orientation));
+        boolean opaque = DecodeConfig.isOpaqueFormat(source.decodeMimeType(context));
+        Bitmap.Config config = DecodeConfig.baseConfig(quality, opaque);
+        if (memoryBudget != null) {
+            baseSampleSize = memoryBudget.fitSampleSize(width, height, baseSampleSize, DecodeConfig.bytesPerPixel(config));
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = baseSampleSize;
+        options.inPreferredConfig = config;
+        Bitmap base = null;
+        try {
+            base = decoder.decodeRegion(new Rect(0, 0, width, height), options);
+        } catch (IllegalArgumentException e) {
+            if (config != Bitmap.Config.HARDWARE) {
+                throw e;
+            }
+        }
+        if (base == null && config == Bitmap.Config.HARDWARE) {
+            //不支持HARDWARE的设备退回到普通的格式
+            options.inPreferredConfig = DecodeConfig.softwareConfig(quality, opaque);
+            base = decoder.decodeRegion(new Rect(0, 0, width, height), options);
+        }
+        if (base == null) {
+            throw new IOException("decode base layer failed");
+        }
+        return new BaseLayer(base, width, height, baseSampleSize, orientation);
+    }
+
+    /**
+     * 不分块时先读取尺寸，再按适应控件的缩放比例乘以最大放大倍数计算采样率，解码整张图片
+     * 放大到最大时也不会比原图更清晰，所以不再需要图块
+     *
+     * @param context
+     * @param source
+     * @param orientation
+     * @param targetWidth
+     * @param targetHeight
+     * @param memoryBudget 超出预算时增大采样率，为null时不检查
+     * @param quality      DecodeConfig.QUALITY_*
+     * @return
+     * @throws IOException
+     */
+    static BaseLayer decodeSampledLayer(Context context, ImageSource source, int orientation, int targetWidth, int targetHeight,
+                                        MemoryBudget memoryBudget, int quality) throws IOException {
+        BitmapFactory.Options header = source.decodeHeader(context);
+        int width = header.outWidth;
+        int height = header.outHeight;
+        int sampleSize = calculateSampleSize(fitScale(targetWidth, targetHeight, width, height, orientation) * Viewport.MAX_ZOOM);
+        Bitmap.Config config = DecodeConfig.baseConfig(quality, DecodeConfig.isOpaqueFormat(header.outMimeType));
+        if (memoryBudget != null) {
+            sampleSize = memoryBudget.fitSampleSize(width, height, sampleSize, DecodeConfig.bytesPerPixel(config));
+        }
+        Bitmap bitmap = source.decodeSampled(context, sampleSize, config);
+        return new BaseLayer(bitmap, width, height, 1, orientation);
+    }
+
+    /**
+     * 适应目标尺寸的缩放比例，旋转90度或270度时原图的宽对应目标的高
+     *
+     * @param targetWidth
+     * @param targetHeight
+     * @param width        原图宽度
+     * @param height       原图高度
+     * @param orientation
+     * @return
+     */
+    static float fitScale(int targetWidth, int targetHeight, int width, int height, int orientation) {
+        return DecodeConfig.isSwapped(orientation)
+                ? Viewport.computeFitScale(targetWidth, targetHeight, height, width)
+                : Viewport.computeFitScale(targetWidth, targetHeight, width, height);
+    }
+
+    private void postLoadFailed(final Exception e) {
+        Log.e(TAG, "load " + mSource + " failed", e);
+        mMainHandler.post(() -> {
+            if (!mReleased) {
+                mCallback.onLoadFailed(e);
+            }
+        });
+    }
+
+    /**
+     * 按采样率把原图切分为图块，采样率越小图块在原图中覆盖的区域越小
+     */
+    private void initTileGrid() {
+        for (int sampleSize = 1; sampleSize < mBaseSampleSize; sampleSize *= 2) {
+            mTileGrids.put(sampleSize, new TileGrid(mSource.getKey(), mSourceWidth, mSourceHeight, sampleSize, TILE_SIZE));
+        }
+    }
+
+    /**
+     * 设置内容当前移动的速度，下一次updateVisibleTiles时沿该方向预加载图块
+     *
+     * @param velocityX 控件坐标系中的速度，像素/秒，与手指移动的方向一致
+     * @param velocityY
+     */
+    void setPanVelocity(float velocityX, float velocityY) {
+        mVelocityX = velocityX;
+        mVelocityY = velocityY;
+    }
+
+    /**
+     * 根据当前的矩阵计算可见的图块，加载可见图块并释放不可见的图块
+     * 同时按离屏幕中心的距离更新解码的优先级，移出屏幕的图块不再解码
+     *
+     * @param matrix     原图坐标到控件坐标的矩阵
+     * @param viewWidth
+     * @param viewHeight
+     */
+    void updateVisibleTiles(Matrix matrix, int viewWidth, int viewHeight) {
+        if (mReleased || mTileGrids.size() == 0 || viewWidth == 0 || viewHeight == 0) {
+            return;
+        }
+        //矩阵中包含EXIF方向的旋转，旋转90度时MSCALE_X为0，按单位长度映射后的长度计算缩放比例
+        float scale = matrix.mapRadius(1);
+        int sampleSize = calculateSampleSize(scale);
+        if (!matrix.invert(mInverse)) {
+            return;
+        }
+        mVisibleRect.set(0, 0, viewWidth, viewHeight);
+        mInverse.mapRect(mVisibleRect);
+        //内容向右移动时左边的区域即将可见，预测区域向相反的方向偏移
+        mPrefetchOffset[0] = -mVelocityX * PREFETCH_SECONDS;
+        mPrefetchOffset[1] = -mVelocityY * PREFETCH_SECONDS;
+        mInverse.mapVectors(mPrefetchOffset);
+        float offsetX = clamp(mPrefetchOffset[0], mVisibleRect.width());
+        float offsetY = clamp(mPrefetchOffset[1], mVisibleRect.height());
+        boolean prefetching = offsetX != 0 || offsetY != 0;
+        mPrefetchRect.set(mVisibleRect);
+        mPrefetchRect.offset(offsetX, offsetY);
+        //距离按可见区域的对角线归一化，可见图块的优先级都小于PREFETCH_PRIORITY
+        float normalize = 1.0f / (mVisibleRect.width() * mVisibleRect.width() + mVisibleRect.height() * mVisibleRect.height());
+
+        //只查询与可见区域和预加载区域相交的图块，其余图块的状态在离开这些区域时已经清理过
+        int generation = ++mGeneration;
+        mVisibleTiles.clear();
+        mPrefetchTiles.clear();
+        mNextActiveTiles.clear();
+        TileGrid grid = mTileGrids.get(sampleSize);
+        if (grid != null) {
+            grid.query(mVisibleRect, mVisibleTiles);
+            if (prefetching) {
+                grid.query(mPrefetchRect, mPrefetchTiles);
+            }
+        }
+        for (int i = 0, n = mVisibleTiles.size(); i < n; i++) {
+            Tile tile = mVisibleTiles.get(i);
+            tile.generation = generation;
+            tile.visible = true;
+            tile.priority = distance(tile.sRect, mVisibleRect) * normalize;
+            tile.prefetched = false;
+            if (tile.bitmap == null && !tile.loading) {
+                tile.bitmap = mTileCache.take(tile.key);
+                if (tile.bitmap == null) {
+                    loadTile(tile);
+                }
+            }
+            mNextActiveTiles.add(tile);
+        }
+        for (int i = 0, n = mPrefetchTiles.size(); i < n; i++) {
+            Tile tile = mPrefetchTiles.get(i);
+            if (tile.generation == generation) {
+                //同时可见
+                continue;
+            }
+            tile.generation = generation;
+            tile.visible = false;
+            if (tile.bitmap != null) {
+                //刚离开屏幕的图块放入缓存，已经相当于预加载过，不需要重新解码
+                tile.free(mTileCache);
+                tile.prefetched = true;
+            }
+            tile.priority = PREFETCH_PRIORITY + distance(tile.sRect, mPrefetchRect) * normalize;
+            if (!tile.loading && !tile.prefetched) {
+                loadTile(tile);
+            }
+            mNextActiveTiles.add(tile);
+        }
+        //离开可见区域和预加载区域的图块，包括其他采样率的图块
+        for (int i = 0, n = mActiveTiles.size(); i < n; i++) {
+            Tile tile = mActiveTiles.get(i);
+            if (tile.generation != generation) {
+                tile.visible = false;
+                tile.free(mTileCache);
+                //排队中的解码任务会被丢弃
+                tile.priority = -1;
+            }
+        }
+        List<Tile> activeTiles = mActiveTiles;
+        mActiveTiles = mNextActiveTiles;
+        mNextActiveTiles = activeTiles;
+    }
+
+    private void loadTile(final Tile tile) {
+        tile.loading = true;
+        mScheduler.submit(new TileScheduler.Task() {
+            @Override
+            public float getPriority() {
+                return mReleased ? -1 : tile.priority;
+            }
+
+            @Override
+            public void drop() {
+                mMainHandler.post(() -> {
+                    tile.loading = false;
+                    //丢弃之后又回到了屏幕内
+                    if (!mReleased && tile.visible && tile.bitmap == null) {
+                        loadTile(tile);
+                    }
+                });
+            }
+
+            @Override
+            public void run() {
+                decodeAndPost(tile);
+            }
+        });
+    }
+
+    /**
+     * 解码图块后交给主线程，在TileScheduler的工作线程调用
+     *
+     * @param tile
+     */
+    private void decodeAndPost(final Tile tile) {
+        Bitmap bitmap = null;
+        byte[] data = null;
+        boolean fromDisk = false;
+        try {
+            long start = System.nanoTime();
+            //优先从磁盘缓存读取，只需要解压一个图块
+            DiskTileCache.Pack pack = mPack;
+            data = pack != null ? pack.read(tile.key) : null;
+            fromDisk = data != null;
+            bitmap = decodeTile(tile, data);
+            MetricsListener metricsListener = mMetricsListener;
+            if (metricsListener != null) {
+                metricsListener.onDecode(MetricsListener.DECODE_TILE, System.nanoTime() - start);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "decode tile " + tile.sRect + " failed", e);
+        }
+        //多个线程同时从复用池取bitmap，交给主线程之后可能被复用，需要先压缩
+        if (!fromDisk) {
+            data = compress(bitmap);
+        }
+        final Bitmap result = bitmap;
+        mMainHandler.post(() -> {
+            tile.loading = false;
+            if (mReleased || !tile.visible) {
+                //预加载的图块，或者解码期间移出了屏幕，放入缓存备用
+                mTileCache.put(tile.key, result);
+                tile.prefetched = result != null && !mReleased;
+                return;
+            }
+            tile.bitmap = result;
+            mCallback.onTileLoaded();
+        });
+        if (!fromDisk) {
+            writeToDisk(tile.sampleSize, tile.sRect, data);
+        }
+    }
+
+    /**
+     * 解码图块，优先复用BitmapPool中尺寸一致的bitmap
+     *
+     * @param tile
+     * @param data 磁盘缓存中压缩后的图块，为null时从原图解码
+     * @return
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private Bitmap decodeTile(Tile tile, byte[] data) throws IOException, InterruptedException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        //磁盘缓存中的图块已经是采样后的尺寸
+        options.inSampleSize = data != null ? 1 : tile.sampleSize;
+        options.inMutable = true;
+        int width = (tile.sRect.width() + tile.sampleSize - 1) / tile.sampleSize;
+        int height = (tile.sRect.height() + tile.sampleSize - 1) / tile.sampleSize;
+        Bitmap.Config config = mTileConfig;
+        options.inPreferredConfig = config;
+        BitmapPool pool = mTileCache.getBitmapPool();
+        options.inBitmap = pool.get(width, height, config);
+        //没有可复用的bitmap时需要新申请，超出预算时放弃，继续显示底图
+        MemoryBudget memoryBudget = mMemoryBudget;
+        if (options.inBitmap == null && memoryBudget != null
+                && !memoryBudget.canAllocate((long) width * height * DecodeConfig.bytesPerPixel(config))) {
+            return null;
+        }
+        if (data != null) {
+            if (options.inBitmap != null) {
+                try {
+                    return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                } catch (IllegalArgumentException e) {
+                    //inBitmap不可用时放弃复用，重新申请
+                    pool.put(options.inBitmap);
+                    options.inBitmap = null;
+                }
+            }
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        BitmapRegionDecoder decoder = acquireDecoder();
+        if (decoder == null) {
+            pool.put(options.inBitmap);
+            return null;
+        }
+        try {
+            if (options.inBitmap != null) {
+                try {
+                    return decoder.decodeRegion(tile.sRect, options);
+                } catch (IllegalArgumentException e) {
+                    pool.put(options.inBitmap);
+                    options.inBitmap = null;
+                }
+            }
+            return decoder.decodeRegion(tile.sRect, options);
+        } finally {
+            recycleDecoder(decoder);
+        }
+    }
+
+    private void addDecoder(BitmapRegionDecoder decoder) {
+        synchronized (mIdleDecoders) {
+            mDecoderCount++;
+        }
+        recycleDecoder(decoder);
+    }
+
+    /**
+     * 取出一个空闲的解码器，没有空闲的解码器时在数量上限内创建新的，否则等待其他线程归还
+     *
+     * @return 已经释放时返回null
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private BitmapRegionDecoder acquireDecoder() throws IOException, InterruptedException {
+        synchronized (mIdleDecoders) {
+            while (mIdleDecoders.isEmpty() && mDecoderCount >= mMaxDecoders) {
+                if (mReleased) {
+                    return null;
+                }
+                mIdleDecoders.wait();
+            }
+            if (mReleased) {
+                return null;
+            }
+            if (!mIdleDecoders.isEmpty()) {
+                return mIdleDecoders.pop();
+            }
+            mDecoderCount++;
+        }
+        //在锁外创建，不阻塞其他线程归还解码器
+        try {
+            return mSource.newRegionDecoder(mContext);
+        } catch (IOException | RuntimeException e) {
+            synchronized (mIdleDecoders) {
+                mDecoderCount--;
+                mIdleDecoders.notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 归还解码器，已经释放或者离开窗口时直接回收
+     *
+     * @param decoder
+     */
+    private void recycleDecoder(BitmapRegionDecoder decoder) {
+        synchronized (mIdleDecoders) {
+            if (mReleased) {
+                decoder.recycle();
+                return;
+            }
+            if (mSuspended) {
+                decoder.recycle();
+                mDecoderCount--;
+                mIdleDecoders.notifyAll();
+                return;
+            }
+            mIdleDecoders.push(decoder);
+            mIdleDecoders.notifyAll();
+        }
+    }
+
+    /**
+     * 释放所有图块的bitmap，只保留底图，图块重新可见时再次解码
+     * 需要在主线程调用
+     */
+    void freeTiles() {
+        for (int i = 0, n = mActiveTiles.size(); i < n; i++) {
+            Tile tile = mActiveTiles.get(i);
+            tile.free(mTileCache);
+            tile.prefetched = false;
+        }
+    }
+
+    /**
+     * 控件离开窗口时释放图块、解码器并关闭磁盘缓存，只保留底图，需要在主线程调用
+     * 正在解码的图块结束后归还的解码器也直接回收
+     */
+    void suspend() {
+        if (mReleased || mSuspended) {
+            return;
+        }
+        mSuspended = true;
+        freeTiles();
+        synchronized (mIdleDecoders) {
+            for (BitmapRegionDecoder decoder : mIdleDecoders) {
+                decoder.recycle();
+            }
+            mDecoderCount -= mIdleDecoders.size();
+            mIdleDecoders.clear();
+            mIdleDecoders.notifyAll();
+        }
+        //放到解码队列的末尾，保证正在进行的底图解码结束后再关闭
+        DECODE_EXECUTOR.execute(() -> {
+            if (mSuspended && mPack != null) {
+                mPack.close();
+                mPack = null;
+            }
+        });
+    }
+
+    /**
+     * 控件重新添加到窗口时重新打开磁盘缓存，解码器在解码图块时按需创建，需要在主线程调用
+     */
+    void resume() {
+        if (mReleased || !mSuspended) {
+            return;
+        }
+        mSuspended = false;
+        if (!mTiling || mDiskTileCache == null) {
+            return;
+        }
+        DECODE_EXECUTOR.execute(() -> {
+            if (mReleased || mSuspended || mPack != null) {
+                return;
+            }
+            String diskKey = mSource.getDiskCacheKey(mContext);
+            if (diskKey != null) {
+                mPack = mDiskTileCache.open(diskKey, mSource.getKey());
+            }
+        });
+    }
+
+    /**
+     * 当前打开的磁盘缓存，在解码线程中打开和关闭
+     *
+     * @return
+     */
+    DiskTileCache.Pack getPack() {
+        return mPack;
+    }
+
+    /**
+     * 已经创建还没有回收的解码器数量
+     *
+     * @return
+     */
+    int getDecoderCount() {
+        synchronized (mIdleDecoders) {
+            return mDecoderCount;
+        }
+    }
+
+    /**
+     * 在底图之上绘制已经加载好的图块
+     *
+     * @param canvas
+     * @param matrix 原图坐标到控件坐标的矩阵
+     */
+    void draw(Canvas canvas, Matrix matrix) {
+        if (mVisibleTiles.isEmpty()) {
+            return;
+        }
+        int saveCount = canvas.save();
+        canvas.concat(matrix);
+        for (int i = 0, n = mVisibleTiles.size(); i < n; i++) {
+            Tile tile = mVisibleTiles.get(i);
+            if (tile.bitmap != null) {
+                canvas.drawBitmap(tile.bitmap, null, tile.sRect, mPaint);
+            }
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * 释放所有图块以及解码器
+     */
+    void release() {
+        mReleased = true;
+        //只有可见的图块持有bitmap
+        for (int i = 0, n = mActiveTiles.size(); i < n; i++) {
+            Tile tile = mActiveTiles.get(i);
+            tile.visible = false;
+            tile.free(mTileCache);
+        }
+        mActiveTiles.clear();
+        mVisibleTiles.clear();
+        mPrefetchTiles.clear();
+        mTileGrids.clear();
+        //空闲的解码器立即回收，正在使用的解码器在归还时回收
+        synchronized (mIdleDecoders) {
+            for (BitmapRegionDecoder decoder : mIdleDecoders) {
+                decoder.recycle();
+            }
+            mIdleDecoders.clear();
+            mIdleDecoders.notifyAll();
+        }
+        //放到解码队列的末尾，保证正在进行的底图解码结束后再关闭
+        DECODE_EXECUTOR.execute(() -> {
+            if (mPack != null) {
+                mPack.close();
+                mPack = null;
+            }
+        });
+    }
+
+    /**
+     * 图块中心到区域中心距离的平方
+     *
+     * @param tile
+     * @param region
+     * @return
+     */
+    private static float distance(Rect tile, RectF region) {
+        float dx = tile.exactCenterX() - region.centerX();
+        float dy = tile.exactCenterY() - region.centerY();
+        return dx * dx + dy * dy;
+    }
+
+    private static float clamp(float value, float limit) {
+        return Math.max(-limit, Math.min(limit, value));
+    }
+
+    /**
+     * 计算缩放比例对应的采样率，取不大于1/scale的2的幂
+     *
+     * @param scale
+     * @return
+     */
+    static int calculateSampleSize(float scale) {
+        int sampleSize = 1;
+        if (scale <= 0) {
+            return sampleSize;
+        }
+        float target = 1.0f / scale;
+        while (sampleSize * 2 <= target) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
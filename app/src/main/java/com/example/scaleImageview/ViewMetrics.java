@@ -0,0 +1,56 @@
+package com.example.scaleImageview;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Point;
+import android.view.ViewConfiguration;
+
+/**
+ * 只与屏幕和系统配置有关的数值，所有ScaleImageView共享同一份
+ * 画廊中大量创建控件时不需要每次都查询WindowManager和ViewConfiguration，配置变化（例如旋转屏幕）后重新计算
+ * 只在主线程访问
+ */
+final class ViewMetrics {
+    private static ViewMetrics sCurrent;
+
+    private final Configuration mConfiguration;
+    //屏幕尺寸，不允许修改
+    final int screenWidth;
+    final int screenHeight;
+    //系统触发的最小滑动距离
+    final float touchSlop;
+    //系统触发的滚动整个页面的最小距离
+    final int pagingTouchSlop;
+    //触发惯性滑动的最小速度以及最大速度
+    final float minFlingVelocity;
+    final float maxFlingVelocity;
+
+    private ViewMetrics(Context context, Configuration configuration) {
+        mConfiguration = new Configuration(configuration);
+        Point screenSize = new Point();
+        ScaleImageView.getFullScreenSize(context, screenSize);
+        screenWidth = screenSize.x;
+        screenHeight = screenSize.y;
+        ViewConfiguration viewConfiguration = ViewConfiguration.get(context);
+        touchSlop = viewConfiguration.getScaledTouchSlop();
+        pagingTouchSlop = viewConfiguration.getScaledPagingTouchSlop();
+        minFlingVelocity = viewConfiguration.getScaledMinimumFlingVelocity();
+        maxFlingVelocity = viewConfiguration.getScaledMaximumFlingVelocity();
+    }
+
+    /**
+     * 获取当前配置下的数值，配置没有变化时返回同一个实例
+     *
+     * @param context
+     * @return
+     */
+    static ViewMetrics get(Context context) {
+        Configuration configuration = context.getResources().getConfiguration();
+        ViewMetrics current = sCurrent;
+        if (current == null || !current.mConfiguration.equals(configuration)) {
+            current = new ViewMetrics(context, configuration);
+            sCurrent = current;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.scaleImageview;
+
+import android.view.Choreographer;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.Interpolator;
+
+/**
+ * 基于Choreographer帧回调的缩放动画
+ * 按时间插值，时长固定，与屏幕刷新率无关；缩放和平移同时插值，结束时不会出现跳变
+ */
+class ZoomAnimator implements Choreographer.FrameCallback {
+    static final long DEFAULT_DURATION = 250;
+
+    interface Listener {
+        /**
+         * 每一帧的缩放和平移值
+         */
+        void onZoomUpdate(float scale, float translateX, float translateY);
+    }
+
+    private final Listener mListener;
+    private Interpolator mInterpolator = new AccelerateDecelerateInterpolator();
+    private long mDurationNanos = DEFAULT_DURATION * 1000000L;
+
+    private float mStartScale;
+    private float mStartX;
+    private float mStartY;
+    private float mEndScale;
+    private float mEndX;
+    private float mEndY;
+    private long mStartTimeNanos;
+    private boolean mRunning;
+
+    //用于统计丢帧
+    private MetricsListener mMetricsListener;
+    private long mFrameIntervalNanos = 16666667L;
+    private long mLastFrameTimeNanos;
+
+    ZoomAnimator(Listener listener) {
+        mListener = listener;
+    }
+
+    void setInterpolator(Interpolator interpolator) {
+        mInterpolator = interpolator != null ? interpolator : new AccelerateDecelerateInterpolator();
+    }
+
+    void setMetricsListener(MetricsListener metricsListener) {
+        mMetricsListener = metricsListener;
+    }
+
+    /**
+     * 设置屏幕刷新的间隔，用于计算丢帧数
+     *
+     * @param frameIntervalNanos
+     */
+    void setFrameInterval(long frameIntervalNanos) {
+        if (frameIntervalNanos > 0) {
+            mFrameIntervalNanos = frameIntervalNanos;
+        }
+    }
+
+    void setDuration(long durationMillis) {
+        mDurationNanos = Math.max(0, durationMillis) * 1000000L;
+    }
+
+    /**
+     * 从起始状态动画到结束状态，正在进行的动画会被替换
+     */
+    void start(float startScale, float startX, float startY, float endScale, float endX, float endY) {
+        mStartScale = startScale;
+        mStartX = startX;
+        mStartY = startY;
+        mEndScale = endScale;
+        mEndX = endX;
+        mEndY = endY;
+        //起始时间取第一帧的frameTimeNanos，它是垂直同步的时间，可能早于调用start的时间
+        mStartTimeNanos = 0;
+        if (!mRunning) {
+            mRunning = true;
+            mLastFrameTimeNanos = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * 停在当前帧，用于新的手势开始时打断动画
+     */
+    void cancel() {
+        if (mRunning) {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mMetricsListener != null) {
+            int dropped = 0;
+            if (mLastFrameTimeNanos > 0) {
+                dropped = Math.max(0, Math.round((frameTimeNanos - mLastFrameTimeNanos) * 1.0f / mFrameIntervalNanos) - 1);
+            }
+            mMetricsListener.onAnimationFrame(dropped);
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        if (mStartTimeNanos == 0) {
+            mStartTimeNanos = frameTimeNanos;
+        }
+        float fraction = mDurationNanos == 0 ? 1f : (frameTimeNanos - mStartTimeNanos) * 1.0f / mDurationNanos;
+        fraction = Math.max(0f, Math.min(1f, fraction));
+        float value = mInterpolator.getInterpolation(fraction);
+        if (fraction >= 1f) {
+            mRunning = false;
+            value = 1f;
+        } else {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+        mListener.onZoomUpdate(mStartScale + (mEndScale - mStartScale) * value,
+                mStartX + (mEndX - mStartX) * value,
+                mStartY + (mEndY - mStartY) * value);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.scaleImageview;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 动图只在可见并且添加到窗口时播放
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class AnimatedImageTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    /**
+     * 两帧1x1的GIF，分别为黑色和白色，每帧100ms，无限循环
+     */
+    private static final int[] TWO_FRAME_GIF = {
+            0x47, 0x49, 0x46, 0x38, 0x39, 0x61, 0x01, 0x00, 0x01, 0x00, 0x80, 0x00, 0x00,
+            0x00, 0x00, 0x00, 0xff, 0xff, 0xff,
+            0x21, 0xff, 0x0b, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 0x03, 0x01, 0x00, 0x00, 0x00,
+            0x21, 0xf9, 0x04, 0x00, 0x0a, 0x00, 0x00, 0x00,
+            0x2c, 0x00, 0x00, 0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00, 0x02, 0x02, 0x44, 0x01, 0x00,
+            0x21, 0xf9, 0x04, 0x00, 0x0a, 0x00, 0x00, 0x00,
+            0x2c, 0x00, 0x00, 0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00, 0x02, 0x02, 0x4c, 0x01, 0x00,
+            0x3b
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Activity mActivity;
+    private ScaleImageView mView;
+
+    @Before
+    public void setUp() {
+        mActivity = Robolectric.buildActivity(Activity.class).setup().get();
+        mView = new ScaleImageView(mActivity);
+        mActivity.setContentView(mView);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    @Test
+    public void playsOnlyWhileVisibleAndAttached() throws Exception {
+        mView.setAnimatedImageSource(ImageSource.file(writeGif().getPath()));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (mView.getDrawable() == null && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertNotNull("animation was not loaded", mView.getDrawable());
+        assertEquals(1, mView.getDrawable().getIntrinsicWidth());
+        assertTrue(mView.isAnimating());
+
+        mView.setVisibility(View.GONE);
+        assertFalse("hidden view must not keep decoding frames", mView.isAnimating());
+        mView.setVisibility(View.VISIBLE);
+        assertTrue(mView.isAnimating());
+
+        mActivity.setContentView(new View(mActivity));
+        assertFalse("detached view must not keep decoding frames", mView.isAnimating());
+    }
+
+    private File writeGif() throws IOException {
+        File file = mFolder.newFile("two_frames.gif");
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int b : TWO_FRAME_GIF) {
+                out.write(b);
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+public class DecodeConfigTest {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+
+    @Test
+    public void pixelFormat_followsAlphaAndQuality() {
+        assertEquals(Bitmap.Config.ARGB_8888, DecodeConfig.softwareConfig(DecodeConfig.QUALITY_HIGH, true));
+        assertEquals(Bitmap.Config.RGB_565, DecodeConfig.softwareConfig(DecodeConfig.QUALITY_BALANCED, true));
+        assertEquals(Bitmap.Config.ARGB_8888, DecodeConfig.softwareConfig(DecodeConfig.QUALITY_BALANCED, false));
+        assertEquals(Bitmap.Config.RGB_565, DecodeConfig.baseConfig(DecodeConfig.QUALITY_BALANCED, true));
+        //Android 8.0及以上底图可以放到显存中
+        assertEquals(Bitmap.Config.HARDWARE, DecodeConfig.baseConfig(DecodeConfig.QUALITY_LOW_MEMORY, false));
+        assertEquals(2, DecodeConfig.bytesPerPixel(Bitmap.Config.RGB_565));
+        assertEquals(4, DecodeConfig.bytesPerPixel(Bitmap.Config.ARGB_8888));
+        assertTrue(DecodeConfig.isOpaqueFormat("image/jpeg"));
+        assertFalse(DecodeConfig.isOpaqueFormat("image/png"));
+    }
+
+    @Test
+    public void orientationMatrix_mapsSourceOntoUprightBounds() {
+        //原图左上角在摆正后的位置
+        assertCorner(ExifInterface.ORIENTATION_NORMAL, 0, 0);
+        assertCorner(ExifInterface.ORIENTATION_FLIP_HORIZONTAL, WIDTH, 0);
+        assertCorner(ExifInterface.ORIENTATION_ROTATE_180, WIDTH, HEIGHT);
+        assertCorner(ExifInterface.ORIENTATION_FLIP_VERTICAL, 0, HEIGHT);
+        assertCorner(ExifInterface.ORIENTATION_TRANSPOSE, 0, 0);
+        assertCorner(ExifInterface.ORIENTATION_ROTATE_90, HEIGHT, 0);
+        assertCorner(ExifInterface.ORIENTATION_TRANSVERSE, HEIGHT, WIDTH);
+        assertCorner(ExifInterface.ORIENTATION_ROTATE_270, 0, WIDTH);
+    }
+
+    @Test
+    public void rotate90_movesSourceRightEdgeToBottom() {
+        Matrix matrix = new Matrix();
+        DecodeConfig.getOrientationMatrix(ExifInterface.ORIENTATION_ROTATE_90, WIDTH, HEIGHT, matrix);
+        float[] point = {WIDTH, 0};
+        matrix.mapPoints(point);
+        assertEquals(HEIGHT, point[0], 0.01f);
+        assertEquals(WIDTH, point[1], 0.01f);
+    }
+
+    private static void assertCorner(int orientation, float x, float y) {
+        Matrix matrix = new Matrix();
+        DecodeConfig.getOrientationMatrix(orientation, WIDTH, HEIGHT, matrix);
+        float[] point = {0, 0};
+        matrix.mapPoints(point);
+        assertEquals("x of " + orientation, x, point[0], 0.01f);
+        assertEquals("y of " + orientation, y, point[1], 0.01f);
+
+        boolean swapped = DecodeConfig.isSwapped(orientation);
+        RectF bounds = new RectF(0, 0, WIDTH, HEIGHT);
+        matrix.mapRect(bounds);
+        assertEquals(0, bounds.left, 0.01f);
+        assertEquals(0, bounds.top, 0.01f);
+        assertEquals(swapped ? HEIGHT : WIDTH, bounds.right, 0.01f);
+        assertEquals(swapped ? WIDTH : HEIGHT, bounds.bottom, 0.01f);
+    }
+}
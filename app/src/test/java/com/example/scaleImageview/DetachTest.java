@@ -0,0 +1,105 @@
+package com.example.scaleImageview;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Looper;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 离开窗口时关闭解码器和磁盘缓存，重新添加到窗口时再打开
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class DetachTest {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void detach_closesPackAndDecoders_attachReopens() throws Exception {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        FrameLayout parent = new FrameLayout(activity);
+        activity.setContentView(parent);
+        ScaleImageView view = new ScaleImageView(activity);
+        DiskTileCache diskTileCache = new DiskTileCache(mFolder.newFolder("tiles"), 1 << 30);
+        view.setDiskTileCache(diskTileCache);
+        //不占用其他测试共享的默认预算
+        view.setMemoryBudget(new MemoryBudget(Long.MAX_VALUE));
+        parent.addView(view, new ViewGroup.LayoutParams(VIEW_WIDTH, VIEW_HEIGHT));
+        shadowOf(Looper.getMainLooper()).idle();
+
+        File file = mFolder.newFile("big.jpg");
+        writeJpeg(file, 4000, 3000);
+        view.setImageSource(ImageSource.file(file.getPath()));
+        TiledImage tiledImage = view.getTiledImage();
+        //底图写入磁盘缓存后才会创建
+        await("pack was not created", () -> tiledImage.getPack() != null);
+        DiskTileCache.Pack pack = tiledImage.getPack();
+        assertTrue(tiledImage.getDecoderCount() > 0);
+
+        parent.removeView(view);
+        assertFalse(view.isAttachedToWindow());
+        assertEquals(0, tiledImage.getDecoderCount());
+        await("pack was not closed", () -> tiledImage.getPack() == null);
+        //文件已经关闭，不再读取
+        TiledImage.BaseLayer baseLayer = view.getBaseLayer();
+        assertNotNull(baseLayer);
+        TileKey baseKey = new TileKey(tiledImage.getSource().getKey(), baseLayer.sampleSize, new Rect(0, 0, 4000, 3000));
+        assertNull(pack.read(baseKey));
+
+        parent.addView(view, new ViewGroup.LayoutParams(VIEW_WIDTH, VIEW_HEIGHT));
+        await("pack was not reopened", () -> tiledImage.getPack() != null);
+        assertNotSame(pack, tiledImage.getPack());
+        assertTrue(tiledImage.getPack().contains(baseKey));
+        //底图一直保留
+        assertTrue(view.getDrawable() instanceof SourceBitmapDrawable);
+        parent.removeView(view);
+    }
+
+    private static void await(String message, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertTrue(message, condition.getAsBoolean());
+    }
+
+    private static void writeJpeg(File file, int width, int height) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        bitmap.recycle();
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.scaleImageview;
+
+import android.graphics.Rect;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+public class DiskTileCacheTest {
+    private static final String SOURCE_KEY = "file:/sdcard/big.jpg";
+    private static final String DISK_KEY = SOURCE_KEY + "@1700000000000:123456789";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mFolder.newFolder("tiles");
+    }
+
+    @Test
+    public void tiles_surviveReopen() throws IOException {
+        DiskTileCache cache = new DiskTileCache(mDirectory, 1 << 20);
+        DiskTileCache.Pack pack = cache.create(DISK_KEY, SOURCE_KEY, 8000, 6000);
+        assertNotNull(pack);
+        Rect rect = new Rect(0, 0, 2048, 2048);
+        pack.write(4, rect, bytes(100, 1));
+        pack.write(8, new Rect(0, 0, 8000, 6000), bytes(200, 2));
+        pack.close();
+
+        //模拟进程重启
+        DiskTileCache.Pack reopened = new DiskTileCache(mDirectory, 1 << 20).open(DISK_KEY, SOURCE_KEY);
+        assertNotNull(reopened);
+        assertEquals(8000, reopened.sourceWidth);
+        assertEquals(6000, reopened.sourceHeight);
+        assertArrayEquals(bytes(100, 1), reopened.read(new TileKey(SOURCE_KEY, 4, rect)));
+        assertArrayEquals(bytes(200, 2), reopened.read(new TileKey(SOURCE_KEY, 8, new Rect(0, 0, 8000, 6000))));
+        assertNull(reopened.read(new TileKey(SOURCE_KEY, 2, rect)));
+        reopened.close();
+    }
+
+    @Test
+    public void open_rejectsChangedSource() throws IOException {
+        DiskTileCache cache = new DiskTileCache(mDirectory, 1 << 20);
+        cache.create(DISK_KEY, SOURCE_KEY, 8000, 6000).close();
+        //修改时间不同，对应不同的缓存
+        assertNull(cache.open(SOURCE_KEY + "@1700000000001:123456789", SOURCE_KEY));
+    }
+
+    @Test
+    public void open_ignoresTornWrite() throws IOException {
+        DiskTileCache cache = new DiskTileCache(mDirectory, 1 << 20);
+        DiskTileCache.Pack pack = cache.create(DISK_KEY, SOURCE_KEY, 8000, 6000);
+        pack.write(4, new Rect(0, 0, 2048, 2048), bytes(100, 1));
+        pack.close();
+        //索引末尾只写入了半条记录
+        File index = only(".idx");
+        try (FileOutputStream out = new FileOutputStream(index, true)) {
+            out.write(new byte[13]);
+        }
+
+        DiskTileCache.Pack reopened = cache.open(DISK_KEY, SOURCE_KEY);
+        assertNotNull(reopened);
+        assertArrayEquals(bytes(100, 1), reopened.read(new TileKey(SOURCE_KEY, 4, new Rect(0, 0, 2048, 2048))));
+        //截断后继续追加的记录仍然可以读取
+        reopened.write(4, new Rect(2048, 0, 4096, 2048), bytes(50, 3));
+        reopened.close();
+        DiskTileCache.Pack again = cache.open(DISK_KEY, SOURCE_KEY);
+        assertArrayEquals(bytes(50, 3), again.read(new TileKey(SOURCE_KEY, 4, new Rect(2048, 0, 4096, 2048))));
+        again.close();
+    }
+
+    @Test
+    public void open_keepsRecordsAfterDuplicates() throws IOException {
+        DiskTileCache cache = new DiskTileCache(mDirectory, 1 << 20);
+        DiskTileCache.Pack pack = cache.create(DISK_KEY, SOURCE_KEY, 8000, 6000);
+        pack.write(4, new Rect(0, 0, 2048, 2048), bytes(100, 1));
+        pack.close();
+        //同一个图块的记录重复写入了两次
+        File index = only(".idx");
+        byte[] record = new byte[32];
+        try (RandomAccessFile access = new RandomAccessFile(index, "rw")) {
+            access.seek(access.length() - record.length);
+            access.readFully(record);
+            access.write(record);
+        }
+
+        DiskTileCache.Pack reopened = cache.open(DISK_KEY, SOURCE_KEY);
+        reopened.write(4, new Rect(2048, 0, 4096, 2048), bytes(50, 3));
+        reopened.close();
+        //重复的记录不能让之后追加的记录被截掉
+        DiskTileCache.Pack again = cache.open(DISK_KEY, SOURCE_KEY);
+        assertArrayEquals(bytes(100, 1), again.read(new TileKey(SOURCE_KEY, 4, new Rect(0, 0, 2048, 2048))));
+        assertArrayEquals(bytes(50, 3), again.read(new TileKey(SOURCE_KEY, 4, new Rect(2048, 0, 4096, 2048))));
+        again.close();
+    }
+
+    @Test
+    public void sameImage_sharesOnePack() throws IOException {
+        DiskTileCache cache = new DiskTileCache(mDirectory, 1 << 20);
+        DiskTileCache.Pack first = cache.create(DISK_KEY, SOURCE_KEY, 8000, 6000);
+        //另一个控件打开同一张图片，例如屏幕旋转时新旧两个控件
+        String otherKey = "content://media/external/images/1";
+        DiskTileCache.Pack second = cache.create(DISK_KEY, otherKey, 8000, 6000);
+        assertSame(first, second);
+        assertSame(first, cache.open(DISK_KEY, SOURCE_KEY));
+
+        first.write(4, new Rect(0, 0, 2048, 2048), bytes(100, 1));
+        second.write(4, new Rect(2048, 0, 4096, 2048), bytes(60, 2));
+        assertArrayEquals(bytes(60, 2), first.read(new TileKey(SOURCE_KEY, 4, new Rect(2048, 0, 4096, 2048))));
+        assertArrayEquals(bytes(100, 1), second.read(new TileKey(otherKey, 4, new Rect(0, 0, 2048, 2048))));
+
+        //最后一个使用者关闭之前仍然可以读写
+        first.close();
+        first.close();
+        assertTrue(second.contains(new TileKey(otherKey, 4, new Rect(0, 0, 2048, 2048))));
+        second.close();
+        assertNull(second.read(new TileKey(otherKey, 4, new Rect(0, 0, 2048, 2048))));
+
+        DiskTileCache.Pack reopened = cache.open(DISK_KEY, SOURCE_KEY);
+        assertArrayEquals(bytes(100, 1), reopened.read(new TileKey(SOURCE_KEY, 4, new Rect(0, 0, 2048, 2048))));
+        assertArrayEquals(bytes(60, 2), reopened.read(new TileKey(SOURCE_KEY, 4, new Rect(2048, 0, 4096, 2048))));
+        reopened.close();
+    }
+
+    @Test
+    public void trim_evictsLeastRecentlyOpened() throws IOException {
+        DiskTileCache cache = new DiskTileCache(mDirectory, 3000);
+        DiskTileCache.Pack first = cache.create("a@1", "a", 100, 100);
+        first.write(1, new Rect(0, 0, 100, 100), bytes(1000, 1));
+        first.close();
+        //保证a比b更早打开
+        only(".idx").setLastModified(System.currentTimeMillis() - 60000);
+        DiskTileCache.Pack second = cache.create("b@1", "b", 100, 100);
+        second.write(1, new Rect(0, 0, 100, 100), bytes(1000, 2));
+        second.close();
+
+        DiskTileCache.Pack third = cache.create("c@1", "c", 100, 100);
+        third.write(1, new Rect(0, 0, 100, 100), bytes(1500, 3));
+        assertTrue(cache.sizeBytes() <= cache.maxSizeBytes());
+        assertNull(cache.open("a@1", "a"));
+        DiskTileCache.Pack reopened = cache.open("b@1", "b");
+        assertNotNull(reopened);
+        reopened.close();
+        third.close();
+    }
+
+    @Test
+    public void trim_skipsOpenImages() throws IOException {
+        DiskTileCache cache = new DiskTileCache(mDirectory, 1000);
+        DiskTileCache.Pack pack = cache.create("a@1", "a", 100, 100);
+        //单张图片超过上限，正在使用时也不能删除
+        pack.write(1, new Rect(0, 0, 100, 100), bytes(2000, 1));
+        pack.write(1, new Rect(100, 0, 200, 100), bytes(2000, 2));
+        assertArrayEquals(bytes(2000, 1), pack.read(new TileKey("a", 1, new Rect(0, 0, 100, 100))));
+        pack.close();
+    }
+
+    private File only(String suffix) {
+        for (File file : mDirectory.listFiles()) {
+            if (file.getName().endsWith(suffix)) {
+                return file;
+            }
+        }
+        throw new AssertionError("no " + suffix);
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.scaleImageview;
+
+import android.graphics.Rect;
+import android.graphics.drawable.ShapeDrawable;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.example.viewport.Viewport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 图片或控件尺寸变化时直接重新适应控件，不依赖全局的布局回调
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+public class FitTest {
+
+    @Test
+    public void setImageDrawable_refitsAfterZoom() {
+        ScaleImageView view = newView();
+        layout(view, 1080, 1920);
+        view.setImageDrawable(drawable(2000, 3000));
+        assertEquals(Viewport.computeFitScale(1080, 1920, 2000, 3000), view.getCurrentScale(), 0.001f);
+        doubleTap(view, 300, 500);
+
+        //新的图片使用新的缩放区间，不保留上一张的缩放
+        view.setImageDrawable(drawable(4000, 1000));
+        assertEquals(Viewport.computeFitScale(1080, 1920, 4000, 1000), view.getCurrentScale(), 0.001f);
+    }
+
+    @Test
+    public void drawableBeforeLayout_fitsOnSizeChanged() {
+        ScaleImageView view = newView();
+        view.setImageDrawable(drawable(2000, 3000));
+        layout(view, 1080, 1920);
+        assertEquals(Viewport.computeFitScale(1080, 1920, 2000, 3000), view.getCurrentScale(), 0.001f);
+    }
+
+    @Test
+    public void resize_keepsRelativeZoomAndCenter() {
+        ScaleImageView view = newView();
+        layout(view, 1080, 1920);
+        view.setImageDrawable(drawable(2000, 3000));
+        //横向居中放大，缩放后中心点不会被边界修正
+        doubleTap(view, 540, 800);
+        float[] center = visibleCenter(view);
+
+        //进入分屏后控件变矮
+        layout(view, 1080, 900);
+        assertEquals(Viewport.MID_ZOOM * Viewport.computeFitScale(1080, 900, 2000, 3000),
+                view.getCurrentScale(), 0.001f);
+        float[] resized = visibleCenter(view);
+        assertEquals(center[0], resized[0], 2);
+        assertEquals(center[1], resized[1], 2);
+    }
+
+    private static ScaleImageView newView() {
+        ScaleImageView view = new ScaleImageView(RuntimeEnvironment.getApplication());
+        view.setScaleEnable(true);
+        view.setDoubleTapEnable(true);
+        return view;
+    }
+
+    private static void layout(ScaleImageView view, int width, int height) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, height);
+    }
+
+    private static ShapeDrawable drawable(int width, int height) {
+        ShapeDrawable drawable = new ShapeDrawable();
+        drawable.setIntrinsicWidth(width);
+        drawable.setIntrinsicHeight(height);
+        return drawable;
+    }
+
+    /**
+     * 可见区域中心在原图中的坐标
+     */
+    private static float[] visibleCenter(ScaleImageView view) {
+        Rect region = view.getVisibleSourceRegion();
+        return new float[]{region.exactCenterX(), region.exactCenterY()};
+    }
+
+    private static void doubleTap(ScaleImageView view, float x, float y) {
+        for (int i = 0; i < 2; i++) {
+            long time = SystemClock.uptimeMillis();
+            view.onTouch(view, MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, x, y, 0));
+            view.onTouch(view, MotionEvent.obtain(time, time + 10, MotionEvent.ACTION_UP, x, y, 0));
+            shadowOf(Looper.getMainLooper()).idleFor(50, TimeUnit.MILLISECONDS);
+        }
+        shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+        assertTrue("double tap did not zoom", view.isScaled());
+    }
+}
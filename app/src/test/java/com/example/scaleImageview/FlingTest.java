@@ -0,0 +1,128 @@
+package com.example.scaleImageview;
+
+import android.app.Activity;
+import android.graphics.Rect;
+import android.graphics.drawable.ShapeDrawable;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.ViewGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 放大后快速拖动松手，图片继续惯性滑动，不会越过边界，新的按下会停止滑动
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+public class FlingTest {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int SOURCE_WIDTH = 2000;
+    private static final int SOURCE_HEIGHT = 3000;
+
+    private ScaleImageView mView;
+
+    @Before
+    public void setUp() {
+        //惯性滑动通过postOnAnimation驱动，控件需要添加到窗口中
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        mView = new ScaleImageView(activity);
+        mView.setScaleEnable(true);
+        mView.setDoubleTapEnable(true);
+        activity.setContentView(mView, new ViewGroup.LayoutParams(VIEW_WIDTH, VIEW_HEIGHT));
+        shadowOf(Looper.getMainLooper()).idle();
+        ShapeDrawable drawable = new ShapeDrawable();
+        drawable.setIntrinsicWidth(SOURCE_WIDTH);
+        drawable.setIntrinsicHeight(SOURCE_HEIGHT);
+        mView.setImageDrawable(drawable);
+        doubleTap(540, 960);
+    }
+
+    @Test
+    public void fastRelease_keepsScrollingWithinBorder() {
+        Rect released = flingLeft();
+        idleFrames(5);
+        Rect moving = mView.getVisibleSourceRegion();
+        //内容向左滑动，可见区域向原图右侧移动
+        assertTrue(moving + " after " + released, moving.left > released.left);
+        assertInside(moving);
+
+        shadowOf(Looper.getMainLooper()).idleFor(3, TimeUnit.SECONDS);
+        Rect settled = mView.getVisibleSourceRegion();
+        assertTrue(settled + " after " + moving, settled.left >= moving.left);
+        //滑动距离足够远，停在右边界上
+        assertInside(settled);
+        assertEquals(SOURCE_WIDTH, settled.right, 1);
+        //只在横向滑动
+        assertEquals(released.top, settled.top);
+    }
+
+    @Test
+    public void actionDown_cancelsFling() {
+        Rect released = flingLeft();
+        idleFrames(2);
+        long time = SystemClock.uptimeMillis();
+        mView.onTouch(mView, MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, 540, 960, 0));
+        Rect stopped = mView.getVisibleSourceRegion();
+        assertNotEquals(released, stopped);
+
+        shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+        assertEquals(stopped, mView.getVisibleSourceRegion());
+        mView.onTouch(mView, MotionEvent.obtain(time, time + 10, MotionEvent.ACTION_UP, 540, 960, 0));
+    }
+
+    /**
+     * 向左快速拖动后松手
+     *
+     * @return 松手时的可见区域
+     */
+    private Rect flingLeft() {
+        long downTime = SystemClock.uptimeMillis();
+        float x = 900;
+        mView.onTouch(mView, MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, x, 960, 0));
+        long time = downTime;
+        for (int i = 0; i < 8; i++) {
+            time += 10;
+            x -= 40;
+            mView.onTouch(mView, MotionEvent.obtain(downTime, time, MotionEvent.ACTION_MOVE, x, 960, 0));
+        }
+        time += 10;
+        mView.onTouch(mView, MotionEvent.obtain(downTime, time, MotionEvent.ACTION_UP, x, 960, 0));
+        return mView.getVisibleSourceRegion();
+    }
+
+    private static void idleFrames(int frames) {
+        for (int i = 0; i < frames; i++) {
+            shadowOf(Looper.getMainLooper()).idleFor(16, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void assertInside(Rect region) {
+        assertTrue(region.toString(), region.left >= 0 && region.top >= 0
+                && region.right <= SOURCE_WIDTH && region.bottom <= SOURCE_HEIGHT);
+    }
+
+    private void doubleTap(float x, float y) {
+        for (int i = 0; i < 2; i++) {
+            long time = SystemClock.uptimeMillis();
+            mView.onTouch(mView, MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, x, y, 0));
+            mView.onTouch(mView, MotionEvent.obtain(time, time + 10, MotionEvent.ACTION_UP, x, y, 0));
+            shadowOf(Looper.getMainLooper()).idleFor(50, TimeUnit.MILLISECONDS);
+        }
+        shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+        assertTrue("double tap did not zoom", mView.isScaled());
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.scaleImageview;
+
+import android.app.Activity;
+import android.graphics.Matrix;
+import android.graphics.drawable.ShapeDrawable;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 同一帧内的多个触摸事件只更新一次矩阵，且结果与逐个应用一致
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class FrameCoalescingTest {
+    private static final long FRAME_MILLIS = 20;
+
+    private GestureReplayer.CountingScaleImageView mView;
+    private long mDownTime;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        mView = new GestureReplayer.CountingScaleImageView(activity);
+        mView.setScaleEnable(true);
+        ShapeDrawable drawable = new ShapeDrawable();
+        drawable.setIntrinsicWidth(2000);
+        drawable.setIntrinsicHeight(3000);
+        mView.setImageDrawable(drawable);
+        activity.setContentView(mView);
+        shadowOf(Looper.getMainLooper()).idle();
+        mDownTime = SystemClock.uptimeMillis();
+        zoomIn();
+    }
+
+    @Test
+    public void moves_withinOneFrame_applyOnce() {
+        float startX = translateX();
+        float centerX = mView.getWidth() / 2f;
+        float centerY = mView.getHeight() / 2f;
+        mView.matrixUpdates = 0;
+        mView.onTouch(mView, obtain(MotionEvent.ACTION_DOWN, centerX, centerY));
+        //第一次移动超过touchSlop后开始拖动
+        float x = centerX + 40;
+        mView.onTouch(mView, obtain(MotionEvent.ACTION_MOVE, x, centerY));
+        for (int i = 0; i < 9; i++) {
+            x += 5;
+            mView.onTouch(mView, obtain(MotionEvent.ACTION_MOVE, x, centerY));
+        }
+        assertEquals("matrix must not change before the next frame", 0, mView.matrixUpdates);
+
+        shadowOf(Looper.getMainLooper()).idleFor(FRAME_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals(1, mView.matrixUpdates);
+        assertEquals(x - centerX, translateX() - startX, 0.01f);
+    }
+
+    @Test
+    public void historicalSamples_areAccumulated() {
+        float startX = translateX();
+        float centerX = mView.getWidth() / 2f;
+        float centerY = mView.getHeight() / 2f;
+        mView.onTouch(mView, obtain(MotionEvent.ACTION_DOWN, centerX, centerY));
+        mView.onTouch(mView, obtain(MotionEvent.ACTION_MOVE, centerX + 40, centerY));
+        //一个事件中批量携带的多个采样
+        MotionEvent event = MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(), MotionEvent.ACTION_MOVE, centerX + 45, centerY, 0);
+        for (int i = 2; i <= 6; i++) {
+            event.addBatch(SystemClock.uptimeMillis(), centerX + 40 + 5 * i, centerY, 1, 1, 0);
+        }
+        assertEquals(5, event.getHistorySize());
+        mView.onTouch(mView, event);
+        shadowOf(Looper.getMainLooper()).idleFor(FRAME_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals(70, translateX() - startX, 0.01f);
+    }
+
+    private void zoomIn() {
+        float spread = 20;
+        mView.onTouch(mView, obtain(MotionEvent.ACTION_DOWN, mView.getWidth() / 2f, mView.getHeight() / 2f));
+        mView.onTouch(mView, obtainPinch(MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), spread));
+        for (; spread <= 200; spread += 10) {
+            mView.onTouch(mView, obtainPinch(MotionEvent.ACTION_MOVE, spread));
+        }
+        mView.onTouch(mView, obtainPinch(MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), spread));
+        mView.onTouch(mView, obtain(MotionEvent.ACTION_UP, mView.getWidth() / 2f, mView.getHeight() / 2f));
+        shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+        assertTrue(mView.isScaled());
+        mDownTime = SystemClock.uptimeMillis();
+    }
+
+    private float translateX() {
+        float[] values = new float[9];
+        mView.getImageMatrix().getValues(values);
+        return values[Matrix.MTRANS_X];
+    }
+
+    private MotionEvent obtain(int action, float x, float y) {
+        return MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(), action, x, y, 0);
+    }
+
+    private MotionEvent obtainPinch(int action, float spread) {
+        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[2];
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[2];
+        for (int i = 0; i < 2; i++) {
+            properties[i] = new MotionEvent.PointerProperties();
+            properties[i].id = i;
+            properties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[i] = new MotionEvent.PointerCoords();
+            coords[i].x = mView.getWidth() / 2f;
+            coords[i].y = mView.getHeight() / 2f + (i == 0 ? -spread : spread);
+            coords[i].pressure = 1;
+            coords[i].size = 1;
+        }
+        return MotionEvent.obtain(mDownTime, SystemClock.uptimeMillis(), action, 2, properties, coords,
+                0, 0, 1, 1, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+    }
+}
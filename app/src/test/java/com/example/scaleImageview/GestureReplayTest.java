@@ -0,0 +1,101 @@
+package com.example.scaleImageview;
+
+import com.example.viewport.Viewport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 回放src/test/resources/traces下录制的手势，校验PREVIEW_*事件分类以及报告中的矩阵更新次数
+ * 新的trace可以通过ScaleImageView.startGestureRecording()/stopGestureRecording()在真机上录制
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class GestureReplayTest {
+    //松手、边界修正等额外的矩阵更新
+    private static final int MAX_EXTRA_UPDATES = 3;
+
+    private GestureReplayer.Report replay(String name) throws IOException {
+        GestureTrace trace;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("traces/" + name + GestureTrace.FILE_EXTENSION)) {
+            assertNotNull("missing trace " + name, in);
+            trace = GestureTrace.readFrom(in);
+        }
+        GestureReplayer.Report report = GestureReplayer.replay(name, trace);
+        assertArrayEquals(name + " classification changed", trace.getResults(), report.results);
+        assertEquals(trace.getEvents().size(), report.eventNanos.length);
+        //报告失败时作为断言信息输出
+        assertTrue(report.toString(), report.allocatedBytes >= 0);
+        return report;
+    }
+
+    @Test
+    public void click() throws IOException {
+        replay("click");
+    }
+
+    @Test
+    public void switchNext() throws IOException {
+        replay("switch_next");
+    }
+
+    @Test
+    public void switchLast() throws IOException {
+        replay("switch_last");
+    }
+
+    @Test
+    public void doubleTap_zoomsToMidScale() throws IOException {
+        GestureReplayer.Report report = replay("double_tap");
+        ScaleImageView view = report.view;
+        //动画每帧更新一次矩阵
+        assertTrue(report.toString(), report.matrixUpdates > 0);
+        assertTrue(report.toString(),
+                report.matrixUpdates <= ZoomAnimator.DEFAULT_DURATION / GestureReplayer.FRAME_MILLIS + MAX_EXTRA_UPDATES);
+        assertEquals(2 * initScale(view), view.getCurrentScale(), 0.001f);
+    }
+
+    @Test
+    public void pinch_zoomsIn() throws IOException {
+        GestureReplayer.Report report = replay("pinch");
+        assertMatrixUpdatesPerMove(report);
+        assertTrue(report.view.getCurrentScale() > initScale(report.view));
+    }
+
+    @Test
+    public void pan_movesZoomedImage() throws IOException {
+        GestureReplayer.Report report = replay("pan");
+        assertMatrixUpdatesPerMove(report);
+        assertTrue(report.view.isScaled());
+    }
+
+    /**
+     * 拖动和缩放时每个移动事件最多更新一次矩阵，同一帧内的多个事件会合并，每帧最多更新一次
+     * 松手后的惯性滑动也是每帧最多更新一次
+     */
+    private static void assertMatrixUpdatesPerMove(GestureReplayer.Report report) {
+        assertTrue(report.toString(), report.gestureMatrixUpdates > 0);
+        assertTrue(report.toString(), report.gestureMatrixUpdates <= report.moveEvents + MAX_EXTRA_UPDATES);
+        assertTrue(report.toString(),
+                report.gestureMatrixUpdates <= report.durationMillis / GestureReplayer.FRAME_MILLIS + MAX_EXTRA_UPDATES);
+        assertTrue(report.toString(), report.matrixUpdates
+                <= report.gestureMatrixUpdates + GestureReplayer.SETTLE_MILLIS / GestureReplayer.FRAME_MILLIS + MAX_EXTRA_UPDATES);
+    }
+
+    private static float initScale(ScaleImageView view) {
+        return Viewport.computeFitScale(view.getWidth(), view.getHeight(),
+                view.getDrawable().getIntrinsicWidth(), view.getDrawable().getIntrinsicHeight());
+    }
+}
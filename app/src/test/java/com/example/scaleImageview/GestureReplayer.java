@@ -0,0 +1,207 @@
+package com.example.scaleImageview;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Matrix;
+import android.graphics.drawable.ShapeDrawable;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.ViewGroup;
+
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowChoreographer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 把GestureTrace回放到添加到窗口中的ScaleImageView上，统计每个事件的处理耗时、setImageMatrix次数以及分配的字节数
+ * 控件在窗口中时矩阵更新按帧合并，与设备上一致
+ * 分配的字节数是JVM上的粗略值，包含Robolectric的shadow实现在每个事件上分配的对象，只用于比较同一个trace前后的变化，
+ * 真实的分配由设备上运行的ScaleImageViewAllocationTest统计
+ */
+class GestureReplayer {
+    //回放结束后等待动画和惯性滑动结束的时间
+    static final long SETTLE_MILLIS = 1000;
+    //与设备上60Hz的刷新间隔一致，Robolectric默认每1ms一帧
+    static final long FRAME_MILLIS = 16;
+
+    /**
+     * 统计setImageMatrix调用次数的ScaleImageView，每次调用都会触发重绘
+     */
+    static class CountingScaleImageView extends ScaleImageView {
+        int matrixUpdates;
+
+        CountingScaleImageView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void setImageMatrix(Matrix matrix) {
+            matrixUpdates++;
+            super.setImageMatrix(matrix);
+        }
+    }
+
+    static final class Report {
+        final String name;
+        final long[] eventNanos;
+        //ACTION_MOVE事件的数量，不包括其中的历史采样
+        final int moveEvents;
+        //第一个事件到最后一个事件的时长
+        final long durationMillis;
+        //松手之前的矩阵更新次数，不包括之后的动画和惯性滑动
+        final int gestureMatrixUpdates;
+        final int matrixUpdates;
+        //处理事件期间当前线程分配的字节数，JVM不支持统计时为-1
+        final long allocatedBytes;
+        final int[] results;
+        final CountingScaleImageView view;
+
+        Report(String name, long[] eventNanos, int moveEvents, long durationMillis, int gestureMatrixUpdates, int matrixUpdates,
+               long allocatedBytes, int[] results, CountingScaleImageView view) {
+            this.name = name;
+            this.eventNanos = eventNanos;
+            this.moveEvents = moveEvents;
+            this.durationMillis = durationMillis;
+            this.gestureMatrixUpdates = gestureMatrixUpdates;
+            this.matrixUpdates = matrixUpdates;
+            this.allocatedBytes = allocatedBytes;
+            this.results = results;
+            this.view = view;
+        }
+
+        /**
+         * 每个事件处理耗时的百分位数
+         *
+         * @param percentile 0-100
+         * @return 纳秒
+         */
+        long percentileNanos(double percentile) {
+            long[] sorted = eventNanos.clone();
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s events=%d moves=%d duration=%dms p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus"
+                            + " matrixUpdates=%d/%d jvmAllocBytes=%d results=%s",
+                    name, eventNanos.length, moveEvents, durationMillis,
+                    percentileNanos(50) / 1000.0, percentileNanos(90) / 1000.0,
+                    percentileNanos(99) / 1000.0, percentileNanos(100) / 1000.0,
+                    gestureMatrixUpdates, matrixUpdates, allocatedBytes, Arrays.toString(results));
+        }
+    }
+
+    static Report replay(String name, GestureTrace trace) {
+        ShadowChoreographer.setFrameDelay(Duration.ofMillis(FRAME_MILLIS));
+        //矩阵更新通过postOnAnimation按帧合并，控件需要添加到窗口中
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        CountingScaleImageView view = new CountingScaleImageView(activity);
+        view.setScaleEnable(true);
+        view.setDoubleTapEnable(true);
+        //只需要固有尺寸，不需要真正的像素
+        ShapeDrawable drawable = new ShapeDrawable();
+        drawable.setIntrinsicWidth(trace.sourceWidth);
+        drawable.setIntrinsicHeight(trace.sourceHeight);
+        view.setImageDrawable(drawable);
+        activity.setContentView(view, new ViewGroup.LayoutParams(trace.viewWidth, trace.viewHeight));
+        shadowOf(Looper.getMainLooper()).idle();
+        view.matrixUpdates = 0;
+
+        List<Integer> results = new ArrayList<>();
+        view.setUpConsumer(results::add);
+
+        List<GestureTrace.Event> events = trace.getEvents();
+        long[] eventNanos = new long[events.size()];
+        int moveEvents = 0;
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        boolean countAllocations = threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported();
+        long allocatedBytes = 0;
+        long startTime = SystemClock.uptimeMillis();
+        long downTime = startTime;
+        for (int i = 0; i < events.size(); i++) {
+            GestureTrace.Event traced = events.get(i);
+            //推进时钟到事件发生的时间，让动画、双击检测等依赖时间的逻辑按录制时的节奏执行
+            long eventTime = startTime + traced.getEventTime();
+            long delay = startTime + traced.sampleTimes[0] - SystemClock.uptimeMillis();
+            if (delay > 0) {
+                shadowOf(Looper.getMainLooper()).idleFor(delay, TimeUnit.MILLISECONDS);
+            }
+            if ((traced.action & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN) {
+                downTime = eventTime;
+            } else if ((traced.action & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_MOVE) {
+                moveEvents++;
+            }
+            MotionEvent event = toMotionEvent(traced, startTime, downTime);
+
+            long allocatedBefore = countAllocations ? allocatedBytes(threadBean) : 0;
+            long begin = System.nanoTime();
+            view.dispatchTouchEvent(event);
+            eventNanos[i] = System.nanoTime() - begin;
+            if (countAllocations) {
+                allocatedBytes += allocatedBytes(threadBean) - allocatedBefore;
+            }
+            event.recycle();
+        }
+        int gestureMatrixUpdates = view.matrixUpdates;
+        shadowOf(Looper.getMainLooper()).idleFor(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+
+        int[] resultArray = new int[results.size()];
+        for (int i = 0; i < resultArray.length; i++) {
+            resultArray[i] = results.get(i);
+        }
+        long durationMillis = events.isEmpty() ? 0
+                : events.get(events.size() - 1).getEventTime() - events.get(0).sampleTimes[0];
+        return new Report(name, eventNanos, moveEvents, durationMillis, gestureMatrixUpdates, view.matrixUpdates,
+                countAllocations ? allocatedBytes : -1, resultArray, view);
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadBean) {
+        return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * 还原MotionEvent，历史采样通过addBatch追加
+     */
+    private static MotionEvent toMotionEvent(GestureTrace.Event traced, long startTime, long downTime) {
+        int pointerCount = traced.getPointerCount();
+        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointerCount];
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+        for (int p = 0; p < pointerCount; p++) {
+            properties[p] = new MotionEvent.PointerProperties();
+            properties[p].id = traced.pointerIds[p];
+            properties[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[p] = new MotionEvent.PointerCoords();
+            coords[p].pressure = 1;
+            coords[p].size = 1;
+        }
+        setCoords(traced, 0, coords);
+        MotionEvent event = MotionEvent.obtain(downTime, startTime + traced.sampleTimes[0], traced.action,
+                pointerCount, properties, coords, 0, 0, 1, 1, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+        for (int sample = 1; sample < traced.getSampleCount(); sample++) {
+            setCoords(traced, sample, coords);
+            event.addBatch(startTime + traced.sampleTimes[sample], coords, 0);
+        }
+        return event;
+    }
+
+    private static void setCoords(GestureTrace.Event traced, int sample, MotionEvent.PointerCoords[] coords) {
+        for (int p = 0; p < coords.length; p++) {
+            coords[p].x = traced.getX(sample, p);
+            coords[p].y = traced.getY(sample, p);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.media.ExifInterface;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 图片序列的切换以及相邻图片的预解码
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class ImageSequenceTest {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int SOURCE_COUNT = 10;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final List<ImageSource> mSources = new ArrayList<>();
+    private final List<Integer> mEvents = new ArrayList<>();
+    private PrefetchCache mPrefetchCache;
+    private ScaleImageView mView;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            File file = mFolder.newFile("image_" + i + ".jpg");
+            writeJpeg(file, 1200, 900);
+            mSources.add(ImageSource.file(file.getPath()));
+        }
+        mPrefetchCache = new PrefetchCache(64 * 1024 * 1024);
+        mView = new ScaleImageView(RuntimeEnvironment.getApplication());
+        mView.setScaleEnable(true);
+        mView.setDoubleTapEnable(true);
+        mView.setPrefetchCache(mPrefetchCache);
+        mView.setUpConsumer(mEvents::add);
+        mView.measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+        mView.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+    }
+
+    @Test
+    public void setCurrentIndex_rejectsOutOfBounds() throws Exception {
+        mView.setImageSources(mSources, 3);
+        assertEquals(3, mView.getCurrentIndex());
+        awaitShown();
+
+        assertFalse(mView.setCurrentIndex(-1));
+        assertFalse(mView.setCurrentIndex(SOURCE_COUNT));
+        assertEquals(3, mView.getCurrentIndex());
+        assertTrue(mView.setCurrentIndex(SOURCE_COUNT - 1));
+        assertFalse(mView.showNext());
+        assertEquals(SOURCE_COUNT - 1, mView.getCurrentIndex());
+        assertTrue(mView.showPrevious());
+        assertEquals(SOURCE_COUNT - 2, mView.getCurrentIndex());
+
+        //空序列清空图片
+        mView.setImageSources(Collections.emptyList(), 0);
+        assertNull(mView.getDrawable());
+        assertFalse(mView.setCurrentIndex(0));
+    }
+
+    @Test
+    public void swipe_switchesOnceAndReportsSwitched() throws Exception {
+        mView.setImageSources(mSources, 0);
+        awaitShown();
+
+        swipe(1500, 300);
+        assertEquals(1, mView.getCurrentIndex());
+        assertEquals(Collections.singletonList(ScaleImageView.PREVIEW_SWITCHED_NEXT_TYPE), mEvents);
+
+        //第一张之前没有图片，交给调用方处理
+        mEvents.clear();
+        mView.setCurrentIndex(0);
+        awaitShown();
+        swipe(300, 1500);
+        assertEquals(0, mView.getCurrentIndex());
+        assertEquals(Collections.singletonList(ScaleImageView.PREVIEW_SWITCH_LAST_TYPE), mEvents);
+    }
+
+    @Test
+    public void swipe_onZoomedImage_doesNotSwitch() throws Exception {
+        mView.setImageSources(mSources, 2);
+        awaitShown();
+        doubleTap();
+        mEvents.clear();
+
+        swipe(1500, 300);
+        assertEquals(2, mView.getCurrentIndex());
+        assertTrue(mView.isScaled());
+        assertEquals(Collections.singletonList(ScaleImageView.PREVIEW_SWITCH_NEXT_TYPE), mEvents);
+    }
+
+    @Test
+    public void prefetchCache_evictsPastByteLimit() {
+        int bytes = 100 * 100 * 4;
+        PrefetchCache cache = new PrefetchCache(bytes * 2);
+        for (int i = 0; i < 3; i++) {
+            cache.retain(mSources.get(i), new TiledImage.BaseLayer(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888),
+                    1200, 900, 1, ExifInterface.ORIENTATION_NORMAL));
+        }
+        assertEquals(bytes * 2, cache.sizeBytes());
+        assertNull(cache.get(mSources.get(0)));
+        assertNotNull(cache.get(mSources.get(1)));
+        assertNotNull(cache.get(mSources.get(2)));
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void jump_cancelsPrefetchOutsideWindow() throws Exception {
+        //预解码线程先阻塞在一个读取不到数据的输入流上，后面的任务都在排队
+        CountDownLatch release = new CountDownLatch(1);
+        ImageSource blocking = ImageSource.stream(new BlockingInputStream(release));
+        mPrefetchCache.prefetch(RuntimeEnvironment.getApplication(), blocking, VIEW_WIDTH, VIEW_HEIGHT,
+                true, null, DecodeConfig.QUALITY_BALANCED);
+        try {
+            mView.setPrefetchDepth(1);
+            mView.setImageSources(mSources, 0);
+            assertTrue(mPrefetchCache.isPending(mSources.get(1)));
+
+            mView.setCurrentIndex(7);
+            assertFalse(mPrefetchCache.isPending(mSources.get(1)));
+            assertTrue(mPrefetchCache.isPending(mSources.get(6)));
+            assertTrue(mPrefetchCache.isPending(mSources.get(8)));
+        } finally {
+            release.countDown();
+        }
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while ((mPrefetchCache.isPending(mSources.get(6)) || mPrefetchCache.isPending(mSources.get(8)))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(mPrefetchCache.get(mSources.get(6)));
+        assertNotNull(mPrefetchCache.get(mSources.get(8)));
+        //取消的任务不再解码
+        assertNull(mPrefetchCache.get(mSources.get(1)));
+    }
+
+    private void awaitShown() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!(mView.getDrawable() instanceof SourceBitmapDrawable) && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertTrue("image was not shown", mView.getDrawable() instanceof SourceBitmapDrawable);
+    }
+
+    /**
+     * 单指竖直滑动后松手
+     */
+    private void swipe(float fromY, float toY) {
+        long downTime = SystemClock.uptimeMillis();
+        mView.onTouch(mView, MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, 540, fromY, 0));
+        long time = downTime;
+        for (int i = 1; i <= 10; i++) {
+            time += 16;
+            mView.onTouch(mView, MotionEvent.obtain(downTime, time, MotionEvent.ACTION_MOVE,
+                    540, fromY + (toY - fromY) * i / 10, 0));
+        }
+        mView.onTouch(mView, MotionEvent.obtain(downTime, time + 16, MotionEvent.ACTION_UP, 540, toY, 0));
+        shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+    }
+
+    private void doubleTap() {
+        for (int i = 0; i < 2; i++) {
+            long time = SystemClock.uptimeMillis();
+            mView.onTouch(mView, MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, 540, 960, 0));
+            mView.onTouch(mView, MotionEvent.obtain(time, time + 10, MotionEvent.ACTION_UP, 540, 960, 0));
+            shadowOf(Looper.getMainLooper()).idleFor(50, TimeUnit.MILLISECONDS);
+        }
+        shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+        assertTrue("double tap did not zoom", mView.isScaled());
+    }
+
+    private static void writeJpeg(File file, int width, int height) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * 放行之前读取一直阻塞，之后返回数据结束
+     */
+    private static final class BlockingInputStream extends InputStream {
+        private final CountDownLatch mRelease;
+
+        BlockingInputStream(CountDownLatch release) {
+            mRelease = release;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                mRelease.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.scaleImageview;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class MemoryBudgetTest {
+    private static final int MB = 1024 * 1024;
+
+    private MemoryBudget mBudget;
+    private TileCache mTileCache;
+    private final Object mOwner = new Object();
+
+    @Before
+    public void setUp() {
+        mBudget = new MemoryBudget(10 * MB);
+        mTileCache = new TileCache(8 * MB);
+        mBudget.track(mTileCache);
+        //屏幕外的图块共4MB
+        for (int i = 0; i < 4; i++) {
+            mTileCache.put(new TileKey("key", 1, new Rect(i * 512, 0, (i + 1) * 512, 512)),
+                    Bitmap.createBitmap(512, 512, Bitmap.Config.ARGB_8888));
+        }
+        mBudget.setHeldBytes(mOwner, 5 * MB);
+    }
+
+    @Test
+    public void canAllocate_shedsOffscreenTilesBeforeRefusing() {
+        assertEquals(9 * MB, mBudget.getUsedBytes());
+        assertTrue(mBudget.canAllocate(MB / 2));
+        assertEquals("fits without shedding", 4 * MB, mTileCache.sizeBytes());
+
+        assertTrue(mBudget.canAllocate(2 * MB));
+        assertEquals(0, mTileCache.sizeBytes());
+        assertEquals(5 * MB, mBudget.getUsedBytes());
+
+        assertFalse(mBudget.canAllocate(6 * MB));
+    }
+
+    @Test
+    public void hasRoom_checksWithoutShedding() {
+        PrefetchCache prefetchCache = new PrefetchCache(4 * MB);
+        mBudget.track(prefetchCache);
+        prefetchCache.retain(ImageSource.file("/sdcard/next.jpg"), new TiledImage.BaseLayer(
+                Bitmap.createBitmap(256, 256, Bitmap.Config.ARGB_8888), 256, 256, 1, ExifInterface.ORIENTATION_NORMAL));
+        assertTrue(mBudget.hasRoom(MB / 2));
+        assertFalse(mBudget.hasRoom(2 * MB));
+        //预解码的图片和屏幕外的图块都还在
+        assertEquals(256 * 256 * 4, prefetchCache.sizeBytes());
+        assertEquals(4 * MB, mTileCache.sizeBytes());
+    }
+
+    @Test
+    public void canAllocate_offMainThread_refusesAndShedsOnMainThread() throws InterruptedException {
+        AtomicBoolean allowed = new AtomicBoolean(true);
+        Thread worker = new Thread(() -> allowed.set(mBudget.canAllocate(2 * MB)));
+        worker.start();
+        worker.join();
+        //解码线程不释放缓存，主线程可能正在取出其中的图块
+        assertFalse(allowed.get());
+        assertEquals(4 * MB, mTileCache.sizeBytes());
+
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(0, mTileCache.sizeBytes());
+        assertTrue(mBudget.canAllocate(2 * MB));
+    }
+
+    @Test
+    public void fitSampleSize_downgradesUntilItFits() {
+        mTileCache.clear();
+        //剩余5MB，4000x4000需要采样率4才能放下
+        assertEquals(4, mBudget.fitSampleSize(4000, 4000, 1, 4));
+        assertEquals(8, mBudget.fitSampleSize(4000, 4000, 8, 4));
+    }
+
+    @Test
+    public void onTrimMemory_shedsInStages() {
+        mBudget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals("only prefetched images are dropped", 4 * MB, mTileCache.sizeBytes());
+
+        mBudget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(0, mTileCache.sizeBytes());
+        assertEquals("the held base layer is kept", 5 * MB, mBudget.getUsedBytes());
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 批量生成底图，再次运行时只处理新增或修改过的文件
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class PreviewBatchGeneratorTest {
+    private static final int TARGET_WIDTH = 1080;
+    private static final int TARGET_HEIGHT = 1920;
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mImages;
+    private DiskTileCache mDiskTileCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mImages = mFolder.newFolder("images");
+        mDiskTileCache = new DiskTileCache(mFolder.newFolder("cache"), 64L * 1024 * 1024);
+        writeJpeg(new File(mImages, "a.jpg"), 4000, 3000, 0xff336699);
+        writeJpeg(new File(mImages, "b.jpg"), 3000, 4000, 0xff996633);
+        //不大于屏幕的图片不需要底图
+        writeJpeg(new File(mImages, "small.jpg"), 500, 400, 0xff669933);
+        try (OutputStream out = new FileOutputStream(new File(mImages, "notes.txt"))) {
+            out.write("not an image".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void generate_isIncremental() throws Exception {
+        PreviewBatchGenerator.Result first = run();
+        assertEquals(2, first.generated);
+        assertEquals(4, first.generated + first.skipped + first.failed);
+        assertFalse(first.cancelled);
+        assertTrue(first.getImagesPerSecond() > 0);
+        assertCached(new File(mImages, "a.jpg"), 4000, 3000);
+
+        //底图都是最新的
+        PreviewBatchGenerator.Result second = run();
+        assertEquals(0, second.generated);
+
+        //修改过的文件重新生成
+        File changed = new File(mImages, "b.jpg");
+        writeJpeg(changed, 3000, 4000, 0xff000000);
+        changed.setLastModified(changed.lastModified() + 2000);
+        PreviewBatchGenerator.Result third = run();
+        assertEquals(1, third.generated);
+    }
+
+    private PreviewBatchGenerator.Result run() throws InterruptedException {
+        final PreviewBatchGenerator.Result[] result = new PreviewBatchGenerator.Result[1];
+        PreviewBatchGenerator.generate(RuntimeEnvironment.getApplication(), Arrays.asList(mImages.listFiles()),
+                TARGET_WIDTH, TARGET_HEIGHT, mDiskTileCache, new PreviewBatchGenerator.Callback() {
+                    @Override
+                    public void onProgress(int done, int total) {
+                    }
+
+                    @Override
+                    public void onBatchComplete(PreviewBatchGenerator.Result r) {
+                        result[0] = r;
+                    }
+                });
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (result[0] == null && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertNotNull("batch did not complete", result[0]);
+        return result[0];
+    }
+
+    /**
+     * 打开图片时TiledImage按同样的键读取底图
+     */
+    private void assertCached(File file, int width, int height) {
+        ImageSource source = ImageSource.file(file.getPath());
+        DiskTileCache.Pack pack = mDiskTileCache.open(source.getDiskCacheKey(RuntimeEnvironment.getApplication()), source.getKey());
+        assertNotNull(pack);
+        try {
+            int sampleSize = TiledImage.calculateSampleSize(TiledImage.fitScale(TARGET_WIDTH, TARGET_HEIGHT, width, height,
+                    ExifInterface.ORIENTATION_NORMAL));
+            assertTrue(pack.contains(new TileKey(source.getKey(), sampleSize, new Rect(0, 0, width, height))));
+        } finally {
+            pack.close();
+        }
+    }
+
+    private static void writeJpeg(File file, int width, int height, int color) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        bitmap.recycle();
+    }
+}
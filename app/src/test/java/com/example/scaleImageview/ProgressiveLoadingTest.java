@@ -0,0 +1,172 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 数据逐步到达时先显示部分解码的预览，数据完整后替换为底图且矩阵不变
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class ProgressiveLoadingTest {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private ScaleImageView mView;
+    private byte[] mJpeg;
+    private boolean mBaseLayerReady;
+
+    @Before
+    public void setUp() {
+        mView = new ScaleImageView(RuntimeEnvironment.getApplication());
+        mView.measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+        mView.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        //底图解码完成时会回调持有的bitmap字节数
+        mView.setMetricsListener(new ScaleImageMetrics() {
+            @Override
+            public void onBitmapMemory(long bytes) {
+                super.onBitmapMemory(bytes);
+                mBaseLayerReady = true;
+            }
+        });
+        mJpeg = createNoiseJpeg(3000, 4000);
+    }
+
+    @Test
+    public void stream_showsPreviewBeforeAllBytesArrive() throws Exception {
+        SlowInputStream in = new SlowInputStream(mJpeg);
+        in.allow(mJpeg.length / 2);
+        mView.setImageSource(ImageSource.stream(in));
+
+        Drawable preview = waitForDrawable(null);
+        assertFalse("preview should appear before the stream ends", in.isFinished());
+        assertEquals(3000, preview.getIntrinsicWidth());
+        assertEquals(4000, preview.getIntrinsicHeight());
+        Matrix fitted = new Matrix(mView.getImageMatrix());
+
+        in.allow(mJpeg.length);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!mBaseLayerReady && System.currentTimeMillis() < deadline) {
+            idle();
+        }
+        assertTrue("base layer was not decoded", mBaseLayerReady);
+        assertTrue(in.isFinished());
+        assertNotSame(preview, mView.getDrawable());
+        assertEquals("upgrading the preview must not move the image", fitted, mView.getImageMatrix());
+    }
+
+    private Drawable waitForDrawable(Drawable previous) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            idle();
+            Drawable drawable = mView.getDrawable();
+            if (drawable != null && drawable != previous) {
+                return drawable;
+            }
+        }
+        fail("no drawable within " + TIMEOUT_MILLIS + "ms");
+        return null;
+    }
+
+    private static void idle() throws InterruptedException {
+        shadowOf(Looper.getMainLooper()).idle();
+        Thread.sleep(10);
+    }
+
+    /**
+     * 随机噪点压缩率很低，保证文件足够大，可以分多次到达
+     */
+    private static byte[] createNoiseJpeg(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Random random = new Random(42);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = 0xff000000 | random.nextInt(0x1000000);
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    /**
+     * 模拟慢速网络或者正在写入的文件，只能读到已经放行的字节，其余的读取会阻塞
+     */
+    static final class SlowInputStream extends InputStream {
+        private final byte[] mData;
+        private int mPosition;
+        private int mAllowed;
+
+        SlowInputStream(byte[] data) {
+            mData = data;
+        }
+
+        synchronized void allow(int bytes) {
+            mAllowed = Math.min(mData.length, bytes);
+            notifyAll();
+        }
+
+        synchronized boolean isFinished() {
+            return mPosition >= mData.length;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mPosition >= mData.length) {
+                return -1;
+            }
+            while (mPosition >= mAllowed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            //每次最多返回4KB，模拟分包到达
+            int count = Math.min(Math.min(length, 4096), mAllowed - mPosition);
+            System.arraycopy(mData, mPosition, buffer, offset, count);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.example.viewport.Viewport;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 复用的控件绑定新图片后回到适应控件的初始状态
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RebindTest {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void metrics_sharedWhileConfigurationUnchanged() {
+        assertSame(ViewMetrics.get(RuntimeEnvironment.getApplication()),
+                ViewMetrics.get(RuntimeEnvironment.getApplication()));
+    }
+
+    @Test
+    public void rebind_resetsZoomAndShowsNewSource() throws Exception {
+        ScaleImageView view = new ScaleImageView(RuntimeEnvironment.getApplication());
+        view.setScaleEnable(true);
+        view.setDoubleTapEnable(true);
+        view.measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        view.setImageDrawable(new BitmapDrawable(view.getResources(),
+                Bitmap.createBitmap(2000, 3000, Bitmap.Config.ARGB_8888)));
+        doubleTap(view);
+        assertTrue(view.isScaled());
+
+        File file = mFolder.newFile("next.jpg");
+        writeJpeg(file, 1200, 900);
+        view.rebind(ImageSource.file(file.getPath()));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!(view.getDrawable() instanceof SourceBitmapDrawable) && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertTrue("new source was not shown", view.getDrawable() instanceof SourceBitmapDrawable);
+        assertEquals(Viewport.computeFitScale(VIEW_WIDTH, VIEW_HEIGHT, 1200, 900), view.getCurrentScale(), 0.001f);
+        assertFalse(view.isScaled());
+    }
+
+    private static void doubleTap(ScaleImageView view) {
+        for (int i = 0; i < 2; i++) {
+            long time = SystemClock.uptimeMillis();
+            view.onTouch(view, MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, 300, 500, 0));
+            view.onTouch(view, MotionEvent.obtain(time, time + 10, MotionEvent.ACTION_UP, 300, 500, 0));
+            shadowOf(Looper.getMainLooper()).idleFor(50, TimeUnit.MILLISECONDS);
+        }
+        shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+    }
+
+    private static void writeJpeg(File file, int width, int height) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        bitmap.recycle();
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 按原图分辨率导出可见区域，导出的内容与getVisibleSourceRegion一致并按EXIF方向摆正
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RegionExporterTest {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int SOURCE_WIDTH = 1200;
+    private static final int SOURCE_HEIGHT = 800;
+    //原图四个象限的颜色：左上、右上、左下、右下
+    private static final int[] QUADRANT_COLORS = {Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW};
+    //象限边界附近受JPEG压缩影响，不检查
+    private static final int EDGE_MARGIN = 16;
+    private static final int COLOR_TOLERANCE = 48;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void exportVisibleRegion_matchesRegionAtFullResolutionUpright() throws Exception {
+        File file = mFolder.newFile("rotated.jpg");
+        writeQuadrantJpeg(file, ExifInterface.ORIENTATION_ROTATE_90);
+        ScaleImageView view = new ScaleImageView(RuntimeEnvironment.getApplication());
+        view.setScaleEnable(true);
+        view.setDoubleTapEnable(true);
+        view.measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        view.setImageSource(ImageSource.file(file.getPath()));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!(view.getDrawable() instanceof SourceBitmapDrawable) && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertTrue("image was not shown", view.getDrawable() instanceof SourceBitmapDrawable);
+        //偏离中心放大，可见区域只是原图的一部分
+        doubleTap(view, 300, 500);
+
+        Rect region = view.getVisibleSourceRegion();
+        assertTrue(region.toString(), region.width() < SOURCE_WIDTH || region.height() < SOURCE_HEIGHT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Recorder recorder = new Recorder();
+        view.exportVisibleRegion(0, Bitmap.CompressFormat.PNG, 100, out, recorder);
+        recorder.await();
+        assertEquals(Recorder.COMPLETE, recorder.state);
+        //旋转90度后宽高互换
+        assertEquals(region.height(), recorder.width);
+        assertEquals(region.width(), recorder.height);
+
+        Bitmap exported = decode(out.toByteArray());
+        assertEquals(recorder.width, exported.getWidth());
+        assertEquals(recorder.height, exported.getHeight());
+
+        //Robolectric的区域解码不输出真实的像素，内容从内存中的原图按同样的区域和方向导出后检查
+        Bitmap source = BitmapFactory.decodeFile(file.getPath());
+        File upright = new File(mFolder.getRoot(), "upright.png");
+        Recorder fromBitmap = new Recorder();
+        RegionExporter.export(RuntimeEnvironment.getApplication(), null, source, region, ExifInterface.ORIENTATION_ROTATE_90,
+                0, Bitmap.CompressFormat.PNG, 100, upright, fromBitmap);
+        fromBitmap.await();
+        assertEquals(Recorder.COMPLETE, fromBitmap.state);
+        Bitmap content = BitmapFactory.decodeFile(upright.getPath());
+        assertNotNull(content);
+        assertEquals(recorder.width, content.getWidth());
+        assertEquals(recorder.height, content.getHeight());
+        assertQuadrants(content, region, ExifInterface.ORIENTATION_ROTATE_90);
+    }
+
+    @Test
+    public void cancel_reportsCancelledAndDeletesFile() throws Exception {
+        //先让导出线程阻塞在一个任务上，保证取消发生在第二个任务开始之前
+        final CountDownLatch release = new CountDownLatch(1);
+        OutputStream blocking = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                try {
+                    release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.write(b, off, len);
+            }
+        };
+        Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        Recorder first = new Recorder();
+        RegionExporter.export(RuntimeEnvironment.getApplication(), bitmap, new Rect(0, 0, 64, 64), 0,
+                Bitmap.CompressFormat.PNG, 100, blocking, first);
+
+        File source = mFolder.newFile("source.jpg");
+        writeQuadrantJpeg(source, ExifInterface.ORIENTATION_NORMAL);
+        File output = new File(mFolder.getRoot(), "cancelled.png");
+        Recorder second = new Recorder();
+        RegionExporter.Task task = RegionExporter.export(RuntimeEnvironment.getApplication(), ImageSource.file(source.getPath()),
+                null, new Rect(0, 0, SOURCE_WIDTH, SOURCE_HEIGHT), ExifInterface.ORIENTATION_NORMAL, 0,
+                Bitmap.CompressFormat.PNG, 100, output, second);
+        task.cancel();
+        assertTrue(task.isCancelled());
+        release.countDown();
+
+        first.await();
+        assertEquals(Recorder.COMPLETE, first.state);
+        second.await();
+        assertEquals(Recorder.CANCELLED, second.state);
+        assertFalse(output.exists());
+    }
+
+    @Test
+    public void failure_reportedForEmptyRegionAndMissingSource() throws Exception {
+        Recorder empty = new Recorder();
+        RegionExporter.export(RuntimeEnvironment.getApplication(), Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888),
+                new Rect(), 0, Bitmap.CompressFormat.PNG, 100, new ByteArrayOutputStream(), empty);
+        empty.await();
+        assertEquals(Recorder.FAILED, empty.state);
+        assertTrue(String.valueOf(empty.error), empty.error instanceof IllegalArgumentException);
+
+        Recorder missing = new Recorder();
+        RegionExporter.export(RuntimeEnvironment.getApplication(),
+                ImageSource.file(new File(mFolder.getRoot(), "missing.jpg").getPath()), new Rect(0, 0, 10, 10),
+                ExifInterface.ORIENTATION_NORMAL, 0, Bitmap.CompressFormat.PNG, 100, new ByteArrayOutputStream(), missing);
+        missing.await();
+        assertEquals(Recorder.FAILED, missing.state);
+        assertNotNull(missing.error);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullCallback_rejectedOnCallingThread() {
+        RegionExporter.export(RuntimeEnvironment.getApplication(), Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888),
+                new Rect(0, 0, 8, 8), 0, Bitmap.CompressFormat.PNG, 100, new ByteArrayOutputStream(), null);
+    }
+
+    private static Bitmap decode(byte[] data) {
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+        assertNotNull(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 按输出的像素反推原图中的位置，离象限边界足够远的像素颜色要与原图一致
+     */
+    private static void assertQuadrants(Bitmap exported, Rect region, int orientation) {
+        Matrix toOutput = new Matrix();
+        DecodeConfig.getOrientationMatrix(orientation, region.width(), region.height(), toOutput);
+        Matrix toSource = new Matrix();
+        assertTrue(toOutput.invert(toSource));
+        float[] point = new float[2];
+        int checked = 0;
+        for (int y = 0; y < exported.getHeight(); y += 37) {
+            for (int x = 0; x < exported.getWidth(); x += 37) {
+                point[0] = x + 0.5f;
+                point[1] = y + 0.5f;
+                toSource.mapPoints(point);
+                float sourceX = region.left + point[0];
+                float sourceY = region.top + point[1];
+                if (Math.abs(sourceX - SOURCE_WIDTH / 2f) < EDGE_MARGIN || Math.abs(sourceY - SOURCE_HEIGHT / 2f) < EDGE_MARGIN) {
+                    continue;
+                }
+                int expected = QUADRANT_COLORS[(sourceY < SOURCE_HEIGHT / 2f ? 0 : 2) + (sourceX < SOURCE_WIDTH / 2f ? 0 : 1)];
+                assertColor("(" + x + ", " + y + ") from (" + sourceX + ", " + sourceY + ")",
+                        expected, exported.getPixel(x, y));
+                checked++;
+            }
+        }
+        assertTrue(checked > 100);
+    }
+
+    private static void assertColor(String message, int expected, int actual) {
+        assertTrue(message + " expected " + Integer.toHexString(expected) + " but was " + Integer.toHexString(actual),
+                Math.abs(Color.red(expected) - Color.red(actual)) <= COLOR_TOLERANCE
+                        && Math.abs(Color.green(expected) - Color.green(actual)) <= COLOR_TOLERANCE
+                        && Math.abs(Color.blue(expected) - Color.blue(actual)) <= COLOR_TOLERANCE);
+    }
+
+    private static void writeQuadrantJpeg(File file, int orientation) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(SOURCE_WIDTH, SOURCE_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        for (int i = 0; i < QUADRANT_COLORS.length; i++) {
+            paint.setColor(QUADRANT_COLORS[i]);
+            int left = i % 2 * SOURCE_WIDTH / 2;
+            int top = i / 2 * SOURCE_HEIGHT / 2;
+            canvas.drawRect(left, top, left + SOURCE_WIDTH / 2f, top + SOURCE_HEIGHT / 2f, paint);
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, out);
+        }
+        bitmap.recycle();
+        ExifInterface exif = new ExifInterface(file.getPath());
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientation));
+        exif.saveAttributes();
+    }
+
+    private static void doubleTap(ScaleImageView view, float x, float y) {
+        for (int i = 0; i < 2; i++) {
+            long time = SystemClock.uptimeMillis();
+            view.onTouch(view, MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, x, y, 0));
+            view.onTouch(view, MotionEvent.obtain(time, time + 10, MotionEvent.ACTION_UP, x, y, 0));
+            shadowOf(Looper.getMainLooper()).idleFor(50, TimeUnit.MILLISECONDS);
+        }
+        shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+        assertTrue("double tap did not zoom", view.isScaled());
+    }
+
+    /**
+     * 记录最终的回调
+     */
+    private static final class Recorder implements RegionExporter.Callback {
+        static final int PENDING = 0;
+        static final int COMPLETE = 1;
+        static final int FAILED = 2;
+        static final int CANCELLED = 3;
+
+        int state = PENDING;
+        //完成、失败和取消的回调次数之和，每次导出只能有一次
+        int finishes;
+        int width;
+        int height;
+        Exception error;
+
+        @Override
+        public void onProgress(float progress) {
+        }
+
+        @Override
+        public void onExportComplete(int width, int height) {
+            this.width = width;
+            this.height = height;
+            state = COMPLETE;
+            finishes++;
+        }
+
+        @Override
+        public void onExportFailed(Exception e) {
+            error = e;
+            state = FAILED;
+            finishes++;
+        }
+
+        @Override
+        public void onExportCancelled() {
+            state = CANCELLED;
+            finishes++;
+        }
+
+        void await() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (state == PENDING && System.currentTimeMillis() < deadline) {
+                shadowOf(Looper.getMainLooper()).idle();
+                Thread.sleep(10);
+            }
+            assertTrue("export did not finish", state != PENDING);
+            //导出线程上的任务都结束之后不能再有其他结果
+            Thread.sleep(100);
+            shadowOf(Looper.getMainLooper()).idle();
+            assertEquals(1, finishes);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.scaleImageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.net.Uri;
+
+import com.example.viewport.Viewport;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 不分块时先读取宽高，再按适应控件并放大到最大倍数后仍然清晰的最大采样率解码整张图片
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class SampledDecodeTest {
+    private static final int SOURCE_WIDTH = 4000;
+    private static final int SOURCE_HEIGHT = 3000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final Context mContext = RuntimeEnvironment.getApplication();
+
+    @Test
+    public void sampleSize_largestMeetingFitTimesMaxZoom() {
+        //适应比例0.1，放大4倍后为0.4，采样率取2
+        assertEquals(2, sampleSize(SOURCE_WIDTH / 10, SOURCE_HEIGHT / 10, SOURCE_WIDTH, SOURCE_HEIGHT, ExifInterface.ORIENTATION_NORMAL));
+        //适应比例0.05，放大4倍后为0.2，采样率取4
+        assertEquals(4, sampleSize(SOURCE_WIDTH / 20, SOURCE_HEIGHT / 20, SOURCE_WIDTH, SOURCE_HEIGHT, ExifInterface.ORIENTATION_NORMAL));
+        //旋转90度时原图的宽对应目标的高
+        assertEquals(2, sampleSize(SOURCE_HEIGHT / 10, SOURCE_WIDTH / 10, SOURCE_WIDTH, SOURCE_HEIGHT, ExifInterface.ORIENTATION_ROTATE_90));
+        //小图放大到最大倍数也不超过原图分辨率，不采样
+        assertEquals(1, sampleSize(1080, 1920, SOURCE_WIDTH, SOURCE_HEIGHT, ExifInterface.ORIENTATION_NORMAL));
+    }
+
+    @Test
+    public void file_decodesAtChosenSampleSize() throws IOException {
+        File file = writeJpeg();
+        assertDecoded(ImageSource.file(file.getPath()), SOURCE_WIDTH, SOURCE_HEIGHT, 2);
+        assertDecoded(ImageSource.file(file.getPath()), SOURCE_WIDTH, SOURCE_HEIGHT, 4);
+    }
+
+    @Test
+    public void uri_decodesAtChosenSampleSize() throws IOException {
+        final File file = writeJpeg();
+        //provider不支持文件描述符时每次解码重新打开输入流
+        Uri uri = Uri.parse("content://com.example.scaleImageview.test/sampled.jpg");
+        shadowOf(mContext.getContentResolver()).registerInputStreamSupplier(uri, () -> {
+            try {
+                return new FileInputStream(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        assertDecoded(ImageSource.uri(uri), SOURCE_WIDTH, SOURCE_HEIGHT, 2);
+    }
+
+    @Test
+    public void stream_readsBoundsThenPixelsFromSameStream() throws IOException {
+        File file = writeJpeg();
+        try (FileInputStream in = new FileInputStream(file)) {
+            assertDecoded(ImageSource.stream(in), SOURCE_WIDTH, SOURCE_HEIGHT, 2);
+        }
+    }
+
+    @Test
+    public void rotatedBuffer_decodesUnrotatedPixels() throws IOException {
+        File file = writeJpeg();
+        ExifInterface exif = new ExifInterface(file.getPath());
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(ExifInterface.ORIENTATION_ROTATE_90));
+        exif.saveAttributes();
+        byte[] data = Files.readAllBytes(file.toPath());
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.wrap(data), direct}) {
+            ImageSource source = ImageSource.byteBuffer(buffer);
+            assertEquals(ExifInterface.ORIENTATION_ROTATE_90, source.decodeExifOrientation(mContext));
+            //方向只通过矩阵应用，解码出的像素和原图的宽高一致，否则显示时会旋转两次并被拉伸
+            TiledImage.BaseLayer layer = TiledImage.decodeSampledLayer(mContext, source, ExifInterface.ORIENTATION_ROTATE_90,
+                    SOURCE_HEIGHT / 10, SOURCE_WIDTH / 10, null, DecodeConfig.QUALITY_HIGH);
+            assertEquals(SOURCE_WIDTH, layer.sourceWidth);
+            assertEquals(SOURCE_HEIGHT, layer.sourceHeight);
+            assertEquals(SOURCE_WIDTH / 2, layer.bitmap.getWidth());
+            assertEquals(SOURCE_HEIGHT / 2, layer.bitmap.getHeight());
+            layer.bitmap.recycle();
+        }
+    }
+
+    @Test
+    public void resource_decodesAtChosenSampleSize() throws IOException {
+        //mipmap-hdpi/test.png
+        assertDecoded(ImageSource.resource(R.mipmap.test), 584, 756, 2);
+    }
+
+    /**
+     * 目标尺寸取原图的1/(sampleSize*5)，适应比例乘以最大放大倍数后正好落在期望的采样率上
+     */
+    private void assertDecoded(ImageSource source, int width, int height, int expectedSampleSize) throws IOException {
+        BitmapFactory.Options header = source.decodeHeader(mContext);
+        //只读取宽高，不解码像素
+        assertTrue(header.inJustDecodeBounds);
+        assertEquals(width, header.outWidth);
+        assertEquals(height, header.outHeight);
+
+        int targetWidth = width / (expectedSampleSize * 5);
+        int targetHeight = height / (expectedSampleSize * 5);
+        assertEquals(expectedSampleSize, sampleSize(targetWidth, targetHeight, width, height, ExifInterface.ORIENTATION_NORMAL));
+        TiledImage.BaseLayer layer = TiledImage.decodeSampledLayer(mContext, source, ExifInterface.ORIENTATION_NORMAL,
+                targetWidth, targetHeight, null, DecodeConfig.QUALITY_HIGH);
+        assertEquals(width, layer.sourceWidth);
+        assertEquals(height, layer.sourceHeight);
+        assertEquals(width / expectedSampleSize, layer.bitmap.getWidth());
+        assertEquals(height / expectedSampleSize, layer.bitmap.getHeight());
+        layer.bitmap.recycle();
+    }
+
+    private static int sampleSize(int targetWidth, int targetHeight, int width, int height, int orientation) {
+        return TiledImage.calculateSampleSize(TiledImage.fitScale(targetWidth, targetHeight, width, height, orientation) * Viewport.MAX_ZOOM);
+    }
+
+    private File writeJpeg() throws IOException {
+        File file = mFolder.newFile("sampled.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(SOURCE_WIDTH, SOURCE_HEIGHT, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        bitmap.recycle();
+        return file;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.ShapeDrawable;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.example.viewport.Viewport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 屏幕旋转后恢复缩放和中心点，并直接使用保留的底图
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class SavedStateTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ShapeDrawable mDrawable;
+
+    @Before
+    public void setUp() {
+        mDrawable = new ShapeDrawable();
+        mDrawable.setIntrinsicWidth(2000);
+        mDrawable.setIntrinsicHeight(3000);
+    }
+
+    @Test
+    public void restore_keepsRelativeZoomAfterRotation() {
+        ScaleImageView portrait = newView(1080, 1920);
+        portrait.setImageDrawable(mDrawable);
+        doubleTap(portrait, 300, 500);
+        float relativeScale = portrait.getCurrentScale() / Viewport.computeFitScale(1080, 1920, 2000, 3000);
+        assertEquals(Viewport.MID_ZOOM, relativeScale, 0.01f);
+
+        Parcelable state = parcel(portrait.onSaveInstanceState());
+
+        ScaleImageView landscape = newView(1920, 1080);
+        landscape.setImageDrawable(mDrawable);
+        landscape.onRestoreInstanceState(state);
+        assertEquals(Viewport.MID_ZOOM * Viewport.computeFitScale(1920, 1080, 2000, 3000),
+                landscape.getCurrentScale(), 0.001f);
+    }
+
+    @Test
+    public void release_retainsBaseLayerForNextView() throws Exception {
+        File file = mFolder.newFile("retained.jpg");
+        writeJpeg(file, 4000, 3000);
+        PrefetchCache cache = new PrefetchCache(64 * 1024 * 1024);
+
+        ScaleImageView first = newView(1080, 1920);
+        first.setPrefetchCache(cache);
+        first.setImageSource(ImageSource.file(file.getPath()));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        //先显示的预览图同样是SourceBitmapDrawable，需要等到底图显示
+        while (first.getBaseLayer() == null && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertNotNull("base layer was not decoded", first.getBaseLayer());
+        Bitmap base = first.getBaseLayer().bitmap;
+        first.reset();
+
+        //重新创建的控件同步显示保留的底图，不需要等待解码
+        ScaleImageView second = newView(1920, 1080);
+        second.setPrefetchCache(cache);
+        second.setImageSource(ImageSource.file(file.getPath()));
+        assertNotNull(second.getDrawable());
+        assertSame(base, ((SourceBitmapDrawable) second.getDrawable()).getBitmap());
+    }
+
+    private static ScaleImageView newView(int width, int height) {
+        ScaleImageView view = new ScaleImageView(RuntimeEnvironment.getApplication());
+        view.setScaleEnable(true);
+        view.setDoubleTapEnable(true);
+        view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, height);
+        return view;
+    }
+
+    private static void doubleTap(ScaleImageView view, float x, float y) {
+        for (int i = 0; i < 2; i++) {
+            long time = SystemClock.uptimeMillis();
+            view.onTouch(view, MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, x, y, 0));
+            view.onTouch(view, MotionEvent.obtain(time, time + 10, MotionEvent.ACTION_UP, x, y, 0));
+            shadowOf(Looper.getMainLooper()).idleFor(50, TimeUnit.MILLISECONDS);
+        }
+        shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+        assertTrue("double tap did not zoom", view.isScaled());
+    }
+
+    /**
+     * 经过一次序列化，与进程被回收后恢复的路径一致
+     */
+    private static Parcelable parcel(Parcelable state) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            state.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return ScaleImageView.SavedState.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void writeJpeg(File file, int width, int height) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        bitmap.recycle();
+    }
+}
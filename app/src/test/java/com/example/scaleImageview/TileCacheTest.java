@@ -0,0 +1,127 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 缓存按字节数淘汰最久未使用的图块，淘汰的bitmap进入复用池供解码时复用
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class TileCacheTest {
+    private static final int TILE_SIZE = 64;
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+    @Test
+    public void put_pastByteLimit_evictsLeastRecentlyUsed() {
+        //复用池的大小为缓存的1/4，正好放下一个图块
+        TileCache cache = new TileCache(TILE_BYTES * 4);
+        Bitmap[] bitmaps = new Bitmap[5];
+        for (int i = 0; i < 4; i++) {
+            bitmaps[i] = newTile();
+            cache.put(key(i), bitmaps[i]);
+        }
+        assertEquals(TILE_BYTES * 4, cache.sizeBytes());
+        assertEquals(0, cache.evictionCount());
+
+        //重新显示后又离开屏幕，变为最近使用
+        Bitmap first = cache.take(key(0));
+        assertSame(bitmaps[0], first);
+        assertEquals(TILE_BYTES * 3, cache.sizeBytes());
+        cache.put(key(0), first);
+
+        bitmaps[4] = newTile();
+        cache.put(key(4), bitmaps[4]);
+        assertEquals(TILE_BYTES * 4, cache.sizeBytes());
+        assertEquals(1, cache.evictionCount());
+        assertNull(cache.take(key(1)));
+        assertEquals(TILE_BYTES, cache.getBitmapPool().getSizeBytes());
+
+        //淘汰的bitmap没有被回收，可以复用
+        Bitmap reused = cache.getBitmapPool().get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        assertSame(bitmaps[1], reused);
+        assertFalse(reused.isRecycled());
+        assertEquals(1, cache.reuseCount());
+        assertEquals(0, cache.getBitmapPool().getSizeBytes());
+
+        for (int i : new int[]{0, 2, 3, 4}) {
+            assertSame(bitmaps[i], cache.take(key(i)));
+        }
+        assertEquals(0, cache.sizeBytes());
+    }
+
+    @Test
+    public void pool_returnsOnlyExactMatchAndDropsEldestWhenFull() {
+        BitmapPool pool = new BitmapPool(TILE_BYTES * 2);
+        Bitmap a = newTile();
+        Bitmap b = newTile();
+        Bitmap c = newTile();
+        pool.put(a);
+        pool.put(b);
+        pool.put(c);
+        assertEquals(TILE_BYTES * 2, pool.getSizeBytes());
+        assertTrue(a.isRecycled());
+
+        assertNull(pool.get(TILE_SIZE, TILE_SIZE / 2, Bitmap.Config.ARGB_8888));
+        assertNull(pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.RGB_565));
+        //后放入的先取出
+        assertSame(c, pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+        assertSame(b, pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+        assertNull(pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+        assertEquals(0, pool.getSizeBytes());
+        assertEquals(2, pool.getReuseCount());
+
+        //不可变的bitmap不能作为inBitmap
+        Bitmap immutable = newTile().copy(Bitmap.Config.ARGB_8888, false);
+        pool.put(immutable);
+        assertTrue(immutable.isRecycled());
+        assertEquals(0, pool.getSizeBytes());
+    }
+
+    @Test
+    public void pooledBitmap_isReusedAsInBitmap() {
+        BitmapPool pool = new BitmapPool(TILE_BYTES);
+        Bitmap pooled = newTile();
+        pool.put(pooled);
+
+        Bitmap source = newTile();
+        source.eraseColor(0xff336699);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.compress(Bitmap.CompressFormat.PNG, 100, out);
+        byte[] data = out.toByteArray();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = pool.get(TILE_SIZE, TILE_SIZE, options.inPreferredConfig);
+        assertNotNull(options.inBitmap);
+        Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        assertSame(pooled, decoded);
+        assertEquals(0xff336699, decoded.getPixel(TILE_SIZE / 2, TILE_SIZE / 2));
+    }
+
+    private static TileKey key(int index) {
+        return new TileKey("source", 1, new Rect(index * TILE_SIZE, 0, (index + 1) * TILE_SIZE, TILE_SIZE));
+    }
+
+    private static Bitmap newTile() {
+        return Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.scaleImageview;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+public class TileGridTest {
+    private static final int SOURCE_WIDTH = 30000;
+    private static final int SOURCE_HEIGHT = 20001;
+
+    @Test
+    public void query_matchesFullScan() {
+        Random random = new Random(7);
+        for (int sampleSize = 1; sampleSize <= 8; sampleSize *= 2) {
+            TileGrid grid = new TileGrid("key", SOURCE_WIDTH, SOURCE_HEIGHT, sampleSize, 512);
+            for (int i = 0; i < 500; i++) {
+                float left = random.nextFloat() * SOURCE_WIDTH * 1.2f - SOURCE_WIDTH * 0.1f;
+                float top = random.nextFloat() * SOURCE_HEIGHT * 1.2f - SOURCE_HEIGHT * 0.1f;
+                RectF region = new RectF(left, top,
+                        left + random.nextFloat() * 4000, top + random.nextFloat() * 4000);
+                assertEquals(region.toString(), scan(grid, region), query(grid, region));
+            }
+        }
+    }
+
+    @Test
+    public void query_excludesTilesOnlyTouchingTheEdge() {
+        TileGrid grid = new TileGrid("key", 2048, 2048, 1, 512);
+        List<Tile> tiles = query(grid, new RectF(512, 512, 1024, 1024));
+        assertEquals(1, tiles.size());
+        assertEquals(new Rect(512, 512, 1024, 1024), tiles.get(0).sRect);
+    }
+
+    private static List<Tile> query(TileGrid grid, RectF region) {
+        List<Tile> out = new ArrayList<>();
+        grid.query(region, out);
+        return out;
+    }
+
+    private static List<Tile> scan(TileGrid grid, RectF region) {
+        List<Tile> out = new ArrayList<>();
+        for (int i = 0; i < grid.size(); i++) {
+            Rect rect = grid.get(i).sRect;
+            if (rect.left < region.right && region.left < rect.right
+                    && rect.top < region.bottom && region.top < rect.bottom) {
+                out.add(grid.get(i));
+            }
+        }
+        return out;
+    }
+}
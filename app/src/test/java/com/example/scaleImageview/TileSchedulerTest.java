@@ -0,0 +1,89 @@
+package com.example.scaleImageview;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+public class TileSchedulerTest {
+    private final List<String> mLog = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void runsHighestPriorityFirst_andDropsStaleTasks() throws InterruptedException {
+        TileScheduler scheduler = new TileScheduler(1);
+        //先占住唯一的工作线程，保证后面的任务都在排队
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(new FakeTask("blocker", 0) {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        FakeTask far = new FakeTask("far", 0.2f);
+        FakeTask prefetch = new FakeTask("prefetch", 1.1f);
+        FakeTask center = new FakeTask("center", 0.01f);
+        FakeTask offscreen = new FakeTask("offscreen", 0.05f);
+        CountDownLatch done = new CountDownLatch(4);
+        for (FakeTask task : new FakeTask[]{far, prefetch, center, offscreen}) {
+            task.mDone = done;
+            scheduler.submit(task);
+        }
+        //排队期间移出了屏幕
+        offscreen.mPriority = -1;
+        //排队期间移到了屏幕中心
+        far.mPriority = 0;
+        blocker.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("drop offscreen"), mLog.subList(0, 1));
+        assertEquals(Arrays.asList("run far", "run center", "run prefetch"), mLog.subList(1, 4));
+    }
+
+    private class FakeTask implements TileScheduler.Task {
+        final String mName;
+        volatile float mPriority;
+        CountDownLatch mDone;
+
+        FakeTask(String name, float priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public float getPriority() {
+            return mPriority;
+        }
+
+        @Override
+        public void drop() {
+            mLog.add("drop " + mName);
+            mDone.countDown();
+        }
+
+        @Override
+        public void run() {
+            mLog.add("run " + mName);
+            mDone.countDown();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.scaleImageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.os.Looper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * 大图按适应控件的采样率解码底图，放大后只加载可见区域内原始分辨率的图块
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 31)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class TiledImageTest {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int SOURCE_WIDTH = 4000;
+    private static final int SOURCE_HEIGHT = 3000;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void calculateSampleSize_largestPowerOfTwoNotAboveInverseScale() {
+        assertEquals(1, TiledImage.calculateSampleSize(1));
+        assertEquals(1, TiledImage.calculateSampleSize(0.6f));
+        assertEquals(2, TiledImage.calculateSampleSize(0.5f));
+        assertEquals(2, TiledImage.calculateSampleSize(0.27f));
+        assertEquals(8, TiledImage.calculateSampleSize(0.1f));
+    }
+
+    @Test
+    public void load_decodesBaseLayerAtFitSampleSize() throws Exception {
+        TiledImage image = load();
+        try {
+            TiledImage.BaseLayer base = image.getBaseLayer();
+            //适应控件的缩放比例约为0.27，取不大于1/0.27的2的幂
+            int expected = TiledImage.calculateSampleSize(TiledImage.fitScale(VIEW_WIDTH, VIEW_HEIGHT,
+                    SOURCE_WIDTH, SOURCE_HEIGHT, ExifInterface.ORIENTATION_NORMAL));
+            assertEquals(2, expected);
+            assertEquals(expected, base.sampleSize);
+            //Robolectric的区域解码不处理inSampleSize，这里不检查bitmap的尺寸
+            assertEquals(SOURCE_WIDTH, base.sourceWidth);
+            assertEquals(SOURCE_HEIGHT, base.sourceHeight);
+            assertTrue(base.hasTiles());
+        } finally {
+            image.release();
+        }
+    }
+
+    @Test
+    public void updateVisibleTiles_zoomedIn_requestsOnlyVisibleFullResolutionTiles() throws Exception {
+        TiledImage image = load();
+        try {
+            //放大到原始分辨率，显示原图中(1000, 500)开始的区域
+            Matrix matrix = new Matrix();
+            matrix.setTranslate(-1000, -500);
+            image.updateVisibleTiles(matrix, VIEW_WIDTH, VIEW_HEIGHT);
+
+            RectF visible = new RectF(1000, 500, 1000 + VIEW_WIDTH, Math.min(SOURCE_HEIGHT, 500 + VIEW_HEIGHT));
+            List<Tile> tiles = image.getVisibleTiles();
+            //第1到4列，第0到4行，整张图共8x6个图块
+            assertEquals(20, tiles.size());
+            for (Tile tile : tiles) {
+                Rect rect = tile.sRect;
+                assertEquals(1, tile.sampleSize);
+                assertTrue(rect.toString(), rect.left < visible.right && visible.left < rect.right
+                        && rect.top < visible.bottom && visible.top < rect.bottom);
+                assertTrue(rect.toString(), tile.loading || tile.bitmap != null);
+            }
+        } finally {
+            image.release();
+        }
+    }
+
+    @Test
+    public void updateVisibleTiles_tileLeavingIntoPrefetchRect_isNotDecodedAgain() throws Exception {
+        TileCache tileCache = new TileCache(64 * 1024 * 1024);
+        TiledImage image = load(tileCache);
+        try {
+            Matrix matrix = new Matrix();
+            matrix.setTranslate(-1000, -500);
+            image.updateVisibleTiles(matrix, VIEW_WIDTH, VIEW_HEIGHT);
+            List<Tile> before = new ArrayList<>(image.getVisibleTiles());
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (!allLoaded(before) && System.currentTimeMillis() < deadline) {
+                shadowOf(Looper.getMainLooper()).idle();
+                Thread.sleep(10);
+            }
+            assertTrue("visible tiles were not loaded", allLoaded(before));
+
+            //向左平移，速度向右时预加载区域落在左边，刚离开屏幕的第1、2列仍在其中
+            image.setPanVelocity(2000, 0);
+            matrix.setTranslate(-1600, -500);
+            image.updateVisibleTiles(matrix, VIEW_WIDTH, VIEW_HEIGHT);
+            int left = 0;
+            for (Tile tile : before) {
+                if (tile.sRect.right <= 1600) {
+                    left++;
+                    assertFalse(tile.sRect + " decoded again", tile.loading);
+                    assertTrue(tile.sRect.toString(), tile.prefetched);
+                    assertNotNull(tileCache.take(tile.key));
+                }
+            }
+            assertEquals(10, left);
+        } finally {
+            image.release();
+        }
+    }
+
+    private static boolean allLoaded(List<Tile> tiles) {
+        for (Tile tile : tiles) {
+            if (tile.bitmap == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private TiledImage load() throws Exception {
+        return load(new TileCache(16 * 1024 * 1024));
+    }
+
+    private TiledImage load(TileCache tileCache) throws Exception {
+        File file = mFolder.newFile("large.jpg");
+        writeJpeg(file, SOURCE_WIDTH, SOURCE_HEIGHT);
+        final boolean[] ready = new boolean[1];
+        TiledImage image = new TiledImage(RuntimeEnvironment.getApplication(), ImageSource.file(file.getPath()),
+                tileCache, new TiledImage.Callback() {
+                    @Override
+                    public void onPreviewReady(Bitmap preview, int sourceWidth, int sourceHeight, int orientation) {
+                    }
+
+                    @Override
+                    public void onBaseLayerReady(Bitmap base, int sourceWidth, int sourceHeight, int orientation) {
+                        ready[0] = true;
+                    }
+
+                    @Override
+                    public void onTileLoaded() {
+                    }
+
+                    @Override
+                    public void onLoadFailed(Exception e) {
+                        throw new AssertionError(e);
+                    }
+                });
+        image.load(VIEW_WIDTH, VIEW_HEIGHT, true);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!ready[0] && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertTrue("base layer was not decoded", ready[0]);
+        assertNotNull(image.getBaseLayer());
+        return image;
+    }
+
+    private static void writeJpeg(File file, int width, int height) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(0xff336699);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        bitmap.recycle();
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.benchmark;
+
+import com.example.viewport.Viewport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScaleImageView每个触摸事件中所做的视口计算的基准测试
+ * 运行：./gradlew :benchmark:jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewportBenchmark {
+    //事件序列的长度，2的幂，方便取模
+    private static final int EVENT_COUNT = 256;
+
+    /**
+     * 图片尺寸@控件尺寸：普通照片、超大扫描件、与屏幕等大、小图放大、超长图
+     */
+    @Param({"4000x3000@1080x1920", "12000x9000@1080x2400", "1080x1920@1080x1920", "800x600@1440x3200", "30000x2000@1080x1920"})
+    public String size;
+
+    private int mSourceWidth;
+    private int mSourceHeight;
+    private int mViewWidth;
+    private int mViewHeight;
+
+    //初始状态的视口
+    private final Viewport mFitted = new Viewport();
+    //放大到双击缩放值的视口
+    private final Viewport mZoomed = new Viewport();
+    private final float[] mVisibleRect = new float[4];
+
+    //预先生成的事件序列，来回移动和缩放，保证不会一直停在边界上
+    private final float[] mFocusX = new float[EVENT_COUNT];
+    private final float[] mFocusY = new float[EVENT_COUNT];
+    private final float[] mScaleFactors = new float[EVENT_COUNT];
+    private final float[] mDeltaX = new float[EVENT_COUNT];
+    private final float[] mDeltaY = new float[EVENT_COUNT];
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        String[] parts = size.split("@");
+        String[] source = parts[0].split("x");
+        String[] view = parts[1].split("x");
+        mSourceWidth = Integer.parseInt(source[0]);
+        mSourceHeight = Integer.parseInt(source[1]);
+        mViewWidth = Integer.parseInt(view[0]);
+        mViewHeight = Integer.parseInt(view[1]);
+
+        mFitted.setViewSize(mViewWidth, mViewHeight);
+        mFitted.setSourceSize(mSourceWidth, mSourceHeight);
+        mFitted.fit();
+        mZoomed.set(mFitted);
+        mZoomed.zoomTo(mFitted.getMidScale(), mViewWidth / 2f, mViewHeight / 2f);
+
+        Random random = new Random(42);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            mFocusX[i] = random.nextFloat() * mViewWidth;
+            mFocusY[i] = random.nextFloat() * mViewHeight;
+            //放大和缩小交替出现
+            mScaleFactors[i] = i % 2 == 0 ? 1.03f : 1 / 1.03f;
+            float dx = (random.nextFloat() - 0.5f) * 60;
+            float dy = (random.nextFloat() - 0.5f) * 60;
+            mDeltaX[i] = i % 2 == 0 ? dx : -dx;
+            mDeltaY[i] = i % 2 == 0 ? dy : -dy;
+        }
+    }
+
+    private int next() {
+        mIndex = (mIndex + 1) & (EVENT_COUNT - 1);
+        return mIndex;
+    }
+
+    @Benchmark
+    public float fitScale() {
+        return Viewport.computeFitScale(mViewWidth, mViewHeight, mSourceWidth, mSourceHeight);
+    }
+
+    @Benchmark
+    public float fit() {
+        mFitted.fit();
+        return mFitted.getTranslateY();
+    }
+
+    @Benchmark
+    public float zoomAboutFocus() {
+        int i = next();
+        mZoomed.zoomBy(mScaleFactors[i], mFocusX[i], mFocusY[i]);
+        return mZoomed.getScale();
+    }
+
+    @Benchmark
+    public float panWithBorderCorrection() {
+        int i = next();
+        mZoomed.panBy(mDeltaX[i], mDeltaY[i]);
+        return mZoomed.getTranslateX();
+    }
+
+    @Benchmark
+    public float scaleBorderCorrection() {
+        int i = next();
+        mZoomed.translate(mDeltaX[i], mDeltaY[i]);
+        mZoomed.checkBorderAndCenterWhenScale();
+        return mZoomed.getTranslateY();
+    }
+
+    @Benchmark
+    public float[] visibleSourceRect() {
+        int i = next();
+        mZoomed.translate(mDeltaX[i], mDeltaY[i]);
+        mZoomed.getVisibleSourceRect(mVisibleRect);
+        return mVisibleRect;
+    }
+
+    /**
+     * 一次完整的双指事件：缩放、平移、边界修正以及可见区域计算
+     */
+    @Benchmark
+    public float[] touchEvent() {
+        int i = next();
+        mZoomed.zoomBy(mScaleFactors[i], mFocusX[i], mFocusY[i]);
+        mZoomed.panBy(mDeltaX[i], mDeltaY[i]);
+        mZoomed.getVisibleSourceRect(mVisibleRect);
+        return mVisibleRect;
+    }
+}
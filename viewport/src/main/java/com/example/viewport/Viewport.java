@@ -0,0 +1,469 @@
+package com.example.viewport;
+
+/**
+ * 与Android无关的视口变换计算
+ * 变换只包含等比缩放和平移：viewX = sourceX * scale + translateX，
+ * 所有状态都保存在基本类型字段中，可以直接在JVM上测试和做基准测试
+ */
+public final class Viewport {
+    //双击放大和最大放大相对于初始缩放的倍数
+    public static final float MID_ZOOM = 2.0f;
+    public static final float MAX_ZOOM = 4.0f;
+
+    //控件的宽和高
+    private int mViewWidth;
+    private int mViewHeight;
+    //图片的宽和高
+    private int mSourceWidth;
+    private int mSourceHeight;
+
+    private float mScale = 1.0f;
+    private float mTranslateX;
+    private float mTranslateY;
+
+    //初始化缩放的比例
+    private float mInitScale = 1.0f;
+    //双击放大的值
+    private float mMidScale = 2.0f;
+    //放大的最大值
+    private float mMaxScale = 4.0f;
+
+    //是否超出控件宽度，即是否处于放大状态
+    private boolean isBeyondLeftAndRight;
+    //是否超出控件高度，即是否处于放大状态
+    private boolean isBeyondTopAndBottom;
+
+    public void setViewSize(int width, int height) {
+        mViewWidth = width;
+        mViewHeight = height;
+    }
+
+    public void setSourceSize(int width, int height) {
+        mSourceWidth = width;
+        mSourceHeight = height;
+    }
+
+    public int getViewWidth() {
+        return mViewWidth;
+    }
+
+    public int getViewHeight() {
+        return mViewHeight;
+    }
+
+    public int getSourceWidth() {
+        return mSourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return mSourceHeight;
+    }
+
+    /**
+     * 图片和控件的尺寸都有效
+     *
+     * @return
+     */
+    public boolean isReady() {
+        return mViewWidth > 0 && mViewHeight > 0 && mSourceWidth > 0 && mSourceHeight > 0;
+    }
+
+    /**
+     * 复制另一个视口的全部状态
+     *
+     * @param other
+     */
+    public void set(Viewport other) {
+        mViewWidth = other.mViewWidth;
+        mViewHeight = other.mViewHeight;
+        mSourceWidth = other.mSourceWidth;
+        mSourceHeight = other.mSourceHeight;
+        mScale = other.mScale;
+        mTranslateX = other.mTranslateX;
+        mTranslateY = other.mTranslateY;
+        mInitScale = other.mInitScale;
+        mMidScale = other.mMidScale;
+        mMaxScale = other.mMaxScale;
+        isBeyondLeftAndRight = other.isBeyondLeftAndRight;
+        isBeyondTopAndBottom = other.isBeyondTopAndBottom;
+    }
+
+    /**
+     * 计算图片适应控件的缩放比例
+     *
+     * @param viewWidth
+     * @param viewHeight
+     * @param sourceWidth
+     * @param sourceHeight
+     * @return
+     */
+    public static float computeFitScale(int viewWidth, int viewHeight, int sourceWidth, int sourceHeight) {
+        // 如果图片宽度比控件宽度小，高度比控件高度大，则需要缩小
+        float scale = 1.0f;
+        if (viewWidth > sourceWidth && viewHeight < sourceHeight) {
+            scale = viewHeight * 1.0f / sourceHeight;
+        }
+        // 如果图片宽度比控件宽度大，高度比控件高度小，则需要缩小
+        if (viewWidth < sourceWidth && viewHeight > sourceHeight) {
+            scale = viewWidth * 1.0f / sourceWidth;
+        }
+        // 如果图片宽高都比控件宽高大，则需要缩小。如果图片宽高都比控件宽高小，则需要放大。
+        if ((viewWidth < sourceWidth && viewHeight < sourceHeight) || (viewWidth > sourceWidth && viewHeight > sourceHeight)) {
+            scale = Math.min(viewWidth * 1.0f / sourceWidth, viewHeight * 1.0f / sourceHeight);
+        }
+        return scale;
+    }
+
+    /**
+     * 让图片适应控件并居中，同时确定缩放区间
+     */
+    public void fit() {
+        float scale = computeFitScale(mViewWidth, mViewHeight, mSourceWidth, mSourceHeight);
+        //得到初始化缩放的比例
+        mInitScale = scale;
+        mMidScale = MID_ZOOM * mInitScale;//双击放大的值
+        mMaxScale = MAX_ZOOM * mInitScale;//放大的最大值
+
+        //将图片移动到控件的中心，再以控件的中心进行缩放
+        int centerX = mViewWidth / 2;
+        int centerY = mViewHeight / 2;
+        int dx = centerX - mSourceWidth / 2;
+        int dy = centerY - mSourceHeight / 2;
+        mScale = scale;
+        mTranslateX = centerX + (dx - centerX) * scale;
+        mTranslateY = centerY + (dy - centerY) * scale;
+    }
+
+    public float getInitScale() {
+        return mInitScale;
+    }
+
+    public float getMidScale() {
+        return mMidScale;
+    }
+
+    public float getMaxScale() {
+        return mMaxScale;
+    }
+
+    /**
+     * 设置缩放区间
+     *
+     * @param initScale
+     * @param midScale
+     * @param maxScale
+     */
+    public void setScaleLimits(float initScale, float midScale, float maxScale) {
+        mInitScale = initScale;
+        mMidScale = midScale;
+        mMaxScale = maxScale;
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    public float getTranslateX() {
+        return mTranslateX;
+    }
+
+    public float getTranslateY() {
+        return mTranslateY;
+    }
+
+    /**
+     * 直接设置变换，不做任何修正
+     *
+     * @param scale
+     * @param translateX
+     * @param translateY
+     */
+    public void setTransform(float scale, float translateX, float translateY) {
+        mScale = scale;
+        mTranslateX = translateX;
+        mTranslateY = translateY;
+    }
+
+    /**
+     * 以焦点为中心缩放，缩放比例限制在initScale到maxScale之间，并做边界和居中修正
+     *
+     * @param scaleFactor
+     * @param focusX
+     * @param focusY
+     * @return 是否发生了缩放
+     */
+    public boolean zoomBy(float scaleFactor, float focusX, float focusY) {
+        float scale = mScale;
+        //最大最小控制(缩放区间 initScale --- maxScale)
+        if ((scale < mMaxScale && scaleFactor > 1.0f) || (scale > mInitScale && scaleFactor < 1.0f)) {
+            if (scale * scaleFactor > mMaxScale) {
+                scaleFactor = mMaxScale / scale;
+            }
+            if (scale * scaleFactor < mInitScale) {
+                scaleFactor = mInitScale / scale;
+            }
+            postScale(scaleFactor, focusX, focusY);
+            //不断检测 控制边界和中心位置
+            checkBorderAndCenterWhenScale();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 以焦点为中心缩放到目标值，并做边界和居中修正，不限制缩放区间
+     *
+     * @param targetScale
+     * @param focusX
+     * @param focusY
+     */
+    public void zoomTo(float targetScale, float focusX, float focusY) {
+        postScale(targetScale / mScale, focusX, focusY);
+        checkBorderAndCenterWhenScale();
+    }
+
+    private void postScale(float scaleFactor, float focusX, float focusY) {
+        mScale *= scaleFactor;
+        mTranslateX = focusX + (mTranslateX - focusX) * scaleFactor;
+        mTranslateY = focusY + (mTranslateY - focusY) * scaleFactor;
+    }
+
+    /**
+     * 相对于适应控件时的缩放倍数，与控件和图片的尺寸无关，用于保存状态
+     *
+     * @return
+     */
+    public float getRelativeScale() {
+        return mScale / mInitScale;
+    }
+
+    /**
+     * 控件中心在图片中的位置，按图片宽度归一化到0-1
+     *
+     * @return
+     */
+    public float getCenterFractionX() {
+        return viewToSourceX(mViewWidth / 2f) / mSourceWidth;
+    }
+
+    public float getCenterFractionY() {
+        return viewToSourceY(mViewHeight / 2f) / mSourceHeight;
+    }
+
+    /**
+     * 恢复getRelativeScale和getCenterFractionX/Y保存的状态，需要先调用fit
+     * 控件尺寸变化后（例如屏幕旋转）缩放倍数和中心点保持不变，再做边界和居中修正
+     *
+     * @param relativeScale   限制在1到MAX_ZOOM之间
+     * @param centerFractionX
+     * @param centerFractionY
+     */
+    public void restore(float relativeScale, float centerFractionX, float centerFractionY) {
+        float scale = Math.max(mInitScale, Math.min(mMaxScale, mInitScale * relativeScale));
+        mScale = scale;
+        mTranslateX = mViewWidth / 2f - centerFractionX * mSourceWidth * scale;
+        mTranslateY = mViewHeight / 2f - centerFractionY * mSourceHeight * scale;
+        checkBorderAndCenterWhenScale();
+    }
+
+    /**
+     * 拖动图片，图片宽度小于控件宽度时不允许横向移动，高度同理，移动后做边界检查
+     *
+     * @param dx
+     * @param dy
+     */
+    public void panBy(float dx, float dy) {
+        isBeyondLeftAndRight = isBeyondTopAndBottom = true;
+        //如果图片宽度小于控件宽度 不允许横向移动
+        if (getContentWidth() < mViewWidth) {
+            isBeyondLeftAndRight = false;
+            dx = 0;
+        }
+        //如果图片的高度小于控件的高度 不允许纵向移动
+        if (getContentHeight() < mViewHeight) {
+            isBeyondTopAndBottom = false;
+            dy = 0;
+        }
+        translate(dx, dy);
+        checkBorderWhenTranslate();
+    }
+
+    /**
+     * 直接平移，不做任何修正
+     *
+     * @param dx
+     * @param dy
+     */
+    public void translate(float dx, float dy) {
+        mTranslateX += dx;
+        mTranslateY += dy;
+    }
+
+    /**
+     * 在缩放的时候进行边界控制以及中心位置控制
+     */
+    public void checkBorderAndCenterWhenScale() {
+        float left = getContentLeft();
+        float top = getContentTop();
+        float right = getContentRight();
+        float bottom = getContentBottom();
+        float rectWidth = right - left;
+        float rectHeight = bottom - top;
+        float deltaX = 0;
+        float deltaY = 0;
+        int width = mViewWidth;
+        int height = mViewHeight;
+
+        //如果图片的宽和高大于控件的宽和高 在缩放过程中会产生border 进行偏移补偿
+        if (rectWidth >= width) {
+            if (left > 0) {
+                deltaX = -left;
+            }
+            if (right < width) {
+                deltaX = width - right;
+            }
+        }
+
+        if (rectHeight >= height) {
+            if (top > 0) {
+                deltaY = -top;
+            }
+            if (bottom < height) {
+                deltaY = height - bottom;
+            }
+        }
+
+        //如果图片的宽和高小于控件的宽和高，让其居中
+        if (rectWidth < width) {
+            deltaX = width / 2f - right + rectWidth / 2f;
+        }
+        if (rectHeight < height) {
+            deltaY = height / 2f - bottom + rectHeight / 2f;
+        }
+        translate(deltaX, deltaY);
+    }
+
+    /**
+     * 当移动时 进行边界检查
+     */
+    public void checkBorderWhenTranslate() {
+        float left = getContentLeft();
+        float top = getContentTop();
+        float right = getContentRight();
+        float bottom = getContentBottom();
+        float deltaX = 0;
+        float deltaY = 0;
+        int width = mViewWidth;
+        int height = mViewHeight;
+
+        if (top > 0 && isBeyondTopAndBottom) {
+            deltaY = -top;
+        }
+        if (bottom < height && isBeyondTopAndBottom) {
+            deltaY = height - bottom;
+        }
+
+        if (left > 0 && isBeyondLeftAndRight) {
+            deltaX = -left;
+        }
+        if (right < width && isBeyondLeftAndRight) {
+            deltaX = width - right;
+        }
+        translate(deltaX, deltaY);
+    }
+
+    //---------------------图片在控件坐标系中的区域------------------------
+
+    public float getContentLeft() {
+        return mTranslateX;
+    }
+
+    public float getContentTop() {
+        return mTranslateY;
+    }
+
+    public float getContentRight() {
+        return mTranslateX + mSourceWidth * mScale;
+    }
+
+    public float getContentBottom() {
+        return mTranslateY + mSourceHeight * mScale;
+    }
+
+    public float getContentWidth() {
+        return mSourceWidth * mScale;
+    }
+
+    public float getContentHeight() {
+        return mSourceHeight * mScale;
+    }
+
+    /**
+     * 图片的宽度大于控件的宽度，或者图片的高度大于控件的高度
+     *
+     * @return
+     */
+    public boolean isScaled() {
+        return getContentWidth() > mViewWidth || getContentHeight() > mViewHeight;
+    }
+
+    /**
+     * 图片是否超出控件，超出时需要阻止父控件拦截拖动事件
+     *
+     * @return
+     */
+    public boolean isBeyondView() {
+        return getContentWidth() - mViewWidth > 0.01 || getContentHeight() - mViewHeight > 0.01;
+    }
+
+    /**
+     * 控件坐标转换为图片坐标
+     *
+     * @param viewX
+     * @return
+     */
+    public float viewToSourceX(float viewX) {
+        return (viewX - mTranslateX) / mScale;
+    }
+
+    public float viewToSourceY(float viewY) {
+        return (viewY - mTranslateY) / mScale;
+    }
+
+    /**
+     * 计算控件内可见的图片区域（图片坐标系），结果限制在图片范围内
+     *
+     * @param out 长度至少为4，依次写入left top right bottom
+     * @return 可见区域是否非空
+     */
+    public boolean getVisibleSourceRect(float[] out) {
+        float left = Math.max(0, viewToSourceX(0));
+        float top = Math.max(0, viewToSourceY(0));
+        float right = Math.min(mSourceWidth, viewToSourceX(mViewWidth));
+        float bottom = Math.min(mSourceHeight, viewToSourceY(mViewHeight));
+        out[0] = left;
+        out[1] = top;
+        out[2] = right;
+        out[3] = bottom;
+        return left < right && top < bottom;
+    }
+
+    /**
+     * 判断滑动的距离是否触发滑动的临界条件
+     *
+     * @param dx
+     * @param dy
+     * @param touchSlop
+     * @return
+     */
+    public static boolean isMoveAction(float dx, float dy, float touchSlop) {
+        return Math.sqrt(dx * dx + dy * dy) > touchSlop;
+    }
+
+    @Override
+    public String toString() {
+        return "Viewport[view=" + mViewWidth + "x" + mViewHeight
+                + ",source=" + mSourceWidth + "x" + mSourceHeight
+                + ",scale=" + mScale + ",translate=" + mTranslateX + "," + mTranslateY + "]";
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.viewport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ViewportTest {
+    private static final float DELTA = 0.001f;
+
+    private Viewport mViewport;
+
+    @Before
+    public void setUp() {
+        mViewport = new Viewport();
+        mViewport.setViewSize(1080, 1920);
+        mViewport.setSourceSize(4000, 3000);
+        mViewport.fit();
+    }
+
+    @Test
+    public void computeFitScale_matchesLayoutRules() {
+        //图片宽高都比控件大，取较小的比例
+        assertEquals(0.27f, Viewport.computeFitScale(1080, 1920, 4000, 3000), DELTA);
+        //图片宽度小于控件宽度，高度大于控件高度，按高度缩小
+        assertEquals(0.5f, Viewport.computeFitScale(1080, 1920, 500, 3840), DELTA);
+        //图片宽高都比控件小，放大
+        assertEquals(2.0f, Viewport.computeFitScale(1080, 1920, 540, 600), DELTA);
+        //图片尺寸与控件一致时不缩放
+        assertEquals(1.0f, Viewport.computeFitScale(1080, 1920, 1080, 1920), DELTA);
+    }
+
+    @Test
+    public void fit_centersImage() {
+        assertEquals(0.27f, mViewport.getScale(), DELTA);
+        assertEquals(0.54f, mViewport.getMidScale(), DELTA);
+        assertEquals(1.08f, mViewport.getMaxScale(), DELTA);
+        assertEquals(0, mViewport.getContentLeft(), DELTA);
+        assertEquals(1080, mViewport.getContentRight(), DELTA);
+        assertEquals(1920 / 2f, (mViewport.getContentTop() + mViewport.getContentBottom()) / 2, DELTA);
+        assertFalse(mViewport.isScaled());
+    }
+
+    @Test
+    public void zoomBy_clampsToMaxScale() {
+        assertTrue(mViewport.zoomBy(10f, 540, 960));
+        assertEquals(mViewport.getMaxScale(), mViewport.getScale(), DELTA);
+        assertFalse(mViewport.zoomBy(1.5f, 540, 960));
+        assertTrue(mViewport.zoomBy(0.01f, 540, 960));
+        assertEquals(mViewport.getInitScale(), mViewport.getScale(), DELTA);
+    }
+
+    @Test
+    public void zoomBy_keepsBordersInsideView() {
+        mViewport.zoomBy(4f, 0, 0);
+        assertTrue(mViewport.getContentLeft() <= 0);
+        assertTrue(mViewport.getContentTop() <= 0);
+        assertTrue(mViewport.getContentRight() >= 1080);
+        assertTrue(mViewport.getContentBottom() >= 1920);
+    }
+
+    @Test
+    public void panBy_clampsToBorders() {
+        mViewport.zoomBy(4f, 540, 960);
+        mViewport.panBy(100000, 100000);
+        assertEquals(0, mViewport.getContentLeft(), DELTA);
+        assertEquals(0, mViewport.getContentTop(), DELTA);
+        mViewport.panBy(-100000, -100000);
+        assertEquals(1080, mViewport.getContentRight(), DELTA);
+        assertEquals(1920, mViewport.getContentBottom(), DELTA);
+    }
+
+    @Test
+    public void panBy_ignoresAxisSmallerThanView() {
+        float top = mViewport.getContentTop();
+        mViewport.panBy(0, 200);
+        assertEquals(top, mViewport.getContentTop(), DELTA);
+    }
+
+    @Test
+    public void getVisibleSourceRect_mapsViewBackToSource() {
+        float[] rect = new float[4];
+        assertTrue(mViewport.getVisibleSourceRect(rect));
+        assertEquals(0, rect[0], DELTA);
+        assertEquals(0, rect[1], DELTA);
+        assertEquals(4000, rect[2], DELTA);
+        assertEquals(3000, rect[3], DELTA);
+
+        mViewport.zoomTo(1f, 0, 0);
+        assertTrue(mViewport.getVisibleSourceRect(rect));
+        assertEquals(1080, rect[2] - rect[0], DELTA);
+        assertEquals(1920, rect[3] - rect[1], DELTA);
+    }
+
+    @Test
+    public void restore_keepsRelativeZoomAndCenterAcrossViewSizes() {
+        mViewport.zoomTo(mViewport.getInitScale() * 3, 540, 960);
+        mViewport.panBy(300, 0);
+        float relativeScale = mViewport.getRelativeScale();
+        float centerX = mViewport.getCenterFractionX();
+        float centerY = mViewport.getCenterFractionY();
+        assertEquals(3, relativeScale, DELTA);
+
+        //横屏后重新适应控件
+        Viewport rotated = new Viewport();
+        rotated.setViewSize(1920, 1080);
+        rotated.setSourceSize(4000, 3000);
+        rotated.fit();
+        rotated.restore(relativeScale, centerX, centerY);
+        assertEquals(3, rotated.getRelativeScale(), DELTA);
+        assertEquals(centerX, rotated.getCenterFractionX(), DELTA);
+        assertEquals(centerY, rotated.getCenterFractionY(), DELTA);
+    }
+
+    @Test
+    public void restore_clampsScaleAndBorders() {
+        mViewport.restore(100, 0, 0);
+        assertEquals(mViewport.getMaxScale(), mViewport.getScale(), DELTA);
+        assertEquals(0, mViewport.getContentLeft(), DELTA);
+        assertEquals(0, mViewport.getContentTop(), DELTA);
+    }
+}